@@ -0,0 +1,89 @@
+package com.exsoinn.util.epf.bench;
+
+import com.exsoinn.util.epf.Context;
+import com.exsoinn.util.epf.ContextFactory;
+import com.exsoinn.util.epf.SearchOptions;
+import com.exsoinn.util.epf.SearchResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The main query shapes, meant to be run with the GC profiler (<code>-prof gc</code>), which reports the bytes
+ * allocated per operation as <code>gc.alloc.rate.norm</code>. Unlike timings, that figure hardly changes from one run, or
+ * one machine, to the next, which is what allows {@link AllocationCheck} to compare it against a checked in baseline.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AllocationBenchmark {
+    private static final SearchOptions DEFAULT_OPTIONS = SearchOptions.defaultOptions();
+
+    @Param({"SMALL", "MEDIUM"})
+    public Documents.Size size;
+
+    private String json;
+    private Context catalog;
+
+
+    @Setup
+    public void setUp() {
+        json = Documents.json(size);
+        catalog = ContextFactory.obtainContext(json);
+    }
+
+
+    @Benchmark
+    public Context parse() {
+        return ContextFactory.obtainContext(json);
+    }
+
+
+    @Benchmark
+    public SearchResult singleValue() {
+        return catalog.findElementWithOptions(SearchBenchmark.SINGLE_VALUE, DEFAULT_OPTIONS);
+    }
+
+
+    @Benchmark
+    public SearchResult plain() {
+        return catalog.findElementWithOptions(SearchBenchmark.PLAIN, DEFAULT_OPTIONS);
+    }
+
+
+    @Benchmark
+    public SearchResult filter() {
+        return catalog.findElementWithOptions(SearchBenchmark.FILTER, DEFAULT_OPTIONS);
+    }
+
+
+    @Benchmark
+    public SearchResult filterAndTargetElements() {
+        return catalog.findElementWithOptions(SearchBenchmark.FILTER_AND_TARGET_ELEMENTS, DEFAULT_OPTIONS);
+    }
+
+
+    @Benchmark
+    public SearchResult nestedFilterKey() {
+        return catalog.findElementWithOptions(SearchBenchmark.NESTED_FILTER_KEY, DEFAULT_OPTIONS);
+    }
+
+
+    @Benchmark
+    public SearchResult listFilter() {
+        return catalog.findElementWithOptions(SearchBenchmark.LIST_FILTER, DEFAULT_OPTIONS);
+    }
+}
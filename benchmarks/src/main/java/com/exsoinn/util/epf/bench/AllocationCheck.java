@@ -0,0 +1,185 @@
+package com.exsoinn.util.epf.bench;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Runs {@link AllocationBenchmark} with the GC profiler, and compares the bytes allocated per operation of each
+ * benchmark against the baseline checked in as <code>allocation-baseline.properties</code>. Exits with status 1 if any
+ * of them went up by more than the threshold, so that it can gate a build or a release:
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar com.exsoinn.util.epf.bench.AllocationCheck [--baseline FILE] [--threshold PERCENT]
+ *   [--update]
+ * </pre>
+ *
+ * <code>--threshold</code> defaults to 10 percent. <code>--update</code> writes the measured figures to the baseline
+ * file instead of comparing, to be used once an increase has been looked into and accepted, or a decrease achieved.
+ *
+ * Figures this small are noisy in relative terms, so a benchmark also needs to allocate at least 64 more bytes per
+ * operation than its baseline to count as a regression. Benchmarks with no baseline yet are reported, but don't fail
+ * the check. A benchmark of the baseline with no current figure does fail it, since it might have stopped running or
+ * stopped being measured, and so does a run that measures nothing at all.
+ */
+public final class AllocationCheck {
+    private static final String ALLOC_BYTES_PER_OP = "gc.alloc.rate.norm";
+    private static final String DEFAULT_BASELINE = "allocation-baseline.properties";
+    private static final double DEFAULT_THRESHOLD_PCT = 10.0;
+    private static final double MIN_REGRESSION_BYTES = 64.0;
+
+
+    private AllocationCheck() {
+    }
+
+
+    public static void main(String[] pArgs) throws IOException, RunnerException {
+        Path baselineFile = Paths.get(DEFAULT_BASELINE);
+        double thresholdPct = DEFAULT_THRESHOLD_PCT;
+        boolean update = false;
+        for (int i = 0; i < pArgs.length; i++) {
+            switch (pArgs[i]) {
+                case "--baseline":
+                    baselineFile = Paths.get(pArgs[++i]);
+                    break;
+                case "--threshold":
+                    thresholdPct = Double.parseDouble(pArgs[++i]);
+                    break;
+                case "--update":
+                    update = true;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument " + pArgs[i]
+                            + ", expected --baseline FILE, --threshold PERCENT or --update");
+            }
+        }
+
+        Map<String, Double> current = measure();
+        if (current.isEmpty()) {
+            System.out.println("No allocation figures were measured, check that the benchmarks ran and that the GC "
+                    + "profiler is supported by this JVM");
+            System.exit(1);
+        }
+        if (update) {
+            writeBaseline(baselineFile, current);
+            System.out.println("Baseline written to " + baselineFile.toAbsolutePath());
+            return;
+        }
+
+        List<String> regressions = compare(readBaseline(baselineFile), current, thresholdPct);
+        if (!regressions.isEmpty()) {
+            System.out.println();
+            System.out.println("Allocation regressions past " + thresholdPct + "%, or missing figures:");
+            regressions.forEach(r -> System.out.println("  " + r));
+            System.exit(1);
+        }
+        System.out.println();
+        System.out.println("No allocation regressions past " + thresholdPct + "%");
+    }
+
+
+    /**
+     * @return - Bytes allocated per operation, by benchmark, see {@link AllocationCheck#key(BenchmarkParams)}
+     */
+    static Map<String, Double> measure() throws RunnerException {
+        Options opts = new OptionsBuilder()
+                .include(AllocationBenchmark.class.getName() + "\\.")
+                .addProfiler(GCProfiler.class)
+                .build();
+        Map<String, Double> bytesPerOp = new TreeMap<>();
+        for (RunResult rr : new Runner(opts).run()) {
+            Result<?> r = rr.getSecondaryResults().get(ALLOC_BYTES_PER_OP);
+            if (null != r) {
+                bytesPerOp.put(key(rr.getParams()), r.getScore());
+            }
+        }
+        return bytesPerOp;
+    }
+
+
+    /**
+     * Compares <code>pCurrent</code> against <code>pBaseline</code>, printing a line per benchmark.
+     *
+     * @return - One message per benchmark that regressed, or that is in <code>pBaseline</code> but not in
+     *   <code>pCurrent</code>, empty if none
+     */
+    static List<String> compare(Map<String, Double> pBaseline, Map<String, Double> pCurrent, double pThresholdPct) {
+        List<String> regressions = new ArrayList<>();
+        System.out.println(String.format("%-50s %15s %15s %9s", "Benchmark", "Baseline B/op", "Current B/op", "Change"));
+        for (Map.Entry<String, Double> e : pCurrent.entrySet()) {
+            Double base = pBaseline.get(e.getKey());
+            double cur = e.getValue();
+            if (null == base) {
+                System.out.println(String.format("%-50s %15s %15.1f %9s", e.getKey(), "-", cur, "new"));
+                continue;
+            }
+            double changePct = base == 0 ? (cur == 0 ? 0 : Double.POSITIVE_INFINITY) : (cur - base) * 100 / base;
+            System.out.println(String.format("%-50s %15.1f %15.1f %8.1f%%", e.getKey(), base, cur, changePct));
+            if (changePct > pThresholdPct && cur - base >= MIN_REGRESSION_BYTES) {
+                regressions.add(String.format("%s: %.1f -> %.1f bytes/op (%+.1f%%)", e.getKey(), base, cur, changePct));
+            }
+        }
+        for (Map.Entry<String, Double> e : pBaseline.entrySet()) {
+            if (!pCurrent.containsKey(e.getKey())) {
+                System.out.println(String.format("%-50s %15.1f %15s %9s", e.getKey(), e.getValue(), "-", "missing"));
+                regressions.add(e.getKey() + ": no current figure, use --update if the benchmark was removed or "
+                        + "renamed on purpose");
+            }
+        }
+        return regressions;
+    }
+
+
+    /*
+     * Benchmark method name, followed by the values of its parameters, for example "filter.MEDIUM"
+     */
+    private static String key(BenchmarkParams pParams) {
+        String benchmark = pParams.getBenchmark();
+        StringBuilder sb = new StringBuilder(benchmark.substring(benchmark.lastIndexOf('.') + 1));
+        for (String p : pParams.getParamsKeys()) {
+            sb.append('.').append(pParams.getParam(p));
+        }
+        return sb.toString();
+    }
+
+
+    static Map<String, Double> readBaseline(Path pFile) throws IOException {
+        Properties props = new Properties();
+        try (Reader r = Files.newBufferedReader(pFile, StandardCharsets.UTF_8)) {
+            props.load(r);
+        }
+        Map<String, Double> baseline = new TreeMap<>();
+        props.stringPropertyNames().forEach(k -> baseline.put(k, Double.valueOf(props.getProperty(k))));
+        return baseline;
+    }
+
+
+    private static void writeBaseline(Path pFile, Map<String, Double> pBytesPerOp) throws IOException {
+        try (Writer w = Files.newBufferedWriter(pFile, StandardCharsets.UTF_8)) {
+            w.write("# Bytes allocated per operation by AllocationBenchmark, see AllocationCheck\n");
+            w.write("# Java " + System.getProperty("java.version") + "\n");
+            for (Map.Entry<String, Double> e : pBytesPerOp.entrySet()) {
+                w.write(e.getKey() + "=" + String.format(Locale.ROOT, "%.1f", e.getValue()) + "\n");
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.exsoinn.util.epf.bench;
+
+import java.util.Random;
+
+/**
+ * Generates the documents the benchmarks run against. All of them describe a catalog of items, with a top level name and
+ * an array of items, each item holding simple values, a nested supplier object, and an array of tags:
+ *
+ * <pre>
+ * {"catalog":{"name":"catalog-N","items":[{"id":"0","kind":"a","name":"item 0","price":"12.50",
+ *   "sku":"SKU-[0-9]{3}","supplier":{"code":"S3","country":"CA"},"tags":["t1","t4"]}, ...]}}
+ * </pre>
+ *
+ * The same items can also be had as an XML document, or as an anonymous array (the items array alone, at the root). The
+ * content is random, but seeded, so that every run of a benchmark sees the exact same documents.
+ */
+public final class Documents {
+    /**
+     * Number of items in the generated documents
+     */
+    public enum Size {
+        SMALL(10),
+        MEDIUM(1000),
+        LARGE(20000);
+
+        private final int itemCount;
+
+        Size(int pItemCount) {
+            itemCount = pItemCount;
+        }
+
+        public int itemCount() {
+            return itemCount;
+        }
+    }
+
+    private static final String[] KINDS = {"a", "b", "c", "d"};
+    private static final String[] COUNTRIES = {"US", "CA", "MX", "GB", "DE", "FR", "JP"};
+    private static final long SEED = 20170503L;
+
+
+    private Documents() {
+    }
+
+
+    /**
+     * @return - The catalog as a JSON object
+     */
+    public static String json(Size pSize) {
+        StringBuilder sb = new StringBuilder("{\"catalog\":{\"name\":\"catalog-").append(pSize.itemCount())
+                .append("\",\"items\":");
+        appendItems(sb, pSize.itemCount());
+        return sb.append("}}").toString();
+    }
+
+
+    /**
+     * @return - The items of the catalog as an anonymous JSON array
+     */
+    public static String anonymousArray(Size pSize) {
+        StringBuilder sb = new StringBuilder();
+        appendItems(sb, pSize.itemCount());
+        return sb.toString();
+    }
+
+
+    /**
+     * @return - The catalog as XML. Each item is an <code>items</code> element, which the parser turns into an array
+     *   as soon as there are two or more of them
+     */
+    public static String xml(Size pSize) {
+        Random rnd = new Random(SEED);
+        StringBuilder sb = new StringBuilder("<catalog><name>catalog-").append(pSize.itemCount()).append("</name>");
+        for (int i = 0; i < pSize.itemCount(); i++) {
+            sb.append("<items><id>").append(i).append("</id><kind>").append(KINDS[rnd.nextInt(KINDS.length)])
+                    .append("</kind><name>item ").append(i).append("</name><price>").append(price(rnd))
+                    .append("</price><supplier><code>S").append(rnd.nextInt(50)).append("</code><country>")
+                    .append(COUNTRIES[rnd.nextInt(COUNTRIES.length)]).append("</country></supplier>");
+            int tagCnt = 1 + rnd.nextInt(3);
+            for (int t = 0; t < tagCnt; t++) {
+                sb.append("<tags>t").append(rnd.nextInt(10)).append("</tags>");
+            }
+            sb.append("</items>");
+        }
+        return sb.append("</catalog>").toString();
+    }
+
+
+    private static void appendItems(StringBuilder pSb, int pCount) {
+        Random rnd = new Random(SEED);
+        pSb.append('[');
+        for (int i = 0; i < pCount; i++) {
+            if (i > 0) {
+                pSb.append(',');
+            }
+            pSb.append("{\"id\":\"").append(i).append("\",\"kind\":\"").append(KINDS[rnd.nextInt(KINDS.length)])
+                    .append("\",\"name\":\"item ").append(i).append("\",\"price\":\"").append(price(rnd))
+                    .append("\",\"sku\":\"SKU-").append(rnd.nextInt(10)).append("[0-9]{2}\",\"supplier\":{\"code\":\"S")
+                    .append(rnd.nextInt(50)).append("\",\"country\":\"").append(COUNTRIES[rnd.nextInt(COUNTRIES.length)])
+                    .append("\"},\"tags\":[");
+            int tagCnt = 1 + rnd.nextInt(3);
+            for (int t = 0; t < tagCnt; t++) {
+                pSb.append(t == 0 ? "" : ",").append("\"t").append(rnd.nextInt(10)).append('"');
+            }
+            pSb.append("]}");
+        }
+        pSb.append(']');
+    }
+
+
+    private static String price(Random pRnd) {
+        return pRnd.nextInt(500) + "." + (10 + pRnd.nextInt(90));
+    }
+}
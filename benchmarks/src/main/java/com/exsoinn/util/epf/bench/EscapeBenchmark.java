@@ -0,0 +1,59 @@
+package com.exsoinn.util.epf.bench;
+
+import com.exsoinn.util.EscapeUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link EscapeUtil#escapeSpecialCharacters(String)} and {@link EscapeUtil#unescapeSpecialCharacters(String)},
+ * for text of growing length that has special characters sprinkled in.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EscapeBenchmark {
+    private static final String SAMPLE = "node1.node2[1]||key=val;k2=v 2||elem1,elem2 {a:b} (x) @#%^~ & + | ? * / \\ - ";
+
+    @Param({"1", "10", "100"})
+    public int repeat;
+
+    private String raw;
+    private String escaped;
+
+
+    @Setup
+    public void setUp() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < repeat; i++) {
+            sb.append(SAMPLE);
+        }
+        raw = sb.toString();
+        escaped = EscapeUtil.escapeSpecialCharacters(raw);
+    }
+
+
+    @Benchmark
+    public String escape() {
+        return EscapeUtil.escapeSpecialCharacters(raw);
+    }
+
+
+    @Benchmark
+    public String unescape() {
+        return EscapeUtil.unescapeSpecialCharacters(escaped);
+    }
+}
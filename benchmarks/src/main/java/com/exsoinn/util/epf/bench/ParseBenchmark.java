@@ -0,0 +1,70 @@
+package com.exsoinn.util.epf.bench;
+
+import com.exsoinn.util.epf.Context;
+import com.exsoinn.util.epf.ContextFactory;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of building a {@link Context} with {@link ContextFactory#obtainContext(Object)}, out of each of the kinds of
+ * input it accepts.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+    @Param({"SMALL", "MEDIUM", "LARGE"})
+    public Documents.Size size;
+
+    private String json;
+    private JsonElement jsonElement;
+    private String xml;
+
+
+    @Setup
+    public void setUp() {
+        json = Documents.json(size);
+        jsonElement = new JsonParser().parse(json);
+        xml = Documents.xml(size);
+    }
+
+
+    @Benchmark
+    public Context jsonString() {
+        return ContextFactory.obtainContext(json);
+    }
+
+
+    /**
+     * The factory makes a deep copy of the given {@link JsonElement}
+     */
+    @Benchmark
+    public Context jsonElement() {
+        return ContextFactory.obtainContext(jsonElement);
+    }
+
+
+    /**
+     * XML first goes through an attempt to parse it as JSON, then gets converted to JSON text, which is parsed again
+     */
+    @Benchmark
+    public Context xml() {
+        return ContextFactory.obtainContext(xml);
+    }
+}
@@ -0,0 +1,251 @@
+package com.exsoinn.util.epf.bench;
+
+import com.exsoinn.util.epf.Context;
+import com.exsoinn.util.epf.ContextFactory;
+import com.exsoinn.util.epf.SearchOptions;
+import com.exsoinn.util.epf.SelectionCriteria;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Replays recorded selection criteria against a corpus generated by {@link WorkloadGenerator}, and reports throughput,
+ * latency percentiles and allocation, first for building the corpus, then for running every criteria against every
+ * document:
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar com.exsoinn.util.epf.bench.ReplayHarness [--criteria FILE] [--documents N]
+ *   [--format json|xml] [--depth N] [--fan-out N] [--array-size MIN:MAX] [--keys N] [--values N]
+ *   [--distribution uniform|zipf] [--seed N] [--warmup-rounds N] [--rounds N]
+ * </pre>
+ *
+ * The criteria file holds one criteria per line, in the <code>||</code> delimited format of {@link SelectionCriteria};
+ * blank lines and lines starting with <code>#</code> are skipped. Without one, criteria get made up out of the corpus
+ * itself, see {@link WorkloadGenerator#sampleCriteria(int)}, and printed so they can be recorded.
+ *
+ * Since documents of a synthetic corpus don't all have the same structure, the searches are lenient about missing
+ * paths and incompatible search paths and target elements. Searches that fail anyway, for example because a filter key
+ * isn't there in some of the entries found, are counted as errors, and don't count towards the latencies. The errors of
+ * each criteria that had any are reported after the last round, along with the first error message, so that criteria
+ * that don't suit the corpus can be told apart and fixed.
+ *
+ * Allocation is measured on the thread running the queries, which requires a HotSpot based JVM, else it is reported as
+ * not available.
+ */
+public final class ReplayHarness {
+    private static final int SAMPLE_CRITERIA_COUNT = 20;
+    private static final int MAX_ERROR_LENGTH = 200;
+    private static final SearchOptions OPTIONS = SearchOptions.defaultOptions().withMissingPathAsEmpty(true)
+            .withIgnoreIncompatibleSearchPath(true).withIgnoreIncompatibleTargetElement(true);
+
+
+    private ReplayHarness() {
+    }
+
+
+    public static void main(String[] pArgs) throws IOException {
+        WorkloadGenerator gen = WorkloadGenerator.defaults();
+        String criteriaFile = null;
+        int docCount = 100;
+        boolean xml = false;
+        int warmupRounds = 2;
+        int rounds = 5;
+        int values = 1000;
+        WorkloadGenerator.Distribution distribution = WorkloadGenerator.Distribution.ZIPF;
+        for (int i = 0; i < pArgs.length; i++) {
+            String arg = pArgs[i];
+            String val = i + 1 < pArgs.length ? pArgs[++i] : "";
+            switch (arg) {
+                case "--criteria":
+                    criteriaFile = val;
+                    break;
+                case "--documents":
+                    docCount = Integer.parseInt(val);
+                    break;
+                case "--format":
+                    xml = "xml".equalsIgnoreCase(val);
+                    break;
+                case "--depth":
+                    gen = gen.withDepth(Integer.parseInt(val));
+                    break;
+                case "--fan-out":
+                    gen = gen.withFanOut(Integer.parseInt(val));
+                    break;
+                case "--array-size":
+                    String[] range = val.split(":");
+                    gen = gen.withArraySize(Integer.parseInt(range[0]), Integer.parseInt(range[range.length - 1]));
+                    break;
+                case "--keys":
+                    gen = gen.withKeyCardinality(Integer.parseInt(val));
+                    break;
+                case "--values":
+                    values = Integer.parseInt(val);
+                    break;
+                case "--distribution":
+                    distribution = WorkloadGenerator.Distribution.valueOf(val.toUpperCase());
+                    break;
+                case "--seed":
+                    gen = gen.withSeed(Long.parseLong(val));
+                    break;
+                case "--warmup-rounds":
+                    warmupRounds = Integer.parseInt(val);
+                    break;
+                case "--rounds":
+                    rounds = Integer.parseInt(val);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument " + arg + ", see the class documentation");
+            }
+        }
+        gen = gen.withValues(values, distribution);
+
+        List<String> criteriaStrs;
+        if (null != criteriaFile) {
+            criteriaStrs = Files.readAllLines(Paths.get(criteriaFile), StandardCharsets.UTF_8).stream()
+                    .map(String::trim).filter(l -> !l.isEmpty() && !l.startsWith("#")).collect(Collectors.toList());
+        } else {
+            criteriaStrs = gen.sampleCriteria(SAMPLE_CRITERIA_COUNT);
+            System.out.println("# No criteria file given, using these criteria made up out of the corpus:");
+            criteriaStrs.forEach(System.out::println);
+            System.out.println();
+        }
+        List<SelectionCriteria> criteria = criteriaStrs.stream().map(SelectionCriteria::valueOf)
+                .collect(Collectors.toList());
+
+        List<String> texts = new ArrayList<>(docCount);
+        long chars = 0;
+        for (int i = 0; i < docCount; i++) {
+            String text = xml ? gen.xml(i) : gen.json(i);
+            chars += text.length();
+            texts.add(text);
+        }
+        System.out.println(String.format("Corpus: %d %s documents, %.1f KB on average, %d criteria", docCount,
+                xml ? "XML" : "JSON", chars / 1024.0 / docCount, criteria.size()));
+
+        Context[] docs = new Context[docCount];
+        for (int r = 0; r < warmupRounds + 1; r++) {
+            Stats parse = new Stats(docCount);
+            for (int i = 0; i < docCount; i++) {
+                long start = System.nanoTime();
+                docs[i] = ContextFactory.obtainContext(texts.get(i));
+                parse.record(System.nanoTime() - start);
+            }
+            if (r == warmupRounds) {
+                parse.finish();
+                parse.print("parse");
+            }
+        }
+
+        // Every round runs the same searches, hence fails the same ones, those of the last round get reported
+        int[] errorsByCriteria = new int[criteria.size()];
+        String[] firstErrors = new String[criteria.size()];
+        for (int r = 0; r < warmupRounds + rounds; r++) {
+            Stats query = new Stats(docCount * criteria.size());
+            Arrays.fill(errorsByCriteria, 0);
+            for (Context doc : docs) {
+                for (int c = 0; c < criteria.size(); c++) {
+                    long start = System.nanoTime();
+                    try {
+                        doc.findElementWithOptions(criteria.get(c), OPTIONS);
+                        query.record(System.nanoTime() - start);
+                    } catch (RuntimeException e) {
+                        query.error();
+                        if (errorsByCriteria[c]++ == 0) {
+                            firstErrors[c] = e.getMessage();
+                        }
+                    }
+                }
+            }
+            query.finish();
+            query.print(r < warmupRounds ? "warmup " + (r + 1) : "round " + (r - warmupRounds + 1));
+        }
+        printErrors(criteriaStrs, errorsByCriteria, firstErrors, docCount);
+    }
+
+
+    private static void printErrors(List<String> pCriteria, int[] pErrors, String[] pFirstErrors, int pDocCount) {
+        boolean header = false;
+        for (int c = 0; c < pCriteria.size(); c++) {
+            if (pErrors[c] == 0) {
+                continue;
+            }
+            if (!header) {
+                System.out.println();
+                System.out.println("# Criteria that failed, with the number of documents they failed on per round:");
+                header = true;
+            }
+            String msg = String.valueOf(pFirstErrors[c]);
+            System.out.println(String.format("%s  %d of %d documents, first error: %s", pCriteria.get(c), pErrors[c],
+                    pDocCount, msg.length() > MAX_ERROR_LENGTH ? msg.substring(0, MAX_ERROR_LENGTH) + "..." : msg));
+        }
+    }
+
+
+    /*
+     * Latencies and allocation of one round of operations, all run on the current thread
+     */
+    private static final class Stats {
+        private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+        private final long[] latencies;
+        private final long startNanos = System.nanoTime();
+        private final long startBytes = allocatedBytes();
+        private int count;
+        private int errors;
+        private long elapsedNanos;
+        private long bytes;
+
+        private Stats(int pExpected) {
+            latencies = new long[pExpected];
+        }
+
+        void record(long pNanos) {
+            latencies[count++] = pNanos;
+        }
+
+        void error() {
+            errors++;
+        }
+
+        void finish() {
+            elapsedNanos = System.nanoTime() - startNanos;
+            long endBytes = allocatedBytes();
+            bytes = startBytes < 0 || endBytes < 0 ? -1 : endBytes - startBytes;
+            Arrays.sort(latencies, 0, count);
+        }
+
+        void print(String pLabel) {
+            int ops = count + errors;
+            System.out.println(String.format("%-10s %9d ops %12.0f ops/s  p50 %8.1f us  p90 %8.1f us  p99 %8.1f us"
+                            + "  p99.9 %8.1f us  max %9.1f us  %s  %d errors", pLabel, ops,
+                    ops / (elapsedNanos / 1e9), percentile(50), percentile(90), percentile(99), percentile(99.9),
+                    count == 0 ? 0 : latencies[count - 1] / 1e3,
+                    bytes < 0 ? "alloc n/a" : String.format("%10.0f B/op", (double) bytes / Math.max(1, ops)), errors));
+        }
+
+        private double percentile(double pPct) {
+            if (count == 0) {
+                return 0;
+            }
+            int idx = (int) Math.ceil(pPct / 100 * count) - 1;
+            return latencies[Math.max(0, Math.min(count - 1, idx))] / 1e3;
+        }
+
+        private static long allocatedBytes() {
+            if (THREADS instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean t = (com.sun.management.ThreadMXBean) THREADS;
+                if (t.isThreadAllocatedMemorySupported() && t.isThreadAllocatedMemoryEnabled()) {
+                    return t.getThreadAllocatedBytes(Thread.currentThread().getId());
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.exsoinn.util.epf.bench;
+
+import com.exsoinn.util.epf.Context;
+import com.exsoinn.util.epf.ContextFactory;
+import com.exsoinn.util.epf.SearchOptions;
+import com.exsoinn.util.epf.SearchResult;
+import com.exsoinn.util.epf.SelectionCriteria;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Query throughput when many threads search the same {@link Context} at once. Every thread goes through the process wide
+ * caches of {@link com.exsoinn.util.epf.SearchPath}, {@link com.exsoinn.util.epf.TargetElements} and of compiled
+ * regular expressions, both when parsing selection criteria and while searching. Each scenario comes in two flavors:
+ * <ul>
+ *     <li>shared: all the threads use the very same criteria, hence hit the same cache entries</li>
+ *     <li>distinct: each thread uses criteria of its own, which are equivalent to the shared ones, but are spelled
+ *     differently, hence hit cache entries of their own</li>
+ * </ul>
+ *
+ * The number of threads is set when running, either with JMH's <code>-t</code> option, or, to get the scaling
+ * efficiency from 1 to N threads in one go, with {@link ScalingReport}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class ScalingBenchmark {
+    private static final SearchOptions DEFAULT_OPTIONS = SearchOptions.defaultOptions();
+    private static final SearchOptions REGEX_OPTIONS = SearchOptions.defaultOptions().withFoundElemValIsRegex(true);
+    private static final List<String> ITEM_FIELDS = Arrays.asList("id", "kind", "name", "price", "sku");
+
+
+    @State(Scope.Benchmark)
+    public static class Corpus {
+        @Param({"SMALL"})
+        public Documents.Size size;
+
+        Context catalog;
+
+        @Setup
+        public void setUp() {
+            catalog = ContextFactory.obtainContext(Documents.json(size));
+        }
+    }
+
+
+    /**
+     * The criteria each thread runs, in rotation. The shared ones are the same for all threads, the distinct ones differ
+     * from thread to thread in the spelling of search paths and target elements, but find the same data.
+     */
+    @State(Scope.Thread)
+    public static class Criteria {
+        private static final AtomicInteger THREAD_CNT = new AtomicInteger();
+
+        String[] shared;
+        String[] distinct;
+        SelectionCriteria[] sharedParsed;
+        SelectionCriteria[] distinctParsed;
+        int next;
+
+        @Setup
+        public void setUp(Corpus pCorpus) {
+            int thread = THREAD_CNT.getAndIncrement();
+            int itemIdx = thread % pCorpus.size.itemCount();
+            List<String> fields = new ArrayList<>(ITEM_FIELDS);
+            Collections.rotate(fields, thread);
+            String targets = String.join(",", fields.subList(0, 3));
+            shared = new String[] {
+                    "catalog.items[0].supplier.country||null||null",
+                    "catalog.items||kind=b||id,price,sku",
+                    "catalog.items||supplier.country=CA||id,name,supplier.code"};
+            distinct = new String[] {
+                    "catalog.items[" + itemIdx + "].supplier.country||null||null",
+                    "catalog.items||kind=b||" + targets,
+                    "catalog.items||supplier.country=CA||" + targets + ",supplier.code"};
+            sharedParsed = parse(shared);
+            distinctParsed = parse(distinct);
+        }
+
+        private static SelectionCriteria[] parse(String[] pStrs) {
+            return Arrays.stream(pStrs).map(SelectionCriteria::valueOf).toArray(SelectionCriteria[]::new);
+        }
+
+        int nextIdx() {
+            int idx = next;
+            next = (next + 1) % shared.length;
+            return idx;
+        }
+    }
+
+
+    /**
+     * The criteria get parsed on every operation, as happens when criteria come in as text, for example from a
+     * configuration file or a request
+     */
+    @Benchmark
+    public SearchResult parseAndSearchShared(Corpus pCorpus, Criteria pCriteria) {
+        return pCorpus.catalog.findElementWithOptions(SelectionCriteria.valueOf(pCriteria.shared[pCriteria.nextIdx()]),
+                DEFAULT_OPTIONS);
+    }
+
+
+    @Benchmark
+    public SearchResult parseAndSearchDistinct(Corpus pCorpus, Criteria pCriteria) {
+        return pCorpus.catalog.findElementWithOptions(
+                SelectionCriteria.valueOf(pCriteria.distinct[pCriteria.nextIdx()]), DEFAULT_OPTIONS);
+    }
+
+
+    @Benchmark
+    public SearchResult searchShared(Corpus pCorpus, Criteria pCriteria) {
+        return pCorpus.catalog.findElementWithOptions(pCriteria.sharedParsed[pCriteria.nextIdx()], DEFAULT_OPTIONS);
+    }
+
+
+    @Benchmark
+    public SearchResult searchDistinct(Corpus pCorpus, Criteria pCriteria) {
+        return pCorpus.catalog.findElementWithOptions(pCriteria.distinctParsed[pCriteria.nextIdx()], DEFAULT_OPTIONS);
+    }
+
+
+    /**
+     * Every array entry looks up its regular expression in the pattern cache, see
+     * {@link Context#FOUND_ELEM_VAL_IS_REGEX}
+     */
+    @Benchmark
+    public SearchResult regexShared(Corpus pCorpus) {
+        return pCorpus.catalog.findElementWithOptions(SearchBenchmark.REGEX_FILTER, REGEX_OPTIONS);
+    }
+}
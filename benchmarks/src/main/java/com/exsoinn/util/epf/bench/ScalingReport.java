@@ -0,0 +1,95 @@
+package com.exsoinn.util.epf.bench;
+
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Runs {@link ScalingBenchmark} with 1, 2, 4, ... up to N threads, and reports, for each benchmark and number of
+ * threads, the total throughput, the throughput per thread, and the scaling efficiency, which is the total throughput
+ * divided by what perfect scaling of the single thread throughput would give. An efficiency well below 1 while there are
+ * idle cores left points at contention, be it on locks, or on cache lines written by several threads, such as those of
+ * a shared cache. Comparing the shared and distinct flavors of a scenario tells if the contention comes from threads
+ * hitting the same cache entries.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar com.exsoinn.util.epf.bench.ScalingReport [--max-threads N] [--include REGEX]
+ *   [--prof PROFILER]
+ * </pre>
+ *
+ * <code>--max-threads</code> defaults to the number of available processors. <code>--include</code> narrows down the
+ * benchmarks, for example <code>Shared</code>. <code>--prof</code> adds a JMH profiler to every run, for example
+ * <code>perfc2c</code> on Linux, to see which cache lines are contended.
+ */
+public final class ScalingReport {
+    private ScalingReport() {
+    }
+
+
+    public static void main(String[] pArgs) throws RunnerException {
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        String include = "";
+        List<String> profilers = new ArrayList<>();
+        for (int i = 0; i < pArgs.length; i++) {
+            switch (pArgs[i]) {
+                case "--max-threads":
+                    maxThreads = Integer.parseInt(pArgs[++i]);
+                    break;
+                case "--include":
+                    include = pArgs[++i];
+                    break;
+                case "--prof":
+                    profilers.add(pArgs[++i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument " + pArgs[i]
+                            + ", expected --max-threads N, --include REGEX or --prof PROFILER");
+            }
+        }
+
+        // Benchmark -> threads -> ops/ms
+        Map<String, Map<Integer, Double>> scores = new TreeMap<>();
+        for (int threads : threadCounts(maxThreads)) {
+            ChainedOptionsBuilder opts = new OptionsBuilder()
+                    .include(ScalingBenchmark.class.getName() + "\\..*" + include)
+                    .threads(threads);
+            profilers.forEach(opts::addProfiler);
+            for (RunResult rr : new Runner(opts.build()).run()) {
+                String benchmark = rr.getParams().getBenchmark();
+                scores.computeIfAbsent(benchmark.substring(benchmark.lastIndexOf('.') + 1), k -> new LinkedHashMap<>())
+                        .put(threads, rr.getPrimaryResult().getScore());
+            }
+        }
+
+        System.out.println();
+        System.out.println(String.format("%-25s %8s %14s %18s %11s", "Benchmark", "Threads", "Total ops/ms",
+                "Per thread ops/ms", "Efficiency"));
+        for (Map.Entry<String, Map<Integer, Double>> e : scores.entrySet()) {
+            Double single = e.getValue().get(1);
+            for (Map.Entry<Integer, Double> t : e.getValue().entrySet()) {
+                int threads = t.getKey();
+                double total = t.getValue();
+                System.out.println(String.format("%-25s %8d %14.1f %18.1f %11s", e.getKey(), threads, total,
+                        total / threads, null == single ? "-" : String.format("%.2f", total / (threads * single))));
+            }
+        }
+    }
+
+
+    static List<Integer> threadCounts(int pMax) {
+        List<Integer> counts = new ArrayList<>();
+        for (int t = 1; t < pMax; t *= 2) {
+            counts.add(t);
+        }
+        counts.add(Math.max(1, pMax));
+        return counts;
+    }
+}
@@ -0,0 +1,125 @@
+package com.exsoinn.util.epf.bench;
+
+import com.exsoinn.util.epf.Context;
+import com.exsoinn.util.epf.ContextFactory;
+import com.exsoinn.util.epf.SearchOptions;
+import com.exsoinn.util.epf.SearchResult;
+import com.exsoinn.util.epf.SelectionCriteria;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link Context#findElementWithOptions(SelectionCriteria, SearchOptions)} for the common query shapes. The
+ * {@link Context}'s are built once per trial, only the search is measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SearchBenchmark {
+    static final SelectionCriteria PLAIN = SelectionCriteria.valueOf("catalog.items||null||null");
+    static final SelectionCriteria FILTER = SelectionCriteria.valueOf("catalog.items||kind=b||null");
+    static final SelectionCriteria TARGET_ELEMENTS = SelectionCriteria.valueOf("catalog.items||null||id,price");
+    static final SelectionCriteria FILTER_AND_TARGET_ELEMENTS =
+            SelectionCriteria.valueOf("catalog.items||kind=b||id,price");
+    static final SelectionCriteria NESTED_FILTER_KEY =
+            SelectionCriteria.valueOf("catalog.items||supplier.country=CA||id");
+    static final SelectionCriteria WILDCARD_FILTER = SelectionCriteria.valueOf("catalog.items||name=*7||id");
+    static final SelectionCriteria LIST_FILTER = SelectionCriteria.valueOf("catalog.items||kind=[a,c]||id");
+    static final SelectionCriteria REGEX_FILTER = SelectionCriteria.valueOf("catalog.items||sku=SKU-312||id");
+    static final SelectionCriteria SINGLE_VALUE = SelectionCriteria.valueOf("catalog.name||null||null");
+    static final SelectionCriteria ANONYMOUS_ARRAY_ROOT =
+            SelectionCriteria.valueOf("[5].supplier.country||null||null");
+
+    private static final SearchOptions DEFAULT_OPTIONS = SearchOptions.defaultOptions();
+    private static final SearchOptions REGEX_OPTIONS = SearchOptions.defaultOptions().withFoundElemValIsRegex(true);
+
+    @Param({"SMALL", "MEDIUM", "LARGE"})
+    public Documents.Size size;
+
+    private Context catalog;
+    private Context anonymousArray;
+
+
+    @Setup
+    public void setUp() {
+        catalog = ContextFactory.obtainContext(Documents.json(size));
+        anonymousArray = ContextFactory.obtainContext(Documents.anonymousArray(size));
+    }
+
+
+    @Benchmark
+    public SearchResult singleValue() {
+        return catalog.findElementWithOptions(SINGLE_VALUE, DEFAULT_OPTIONS);
+    }
+
+
+    @Benchmark
+    public SearchResult plain() {
+        return catalog.findElementWithOptions(PLAIN, DEFAULT_OPTIONS);
+    }
+
+
+    @Benchmark
+    public SearchResult filter() {
+        return catalog.findElementWithOptions(FILTER, DEFAULT_OPTIONS);
+    }
+
+
+    @Benchmark
+    public SearchResult targetElements() {
+        return catalog.findElementWithOptions(TARGET_ELEMENTS, DEFAULT_OPTIONS);
+    }
+
+
+    @Benchmark
+    public SearchResult filterAndTargetElements() {
+        return catalog.findElementWithOptions(FILTER_AND_TARGET_ELEMENTS, DEFAULT_OPTIONS);
+    }
+
+
+    @Benchmark
+    public SearchResult nestedFilterKey() {
+        return catalog.findElementWithOptions(NESTED_FILTER_KEY, DEFAULT_OPTIONS);
+    }
+
+
+    @Benchmark
+    public SearchResult wildcardFilter() {
+        return catalog.findElementWithOptions(WILDCARD_FILTER, DEFAULT_OPTIONS);
+    }
+
+
+    @Benchmark
+    public SearchResult listFilter() {
+        return catalog.findElementWithOptions(LIST_FILTER, DEFAULT_OPTIONS);
+    }
+
+
+    /**
+     * The values found in the document are the regular expressions, see {@link Context#FOUND_ELEM_VAL_IS_REGEX}
+     */
+    @Benchmark
+    public SearchResult regexFilter() {
+        return catalog.findElementWithOptions(REGEX_FILTER, REGEX_OPTIONS);
+    }
+
+
+    @Benchmark
+    public SearchResult anonymousArrayRoot() {
+        return anonymousArray.findElementWithOptions(ANONYMOUS_ARRAY_ROOT, DEFAULT_OPTIONS);
+    }
+}
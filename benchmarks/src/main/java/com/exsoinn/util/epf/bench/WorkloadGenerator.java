@@ -0,0 +1,361 @@
+package com.exsoinn.util.epf.bench;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates synthetic documents of a configurable shape, in JSON or XML, for workloads at scale. Each document has a
+ * single root member named <code>doc</code>, holding an object whose members are, at random, plain values, nested
+ * objects, or arrays of nested objects, down to the configured depth:
+ *
+ * <ul>
+ *     <li>depth: how many levels of nested objects below the root object</li>
+ *     <li>fan-out: how many members each object has</li>
+ *     <li>array size: the range of the number of entries of arrays</li>
+ *     <li>key cardinality: how many distinct member names there are, named <code>k0</code>, <code>k1</code>, ...</li>
+ *     <li>value cardinality and distribution: plain values are <code>v0</code>, <code>v1</code>, ..., drawn either
+ *     uniformly, or following a Zipf distribution, in which case a few values are very common and most are rare, as is
+ *     usually the case with real data</li>
+ * </ul>
+ *
+ * Document <code>n</code> is always the same for the same settings and seed, so a corpus can be generated again at will
+ * rather than stored. Instances are immutable.
+ */
+public final class WorkloadGenerator {
+    public enum Distribution {
+        UNIFORM,
+        ZIPF
+    }
+
+    static final String ROOT = "doc";
+    private static final double ZIPF_EXPONENT = 1.0;
+
+    private final int depth;
+    private final int fanOut;
+    private final int minArraySize;
+    private final int maxArraySize;
+    private final int keyCardinality;
+    private final int valueCardinality;
+    private final Distribution distribution;
+    private final double arrayProbability;
+    private final double objectProbability;
+    private final long seed;
+    /*
+     * Cumulative probabilities of the values, when the distribution is Zipf
+     */
+    private final double[] zipfCdf;
+
+
+    private WorkloadGenerator(int pDepth,
+                              int pFanOut,
+                              int pMinArraySize,
+                              int pMaxArraySize,
+                              int pKeyCardinality,
+                              int pValueCardinality,
+                              Distribution pDistribution,
+                              double pArrayProbability,
+                              double pObjectProbability,
+                              long pSeed) {
+        if (pDepth < 0 || pFanOut < 1 || pMinArraySize < 1 || pMaxArraySize < pMinArraySize || pValueCardinality < 1) {
+            throw new IllegalArgumentException("Invalid workload shape: depth=" + pDepth + ", fan-out=" + pFanOut
+                    + ", array size=" + pMinArraySize + ":" + pMaxArraySize + ", values=" + pValueCardinality);
+        }
+        if (pKeyCardinality < pFanOut) {
+            throw new IllegalArgumentException("The key cardinality (" + pKeyCardinality
+                    + ") can't be less than the fan-out (" + pFanOut + "), member names must be unique in an object");
+        }
+        depth = pDepth;
+        fanOut = pFanOut;
+        minArraySize = pMinArraySize;
+        maxArraySize = pMaxArraySize;
+        keyCardinality = pKeyCardinality;
+        valueCardinality = pValueCardinality;
+        distribution = pDistribution;
+        arrayProbability = pArrayProbability;
+        objectProbability = pObjectProbability;
+        seed = pSeed;
+        zipfCdf = pDistribution == Distribution.ZIPF ? zipfCdf(pValueCardinality) : null;
+    }
+
+
+    /**
+     * @return - A generator with depth 3, fan-out 5, arrays of 1 to 10 entries, 50 distinct keys, and 1000 distinct
+     *   values following a Zipf distribution
+     */
+    public static WorkloadGenerator defaults() {
+        return new WorkloadGenerator(3, 5, 1, 10, 50, 1000, Distribution.ZIPF, 0.2, 0.2, 20170503L);
+    }
+
+
+    public WorkloadGenerator withDepth(int pDepth) {
+        return new WorkloadGenerator(pDepth, fanOut, minArraySize, maxArraySize, keyCardinality, valueCardinality,
+                distribution, arrayProbability, objectProbability, seed);
+    }
+
+
+    public WorkloadGenerator withFanOut(int pFanOut) {
+        return new WorkloadGenerator(depth, pFanOut, minArraySize, maxArraySize, keyCardinality, valueCardinality,
+                distribution, arrayProbability, objectProbability, seed);
+    }
+
+
+    public WorkloadGenerator withArraySize(int pMin, int pMax) {
+        return new WorkloadGenerator(depth, fanOut, pMin, pMax, keyCardinality, valueCardinality, distribution,
+                arrayProbability, objectProbability, seed);
+    }
+
+
+    public WorkloadGenerator withKeyCardinality(int pKeys) {
+        return new WorkloadGenerator(depth, fanOut, minArraySize, maxArraySize, pKeys, valueCardinality, distribution,
+                arrayProbability, objectProbability, seed);
+    }
+
+
+    public WorkloadGenerator withValues(int pCardinality, Distribution pDistribution) {
+        return new WorkloadGenerator(depth, fanOut, minArraySize, maxArraySize, keyCardinality, pCardinality,
+                pDistribution, arrayProbability, objectProbability, seed);
+    }
+
+
+    /**
+     * @param pArrayProbability - Probability of a member, above the deepest level, being an array of objects
+     * @param pObjectProbability - Probability of a member, above the deepest level, being a nested object
+     */
+    public WorkloadGenerator withNesting(double pArrayProbability, double pObjectProbability) {
+        if (pArrayProbability < 0 || pObjectProbability < 0 || pArrayProbability + pObjectProbability > 1) {
+            throw new IllegalArgumentException("Invalid nesting probabilities " + pArrayProbability + " and "
+                    + pObjectProbability);
+        }
+        return new WorkloadGenerator(depth, fanOut, minArraySize, maxArraySize, keyCardinality, valueCardinality,
+                distribution, pArrayProbability, pObjectProbability, seed);
+    }
+
+
+    public WorkloadGenerator withSeed(long pSeed) {
+        return new WorkloadGenerator(depth, fanOut, minArraySize, maxArraySize, keyCardinality, valueCardinality,
+                distribution, arrayProbability, objectProbability, pSeed);
+    }
+
+
+    /**
+     * @return - Document number <code>pDocIdx</code>, as JSON
+     */
+    public String json(int pDocIdx) {
+        StringBuilder sb = new StringBuilder("{\"" + ROOT + "\":");
+        appendJson(sb, generate(pDocIdx));
+        return sb.append('}').toString();
+    }
+
+
+    /**
+     * @return - Document number <code>pDocIdx</code>, as XML. Arrays become repeated elements, hence an array that
+     *   happens to have only one entry reads as a plain object once parsed
+     */
+    public String xml(int pDocIdx) {
+        StringBuilder sb = new StringBuilder();
+        appendXml(sb, ROOT, generate(pDocIdx));
+        return sb.toString();
+    }
+
+
+    /**
+     * Builds selection criteria, in the <code>||</code> delimited format of {@link com.exsoinn.util.epf.SelectionCriteria},
+     * that find something in the first documents of the corpus: search paths down to plain values, and search paths to
+     * arrays, with a filter on a value of one of the entries, and target elements. Meant to bootstrap a criteria file
+     * for {@link ReplayHarness} when no recorded one is at hand.
+     */
+    public List<String> sampleCriteria(int pCount) {
+        List<String> criteria = new ArrayList<>(pCount);
+        Random rnd = new Random(seed ^ 0x5DEECE66DL);
+        for (int i = 0; criteria.size() < pCount && i < pCount * 20; i++) {
+            String sc = sampleCriteria(generate(i % 10), rnd);
+            if (null != sc && !criteria.contains(sc)) {
+                criteria.add(sc);
+            }
+        }
+        return criteria;
+    }
+
+
+    private String sampleCriteria(Map<String, Object> pDoc, Random pRnd) {
+        StringBuilder path = new StringBuilder(ROOT);
+        Map<String, Object> node = pDoc;
+        while (true) {
+            /*
+             * Most members are plain values, favor the nested ones, for criteria that go deeper than the first level
+             */
+            List<String> keys = new ArrayList<>(node.keySet());
+            List<String> nested = new ArrayList<>();
+            node.forEach((k, v) -> {
+                if (!(v instanceof String)) {
+                    nested.add(k);
+                }
+            });
+            if (!nested.isEmpty() && pRnd.nextDouble() < 0.75) {
+                keys = nested;
+            }
+            String key = keys.get(pRnd.nextInt(keys.size()));
+            Object val = node.get(key);
+            path.append('.').append(key);
+            if (val instanceof String) {
+                return path + "||null||null";
+            } else if (val instanceof List) {
+                List<?> entries = (List<?>) val;
+                if (pRnd.nextBoolean() || entries.size() < 2) {
+                    // Go on into the first entry, the one entry every array is guaranteed to have
+                    path.append("[0]");
+                    node = asMap(entries.get(0));
+                    continue;
+                }
+                return arrayCriteria(path.toString(), entries, pRnd);
+            } else {
+                node = asMap(val);
+            }
+        }
+    }
+
+
+    /*
+     * Filter on a plain value of one of the entries, target elements two of its other members. A filter key has to be
+     * there in every entry the search finds, else the search fails, hence the search path selects that one entry, unless
+     * all entries happen to have the filter key as a plain value
+     */
+    private static String arrayCriteria(String pPath, List<?> pEntries, Random pRnd) {
+        int idx = pRnd.nextInt(pEntries.size());
+        Map<String, Object> entry = asMap(pEntries.get(idx));
+        List<String> plain = new ArrayList<>();
+        entry.forEach((k, v) -> {
+            if (v instanceof String) {
+                plain.add(k);
+            }
+        });
+        if (plain.isEmpty()) {
+            return pPath + "||null||null";
+        }
+        String filterKey = plain.get(pRnd.nextInt(plain.size()));
+        boolean inAll = pEntries.stream().allMatch(e -> asMap(e).get(filterKey) instanceof String);
+        String path = inAll ? pPath : pPath + "[" + idx + "]";
+        List<String> others = new ArrayList<>(entry.keySet());
+        others.remove(filterKey);
+        Collections.shuffle(others, pRnd);
+        String targets = others.isEmpty() ? "null" : String.join(",", others.subList(0, Math.min(2, others.size())));
+        return path + "||" + filterKey + "=" + entry.get(filterKey) + "||" + targets;
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> asMap(Object pObj) {
+        return (Map<String, Object>) pObj;
+    }
+
+
+    private Map<String, Object> generate(int pDocIdx) {
+        return generateObject(new Random(seed * 31 + pDocIdx), 0);
+    }
+
+
+    private Map<String, Object> generateObject(Random pRnd, int pLevel) {
+        Map<String, Object> obj = new LinkedHashMap<>();
+        while (obj.size() < fanOut) {
+            String key = "k" + pRnd.nextInt(keyCardinality);
+            if (obj.containsKey(key)) {
+                continue;
+            }
+            double kind = pRnd.nextDouble();
+            if (pLevel < depth && kind < arrayProbability) {
+                int size = minArraySize + pRnd.nextInt(maxArraySize - minArraySize + 1);
+                List<Object> ary = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    ary.add(generateObject(pRnd, pLevel + 1));
+                }
+                obj.put(key, ary);
+            } else if (pLevel < depth && kind < arrayProbability + objectProbability) {
+                obj.put(key, generateObject(pRnd, pLevel + 1));
+            } else {
+                obj.put(key, "v" + nextValue(pRnd));
+            }
+        }
+        return obj;
+    }
+
+
+    private int nextValue(Random pRnd) {
+        if (distribution == Distribution.UNIFORM) {
+            return pRnd.nextInt(valueCardinality);
+        }
+        double u = pRnd.nextDouble();
+        int lo = 0;
+        int hi = zipfCdf.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (zipfCdf[mid] < u) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+
+    private static double[] zipfCdf(int pCardinality) {
+        double[] cdf = new double[pCardinality];
+        double sum = 0;
+        for (int i = 0; i < pCardinality; i++) {
+            sum += 1.0 / Math.pow(i + 1, ZIPF_EXPONENT);
+            cdf[i] = sum;
+        }
+        for (int i = 0; i < pCardinality; i++) {
+            cdf[i] /= sum;
+        }
+        return cdf;
+    }
+
+
+    private static void appendJson(StringBuilder pSb, Object pVal) {
+        if (pVal instanceof String) {
+            pSb.append('"').append(pVal).append('"');
+        } else if (pVal instanceof List) {
+            pSb.append('[');
+            boolean first = true;
+            for (Object e : (List<?>) pVal) {
+                pSb.append(first ? "" : ",");
+                appendJson(pSb, e);
+                first = false;
+            }
+            pSb.append(']');
+        } else {
+            pSb.append('{');
+            boolean first = true;
+            for (Map.Entry<String, Object> e : asMap(pVal).entrySet()) {
+                pSb.append(first ? "\"" : ",\"").append(e.getKey()).append("\":");
+                appendJson(pSb, e.getValue());
+                first = false;
+            }
+            pSb.append('}');
+        }
+    }
+
+
+    private static void appendXml(StringBuilder pSb, String pName, Object pVal) {
+        if (pVal instanceof List) {
+            for (Object e : (List<?>) pVal) {
+                appendXml(pSb, pName, e);
+            }
+            return;
+        }
+        pSb.append('<').append(pName).append('>');
+        if (pVal instanceof String) {
+            pSb.append(pVal);
+        } else {
+            for (Map.Entry<String, Object> e : asMap(pVal).entrySet()) {
+                appendXml(pSb, e.getKey(), e.getValue());
+            }
+        }
+        pSb.append("</").append(pName).append('>');
+    }
+}
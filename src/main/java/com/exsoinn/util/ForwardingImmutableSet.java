@@ -89,6 +89,16 @@ public class ForwardingImmutableSet<E> implements Set<E> {
         throw new UnsupportedOperationException();
     }
 
+    @Override
+    public boolean equals(Object o) {
+        return this == o || list.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        return list.hashCode();
+    }
+
     @Override
     public String toString() {
         return list.toString();
@@ -3,10 +3,14 @@ package com.exsoinn.util.epf;
 import net.jcip.annotations.Immutable;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 
 /**
@@ -31,6 +35,10 @@ import java.util.stream.Collectors;
  *   Note that if you mix both methods above, the first one, regular expression matching will take precedence, and passing wildcards (*)
  *   in the filter values will have no effect (get completely ignored by code).
  *
+ * Internally the engine never looks at the extra parameters {@code Map} itself, it gets converted just once at the beginning of the
+ * search into a {@link SearchOptions}, and it is that object that gets passed around. Callers can also supply the
+ * {@link SearchOptions} directly, via {@link Context#findElementWithOptions(SelectionCriteria, SearchOptions)}.
+ *
  *
  * Created by QuijadaJ on 5/4/2017.
  */
@@ -40,6 +48,10 @@ abstract class AbstractContext implements Context {
     private static final Map<String, Pattern> patternCache = new ConcurrentHashMap<>();
     private static final String ANON_ARY_HANDLE = "anonymousArray";
 
+    private volatile Map<String, List<Context>> nameIndex;
+    private volatile ContextStats stats;
+    private volatile ResultCache resultCache;
+
 
     @Override
     public SearchResult findElement(SearchPath pSearchPath,
@@ -47,87 +59,832 @@ abstract class AbstractContext implements Context {
                                     TargetElements pTargetElements,
                                     Map<String, String> pExtraParams)
             throws IllegalArgumentException {
-        Map<String, Context> found = findElement(this, pSearchPath, pFilter, pTargetElements, null, pExtraParams);
-        return SearchResult.createSearchResult(found);
+        return search(pSearchPath, pFilter, pTargetElements, SearchOptions.fromMap(pExtraParams));
     }
 
     @Override
     public SearchResult findElement(SelectionCriteria pSelectCriteria,
                                     Map<String, String> pExtraParams) throws IllegalArgumentException {
-        return findElement(
-                pSelectCriteria.getSearchPath(), pSelectCriteria.getFilter(), pSelectCriteria.getTargetElements(), pExtraParams);
+        return findElementWithOptions(pSelectCriteria, SearchOptions.fromMap(pExtraParams));
+    }
+
+    @Override
+    public SearchResult findElementWithOptions(SelectionCriteria pSelectCriteria,
+                                               SearchOptions pOptions) throws IllegalArgumentException {
+        return search(pSelectCriteria.getSearchPath(), pSelectCriteria.getFilter(), pSelectCriteria.getTargetElements(),
+                null == pOptions ? SearchOptions.defaultOptions() : pOptions);
+    }
+
+
+    @Override
+    public CompletableFuture<SearchResult> findElementAsync(SelectionCriteria pSelectCriteria,
+                                                            SearchOptions pOptions,
+                                                            Executor pExecutor) {
+        SearchOptions opts = null == pOptions ? SearchOptions.defaultOptions() : pOptions;
+        return SearchGuard.supplyAsync(guard -> findElementWithOptions(pSelectCriteria, opts, guard), pExecutor);
+    }
+
+
+    /**
+     * Same as {@link Context#findElementWithOptions(SelectionCriteria, SearchOptions)}, for a search that can be
+     * cancelled via <code>pCancellation</code>, see {@link SearchGuard#supplyAsync}
+     */
+    SearchResult findElementWithOptions(SelectionCriteria pSelectCriteria,
+                                        SearchOptions pOptions,
+                                        SearchGuard pCancellation) {
+        return search(pSelectCriteria.getSearchPath(), pSelectCriteria.getFilter(), pSelectCriteria.getTargetElements(),
+                RunningSearch.start(pOptions, pCancellation, null));
+    }
+
+
+    @Override
+    public QueryProfile explain(SelectionCriteria pSelectCriteria, SearchOptions pOptions)
+            throws IllegalArgumentException {
+        SearchOptions opts = (null == pOptions ? SearchOptions.defaultOptions() : pOptions)
+                .withParallelExecution(null, 0);
+        QueryProfiler profiler = new QueryProfiler(pSelectCriteria.toString());
+        SearchResult res = search(pSelectCriteria.getSearchPath(), pSelectCriteria.getFilter(),
+                pSelectCriteria.getTargetElements(), RunningSearch.start(opts, null, profiler));
+        return profiler.finish(res);
     }
 
 
+    /**
+     * Computed the first time it is asked for, and remembered, unless this is a {@link MutableContext}, which can change
+     * after the fact, and hence gets walked every time. Under contention more than one thread might end up computing it,
+     * which is harmless since the result is the same.
+     */
+    @Override
+    public ContextStats stats() {
+        if (this instanceof MutableContext) {
+            return ContextStats.compute(this);
+        }
+        ContextStats s = stats;
+        if (null == s) {
+            s = ContextStats.compute(this);
+            stats = s;
+        }
+        return s;
+    }
+
+
+    @Override
+    public boolean exists(SelectionCriteria pSelectCriteria, SearchOptions pOptions) throws IllegalArgumentException {
+        SearchOptions opts = (null == pOptions ? SearchOptions.defaultOptions() : pOptions)
+                .withMissingPathAsEmpty(true).withResultLimit(1).withExistenceCheck(true);
+        RunningSearch search = RunningSearch.start(opts);
+        SearchPath sp = pSelectCriteria.getSearchPath();
+        Filter f = pSelectCriteria.getFilter();
+        if (!SearchMetricsRegistry.isEnabled()) {
+            return !findElement(this, sp, f, null, search).isEmpty();
+        }
+
+        SearchMetrics metrics = SearchMetricsRegistry.get();
+        metrics.searchStarted(this, sp, f, null);
+        long start = System.nanoTime();
+        Map<String, Context> found;
+        try {
+            found = findElement(this, sp, f, null, search);
+        } catch (RuntimeException e) {
+            metrics.searchFailed(this, sp, f, null, System.nanoTime() - start, e);
+            throw e;
+        }
+        reportSearch(metrics, this, sp, f, null, search, start, found.size());
+        return !found.isEmpty();
+    }
+
+
+    @Override
+    public Stream<Map.Entry<String, Context>> findElementStream(SelectionCriteria pSelectCriteria,
+                                                              SearchOptions pOptions) {
+        MatchSpliterator matches = new MatchSpliterator(this, pSelectCriteria,
+                null == pOptions ? SearchOptions.defaultOptions() : pOptions);
+        return StreamSupport.stream(matches, false).onClose(matches::close);
+    }
+
+
+    @Override
+    public void findElement(SelectionCriteria pSelectCriteria,
+                            SearchOptions pOptions,
+                            MatchVisitor pVisitor) throws IllegalArgumentException {
+        SearchOptions opts = null == pOptions ? SearchOptions.defaultOptions() : pOptions;
+        RunningSearch search = RunningSearch.start(opts);
+        if (!SearchMetricsRegistry.isEnabled()) {
+            visitMatches(pSelectCriteria, search, pVisitor);
+            return;
+        }
+
+        SearchPath sp = pSelectCriteria.getSearchPath();
+        Filter f = pSelectCriteria.getFilter();
+        TargetElements te = pSelectCriteria.getTargetElements();
+        SearchMetrics metrics = SearchMetricsRegistry.get();
+        metrics.searchStarted(this, sp, f, te);
+        long start = System.nanoTime();
+        int matchCnt;
+        try {
+            matchCnt = visitMatches(pSelectCriteria, search, pVisitor);
+        } catch (RuntimeException e) {
+            metrics.searchFailed(this, sp, f, te, System.nanoTime() - start, e);
+            throw e;
+        }
+        reportSearch(metrics, this, sp, f, te, search, start, matchCnt);
+    }
+
+
+    /*
+     * The MatchVisitor flavor of the search proper, gives back the number of matches visited
+     */
+    private int visitMatches(SelectionCriteria pSelectCriteria, RunningSearch pSearch, MatchVisitor pVisitor) {
+        SearchOptions opts = pSearch.getOptions();
+        Filter filter = pSelectCriteria.getFilter();
+        TargetElements targetElems = pSelectCriteria.getTargetElements();
+        int matchCnt = 0;
+        List<String> paths = new ArrayList<>();
+        List<Map.Entry<String, Context>> endNodes =
+                locateEndNodes(this, pSelectCriteria.getSearchPath(), pSearch, paths);
+        for (int n = 0; n < endNodes.size(); n++) {
+            String elemName = endNodes.get(n).getKey();
+            Context elem = endNodes.get(n).getValue();
+            String path = paths.get(n);
+            if (opts.resultLimitReached(matchCnt)) {
+                break;
+            } else if (elem.isPrimitive() || elem.isRecursible()) {
+                if (!shouldExcludeFromResults(elemName, elem, filter, pSearch)) {
+                    opts.checkResultBudget(matchCnt);
+                    matchCnt++;
+                    visitMatch(elemName, elem, MatchVisitor.NOT_IN_ARRAY, path, targetElems, pSearch, pVisitor);
+                }
+            } else if (elem.isArray()) {
+                int size = arraySize(elem);
+                for (int i = 0; i < size && !opts.resultLimitReached(matchCnt); i++) {
+                    pSearch.checkpoint();
+                    Context aryEntry = elem.entryFromArray(i);
+                    if (shouldExcludeFromResults(elemName, aryEntry, filter, pSearch)) {
+                        continue;
+                    }
+                    opts.checkResultBudget(matchCnt);
+                    matchCnt++;
+                    visitMatch(elemName, aryEntry, i, indexPath(path, i), targetElems, pSearch, pVisitor);
+                }
+            } else {
+                throw new IllegalArgumentException("One of the elements to search is of type not currently supported."
+                        + "Element name/type is " + elemName + "/" + elem.getClass().getName());
+            }
+        }
+        return matchCnt;
+    }
+
+
+    /*
+     * Counterpart of filterUnwantedElements() for the MatchVisitor flavor of the search. Rather than building a
+     * new complex object out of the target elements, each target element found is handed to the visitor.
+     */
+    private void visitMatch(String pElemName,
+                            Context pElem,
+                            int pPosition,
+                            String pPath,
+                            TargetElements pTargetElems,
+                            RunningSearch pSearch,
+                            MatchVisitor pVisitor) {
+        if (null == pTargetElems || !pElem.isRecursible()) {
+            pVisitor.visit(pElemName, pElem, pPosition, pPath);
+            return;
+        }
+
+        for (String e : pTargetElems) {
+            if (stringIsASearchPath(e)) {
+                SearchPath sp = SearchPath.valueOf(e);
+                pSearch.profile(QueryProfile.Counter.TARGET_ELEMENT_SUBSEARCHES);
+                Context found = nestedValue(pElem, sp, pSearch);
+                if (null == found) {
+                    if (pSearch.getOptions().isIgnoreIncompatibleTargetElement()
+                            || pSearch.getOptions().isMissingPathAsEmpty()) {
+                        continue;
+                    }
+                    throw targetElementNotFound(sp, pTargetElems, pElem);
+                }
+                pVisitor.visit(sp.toString(), found, pPosition, memberPath(pPath, sp.toString()));
+            } else if (pElem.containsElement(e)) {
+                pVisitor.visit(e, pElem.memberValue(e), pPosition, memberPath(pPath, e));
+            }
+        }
+    }
+
+
+    /*
+     * Single entry point into the search engine, all the public findElement*() flavors end up here, with the
+     * extra parameters (if any) already resolved into a SearchOptions.
+     */
+    SearchResult search(SearchPath pSearchPath,
+                        Filter pFilter,
+                        TargetElements pTargetElements,
+                        SearchOptions pOptions) throws IllegalArgumentException {
+        return search(pSearchPath, pFilter, pTargetElements, RunningSearch.start(pOptions));
+    }
+
+
+    private SearchResult search(SearchPath pSearchPath,
+                                Filter pFilter,
+                                TargetElements pTargetElements,
+                                RunningSearch pSearch) throws IllegalArgumentException {
+        if (!SearchMetricsRegistry.isEnabled()) {
+            return cachedOrSearch(pSearchPath, pFilter, pTargetElements, pSearch);
+        }
+
+        SearchMetrics metrics = SearchMetricsRegistry.get();
+        metrics.searchStarted(this, pSearchPath, pFilter, pTargetElements);
+        long start = System.nanoTime();
+        SearchResult res;
+        try {
+            res = cachedOrSearch(pSearchPath, pFilter, pTargetElements, pSearch);
+        } catch (RuntimeException e) {
+            metrics.searchFailed(this, pSearchPath, pFilter, pTargetElements, System.nanoTime() - start, e);
+            throw e;
+        }
+        reportSearch(metrics, this, pSearchPath, pFilter, pTargetElements, pSearch, start, res.size());
+        return res;
+    }
+
+
+    /*
+     * Looks the search up in the result cache, if the caller asked for it, see Context#USE_RESULT_CACHE
+     */
+    private SearchResult cachedOrSearch(SearchPath pSearchPath,
+                                        Filter pFilter,
+                                        TargetElements pTargetElements,
+                                        RunningSearch pSearch) {
+        SearchOptions opts = pSearch.getOptions();
+        /*
+         * Profiled searches, see explain(), always run, since it is the running that gets profiled
+         */
+        ResultCache cache = opts.isUseResultCache() && null == pSearch.getProfiler() ? resultCache() : null;
+        if (null == cache) {
+            return SearchResult.fromOwnedMap(findElement(this, pSearchPath, pFilter, pTargetElements, pSearch));
+        }
+
+        SearchResult res = cache.get(pSearchPath, pFilter, pTargetElements, opts);
+        if (null != res) {
+            SearchMetricsRegistry.get().cacheHit(SearchMetrics.Cache.SEARCH_RESULT);
+            return res;
+        }
+        SearchMetricsRegistry.get().cacheMiss(SearchMetrics.Cache.SEARCH_RESULT);
+        res = SearchResult.fromOwnedMap(findElement(this, pSearchPath, pFilter, pTargetElements, pSearch));
+        cache.put(pSearchPath, pFilter, pTargetElements, opts, res);
+        return res;
+    }
+
+
+    /*
+     * Feeds SearchMetrics#searchCompleted(), out of what the guard of the search counted
+     */
+    static void reportSearch(SearchMetrics pMetrics,
+                                     Context pContext,
+                                     SearchPath pSearchPath,
+                                     Filter pFilter,
+                                     TargetElements pTargetElements,
+                                     RunningSearch pSearch,
+                                     long pStartNanos,
+                                     int pResults) {
+        long nanos = System.nanoTime() - pStartNanos;
+        SearchGuard guard = pSearch.getGuard();
+        pMetrics.searchCompleted(pContext, pSearchPath, pFilter, pTargetElements, nanos,
+                null == guard ? 0L : guard.visitCount(), null == guard ? 0L : guard.filterComparisonCount(), pResults);
+    }
+
+
+    /**
+     * Searches <code>pElem</code> in two steps: first
+     * {@link AbstractContext#locateEndNode(Context, SearchPath, RunningSearch)} follows the search path down to the
+     * element found at its last node, and then that element gets filtered, and has target elements applied to it, to
+     * produce the results.
+     */
     Map<String, Context> findElement(Context pElem,
                                      SearchPath pSearchPath,
                                      Filter pFilter,
                                      TargetElements pTargetElements,
-                                     Map<String, Context> pFoundElemVals,
-                                     Map<String, String> pExtraParams)
+                                     RunningSearch pSearch)
             throws IllegalArgumentException {
+        /*
+         * Insertion ordered, so that results come out in the order found. The map is handed over as is to the SearchResult,
+         * see search()
+         */
+        Map<String, Context> foundElemVals = new LinkedHashMap<>();
+        try {
+            QueryProfiler profiler = pSearch.getProfiler();
+            if (pSearchPath.isExact()) {
+                Map.Entry<String, Context> endNode = locateEndNode(pElem, pSearchPath, pSearch);
+                if (null != profiler) {
+                    profiler.beginResults();
+                }
+                if (null != endNode) {
+                    processElement(endNode.getKey(), endNode.getValue(), pFilter, pTargetElements, foundElemVals,
+                            pSearch);
+                }
+            } else {
+                List<Map.Entry<String, Context>> found = locateMatchingNodes(pElem, pSearchPath, pSearch, null);
+                if (null != profiler) {
+                    profiler.beginResults();
+                }
+                processElements(found, pFilter, pTargetElements, foundElemVals, pSearch);
+            }
+        } catch (SearchBudgetExceededException e) {
+            /*
+             * Whatever got gathered before the search was stopped travels with the exception, see
+             * SearchBudgetExceededException#getPartialResult()
+             */
+            e.attachPartialResult(foundElemVals);
+            throw e;
+        }
+        return foundElemVals;
+    }
+
+
+    /**
+     * Gives back all the elements found at the last node of the search path, along with their names, in the order found.
+     * For exact search paths (see {@link SearchPath#isExact()}) this is at most one element, found via
+     * {@link AbstractContext#locateEndNode(Context, SearchPath, RunningSearch)}, else see
+     * {@link AbstractContext#locateMatchingNodes(Context, SearchPath, RunningSearch)}.
+     */
+    List<Map.Entry<String, Context>> locateEndNodes(Context pElem, SearchPath pSearchPath, RunningSearch pSearch) {
+        return locateEndNodes(pElem, pSearchPath, pSearch, null);
+    }
 
-        if (null == pFoundElemVals) {
-            pFoundElemVals = new HashMap<>(pTargetElements != null ? pTargetElements.size() : 0);
+
+    /**
+     * Same as {@link AbstractContext#locateEndNodes(Context, SearchPath, RunningSearch)}, and in addition adds to
+     * <code>pPaths</code>, unless <code>null</code>, the concrete path of each element found, in the same order. The
+     * concrete path names the members actually followed, and the array entries actually selected, for example
+     * <code>a.b[3].c</code>, whatever wildcards, index lists, slices or recursive descent the search path had.
+     */
+    List<Map.Entry<String, Context>> locateEndNodes(Context pElem,
+                                                    SearchPath pSearchPath,
+                                                    RunningSearch pSearch,
+                                                    List<String> pPaths) {
+        if (pSearchPath.isExact()) {
+            StringBuilder path = null == pPaths ? null : new StringBuilder();
+            Map.Entry<String, Context> endNode = locateEndNode(pElem, pSearchPath, pSearch, path);
+            if (null == endNode) {
+                return Collections.emptyList();
+            }
+            if (null != pPaths) {
+                pPaths.add(path.toString());
+            }
+            return Collections.singletonList(endNode);
         }
+        return locateMatchingNodes(pElem, pSearchPath, pSearch, pPaths);
+    }
 
-        String curNodeInPath;
 
-        /*
-         * Advance the to the next element/node in search path. Because the object is immutable, it's a
-         * 2-step process to do so. Read the API javadoc of SearchPath for more details.
-         */
-        pSearchPath = pSearchPath.advanceToNextNode();
-        curNodeInPath = pSearchPath.currentNode();
+    /**
+     * Counterpart of {@link AbstractContext#locateEndNode(Context, SearchPath, RunningSearch)} for search paths that
+     * contain wildcards, index lists, slices or recursive descent (see {@link SearchPath.Node}), and therefore can branch
+     * out into any number of elements. All the branches get followed in a single traversal, which uses an explicit
+     * stack of pending (element, search path node) pairs instead of recursion. Branches are followed depth first, in
+     * document order, hence the elements found come out in document order.
+     *
+     * Unlike with exact search paths, a branch where the next node is not found, or where an array is found without the
+     * search path selecting any of its entries, is not an error, it simply yields nothing.
+     *
+     * The concrete paths of the elements found get added to <code>pPaths</code>, unless <code>null</code>, in which case
+     * they are not even built.
+     */
+    private List<Map.Entry<String, Context>> locateMatchingNodes(Context pElem,
+                                                                 SearchPath pSearchPath,
+                                                                 RunningSearch pSearch,
+                                                                 List<String> pPaths) {
+        boolean withPaths = null != pPaths;
+        List<Map.Entry<String, Context>> found = new ArrayList<>();
+        Deque<PendingNode> pending = new ArrayDeque<>();
+        pending.push(new PendingNode(pElem, 0, withPaths ? "" : null));
+        List<Map.Entry<String, Context>> candidates = new ArrayList<>();
+        List<String> candidatePaths = withPaths ? new ArrayList<>() : null;
+        List<Context> next = new ArrayList<>();
+        List<String> nextPaths = withPaths ? new ArrayList<>() : null;
+        QueryProfiler profiler = pSearch.getProfiler();
+        while (!pending.isEmpty()) {
+            PendingNode cur = pending.pop();
+            SearchPath.Node node = pSearchPath.node(cur.nodeIdx);
+            if (null != profiler) {
+                profiler.step(cur.nodeIdx, node.token());
+            }
+            pSearch.checkpoint();
+            boolean atEndOfSearchPath = pSearchPath.isLastNode(cur.nodeIdx);
+            candidates.clear();
+            next.clear();
+            if (withPaths) {
+                candidatePaths.clear();
+                nextPaths.clear();
+            }
+            collectCandidates(cur.elem, node, cur.nodeIdx == 0 && cur.elem == pElem, pSearch, candidates, cur.path,
+                    candidatePaths);
+
+            for (int c = 0; c < candidates.size(); c++) {
+                Map.Entry<String, Context> candidate = candidates.get(c);
+                String path = withPaths ? candidatePaths.get(c) : null;
+                Context val = candidate.getValue();
+                if (val.isArray()) {
+                    int size = arraySize(val);
+                    if (!node.hasArraySelector()) {
+                        /*
+                         * Same rules as for exact search paths, the whole array is selected at the last node, else
+                         * the only entry is auto selected if there's just one
+                         */
+                        if (atEndOfSearchPath) {
+                            found.add(candidate);
+                            if (withPaths) {
+                                pPaths.add(path);
+                            }
+                        } else if (size == 1) {
+                            addSelected(candidate.getKey(), val.entryFromArray(0), indexPath(path, 0),
+                                    atEndOfSearchPath, found, pPaths, next, nextPaths);
+                        }
+                    } else {
+                        int cnt = node.selectedCount(size);
+                        for (int i = 0; i < cnt; i++) {
+                            int idx = node.selectedIndex(i, size);
+                            addSelected(candidate.getKey(), val.entryFromArray(idx), indexPath(path, idx),
+                                    atEndOfSearchPath, found, pPaths, next, nextPaths);
+                        }
+                    }
+                } else if (!node.hasArraySelector() || (node.selectedCount(1) > 0 && node.selectedIndex(0, 1) == 0)) {
+                    /*
+                     * A non-array is treated as an array of one, see comments in locateEndNode() about the
+                     * flexibility offered for index 0
+                     */
+                    addSelected(candidate.getKey(), val, path, atEndOfSearchPath, found, pPaths, next, nextPaths);
+                }
+            }
 
-        /**
-         * Deal with case where the original Context given is an anonymous array. In this scenario we expect search path
-         * to be "[N]||nodeX||nodeY||nodeZ||...". The way we handle is that we make the array non-anonymous and identify it by
-         * {@link this#ANON_ARY_HANDLE}, then modify the current node in search path by adding {@link this#ANON_ARY_HANDLE}
-         * in front of the "[]", and finally we let the logic further below deal with an array inside recursible we've just
-         * created. That code already does all checks, throws exception where appropriate, etc.
-         */
-        if (pSearchPath.currentNodeIndex() == 0 && curNodeInPath.indexOf("[") == 0 && pElem.isArray()) {
-            MutableContext mc = ContextFactory.obtainMutableContext("{}");
-            mc.addMember(ANON_ARY_HANDLE, ContextFactory.obtainContext(pElem.stringRepresentation()));
-            curNodeInPath = ANON_ARY_HANDLE + curNodeInPath;
-            pElem = mc;
+            // Pushed in reverse so that they get popped in document order
+            for (int i = next.size() - 1; i >= 0; i--) {
+                pending.push(new PendingNode(next.get(i), cur.nodeIdx + 1, withPaths ? nextPaths.get(i) : null));
+            }
         }
+        return found;
+    }
 
-        String curNodeInPathNoBrackets = curNodeInPath;
-        if (arrayIndex(curNodeInPath) >= 0) {
-            curNodeInPathNoBrackets = removeBrackets(curNodeInPath);
+
+    /*
+     * The path lists are null when the concrete paths are not wanted, see locateEndNodes()
+     */
+    private static void addSelected(String pName,
+                                    Context pElem,
+                                    String pPath,
+                                    boolean pAtEndOfSearchPath,
+                                    List<Map.Entry<String, Context>> pFound,
+                                    List<String> pFoundPaths,
+                                    List<Context> pNext,
+                                    List<String> pNextPaths) {
+        if (pAtEndOfSearchPath) {
+            pFound.add(new AbstractMap.SimpleImmutableEntry<>(pName, pElem));
+            if (null != pFoundPaths) {
+                pFoundPaths.add(pPath);
+            }
+        } else if (pElem.isRecursible()) {
+            pNext.add(pElem);
+            if (null != pNextPaths) {
+                pNextPaths.add(pPath);
+            }
         }
+    }
 
-        boolean atEndOfSearchPath = pSearchPath.isAtEndOfSearchPath();
 
+    /*
+     * Concrete path of member pName of the element at pPath, null if paths are not being built
+     */
+    private static String memberPath(String pPath, String pName) {
+        if (null == pPath) {
+            return null;
+        }
+        return pPath.isEmpty() ? pName : pPath + "." + pName;
+    }
 
-        /**
-         * If below if() is true, then we're dealing with a complex structure. At this
-         * point check if the current node in the search path we've been given exists in the current
-         * element. If not, or if it designates an array node with index > 0 yet encountered node
-         * is not in fact of type array, then it means the element will not be found, hence throw
-         * IllegalArgumentException, unless the {@link Context#IGNORE_INCOMPATIBLE_SEARCH_PATH_PROVIDED_ERROR} was
-         * passed in the extra parameters map. The full search path given has to exist in order to return any results.
-         */
-        Set<Map.Entry<String, Context>> elemEntries = null;
+
+    /*
+     * Concrete path of entry pIdx of the array at pPath, null if paths are not being built
+     */
+    private static String indexPath(String pPath, int pIdx) {
+        return null == pPath ? null : pPath + "[" + pIdx + "]";
+    }
+
+
+    /*
+     * Gathers the members of pElem that the given search path node refers to, before any square brackets are applied.
+     * Their concrete paths, given pElem is at pPath, go to pCandidatePaths, unless null.
+     */
+    private void collectCandidates(Context pElem,
+                                   SearchPath.Node pNode,
+                                   boolean pAtRoot,
+                                   RunningSearch pSearch,
+                                   List<Map.Entry<String, Context>> pCandidates,
+                                   String pPath,
+                                   List<String> pCandidatePaths) {
+        if (pAtRoot && pNode.token().indexOf("[") == 0 && pElem.isArray()) {
+            // Anonymous array, see locateEndNode()
+            pCandidates.add(new AbstractMap.SimpleImmutableEntry<>(ANON_ARY_HANDLE, pElem));
+            if (null != pCandidatePaths) {
+                pCandidatePaths.add(pPath);
+            }
+        } else if (pNode.isDescendant()) {
+            // The name index knows no paths
+            if (pAtRoot && !pNode.isMemberWildcard() && pSearch.getOptions().isUseNameIndex() && null == pCandidatePaths
+                    && pElem instanceof AbstractContext && !(pElem instanceof MutableContext)) {
+                for (Context c : ((AbstractContext) pElem).nameIndex().getOrDefault(pNode.name(),
+                        Collections.emptyList())) {
+                    pSearch.profile(QueryProfile.Counter.MEMBERS_SCANNED);
+                    pCandidates.add(new AbstractMap.SimpleImmutableEntry<>(pNode.name(), c));
+                }
+            } else {
+                collectDescendants(pElem, pNode.isMemberWildcard() ? null : pNode.name(), pSearch, pCandidates, pPath,
+                        pCandidatePaths);
+            }
+        } else if (pElem.isRecursible()) {
+            if (pNode.isMemberWildcard()) {
+                int before = pCandidates.size();
+                pCandidates.addAll(pElem.entrySet());
+                if (null != pCandidatePaths) {
+                    for (int i = before; i < pCandidates.size(); i++) {
+                        pCandidatePaths.add(memberPath(pPath, pCandidates.get(i).getKey()));
+                    }
+                }
+                QueryProfiler profiler = pSearch.getProfiler();
+                if (null != profiler) {
+                    profiler.count(QueryProfile.Counter.MEMBERS_SCANNED, pCandidates.size() - before);
+                }
+            } else {
+                pSearch.profile(QueryProfile.Counter.MEMBERS_SCANNED);
+                if (pElem.containsElement(pNode.name())) {
+                    pCandidates.add(new AbstractMap.SimpleImmutableEntry<>(pNode.name(),
+                            pElem.memberValue(pNode.name())));
+                    if (null != pCandidatePaths) {
+                        pCandidatePaths.add(memberPath(pPath, pNode.name()));
+                    }
+                }
+            }
+        }
+    }
+
+
+    /*
+     * Adds to pFound, in document order, the members named pName (any name if null) found at any depth below pElem,
+     * array entries included. Uses an explicit stack, no recursion. Their concrete paths, given pElem is at pPath, go
+     * to pFoundPaths, unless null.
+     */
+    private static void collectDescendants(Context pElem,
+                                           String pName,
+                                           RunningSearch pSearch,
+                                           List<Map.Entry<String, Context>> pFound,
+                                           String pPath,
+                                           List<String> pFoundPaths) {
+        Deque<Map.Entry<String, Context>> pending = new ArrayDeque<>();
+        Deque<String> pendingPaths = null == pFoundPaths ? null : new ArrayDeque<>();
+        pushChildren(pElem, pPath, pending, pendingPaths);
+        while (!pending.isEmpty()) {
+            Map.Entry<String, Context> e = pending.pop();
+            String path = null == pendingPaths ? null : pendingPaths.pop();
+            pSearch.checkpoint();
+            if (null != e.getKey()) {
+                pSearch.profile(QueryProfile.Counter.MEMBERS_SCANNED);
+            }
+            if (null != e.getKey() && (null == pName || pName.equals(e.getKey()))) {
+                pFound.add(e);
+                if (null != pFoundPaths) {
+                    pFoundPaths.add(path);
+                }
+            }
+            pushChildren(e.getValue(), path, pending, pendingPaths);
+        }
+    }
+
+
+    /*
+     * Array entries have no name of their own, they get pushed with a null key. Their concrete paths get pushed to
+     * pPendingPaths, unless null.
+     */
+    private static void pushChildren(Context pElem,
+                                     String pPath,
+                                     Deque<Map.Entry<String, Context>> pPending,
+                                     Deque<String> pPendingPaths) {
         if (pElem.isRecursible()) {
-            /**
-             * The 'arrayIndex()...' condition is there to see if caller expects array node to be found yet actual
-             * is not an array, and they specified an index greater than 1, in which case throw exception unless
-             * we were specifically instructed to ignore such scenarios (via presence
-             * of {@link Context#IGNORE_INCOMPATIBLE_SEARCH_PATH_PROVIDED_ERROR)}).
-             * We're interested in aforementioned check for non-array nodes only.
+            List<Map.Entry<String, Context>> members = new ArrayList<>(pElem.entrySet());
+            for (int i = members.size() - 1; i >= 0; i--) {
+                pPending.push(members.get(i));
+                if (null != pPendingPaths) {
+                    pPendingPaths.push(memberPath(pPath, members.get(i).getKey()));
+                }
+            }
+        } else if (pElem.isArray()) {
+            for (int i = arraySize(pElem) - 1; i >= 0; i--) {
+                pPending.push(new AbstractMap.SimpleImmutableEntry<>(null, pElem.entryFromArray(i)));
+                if (null != pPendingPaths) {
+                    pPendingPaths.push(indexPath(pPath, i));
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Index of all the members of this {@code Context}, at any depth, by name, for the recursive descent nodes of search
+     * paths, see {@link Context#USE_NAME_INDEX}. Built the first time it is needed. Under contention more than one thread
+     * might end up building it, which is harmless since the result is the same.
+     */
+    Map<String, List<Context>> nameIndex() {
+        Map<String, List<Context>> idx = nameIndex;
+        if (null == idx) {
+            List<Map.Entry<String, Context>> all = new ArrayList<>();
+            collectDescendants(this, null, RunningSearch.UNGUARDED, all, null, null);
+            Map<String, List<Context>> m = new HashMap<>();
+            for (Map.Entry<String, Context> e : all) {
+                m.computeIfAbsent(e.getKey(), k -> new ArrayList<>(1)).add(e.getValue());
+            }
+            idx = Collections.unmodifiableMap(m);
+            nameIndex = idx;
+        }
+        return idx;
+    }
+
+
+    /**
+     * Results of earlier searches of this {@code Context}, see {@link Context#USE_RESULT_CACHE}. Created the first time
+     * it is needed, under contention more than one thread might end up creating it, in which case the results
+     * remembered by all but one of them are lost, which is harmless.
+     *
+     * @return - <code>null</code> if this is a {@link MutableContext}, whose searches can't be remembered
+     */
+    ResultCache resultCache() {
+        if (this instanceof MutableContext) {
+            return null;
+        }
+        ResultCache c = resultCache;
+        if (null == c) {
+            c = new ResultCache();
+            resultCache = c;
+        }
+        return c;
+    }
+
+
+    /*
+     * Counterpart of processElement() for search paths that can find more than one element. Filtering, target elements
+     * and result limit work the same, except that the result limit is applied across all the elements found. Elements
+     * found with the same name get aggregated into a single array in the results, in the order found.
+     */
+    private void processElements(List<Map.Entry<String, Context>> pFound,
+                                 Filter pFilter,
+                                 TargetElements pTargetElements,
+                                 Map<String, Context> pFoundElemVals,
+                                 RunningSearch pSearch) {
+        Map<String, List<Context>> byName = new LinkedHashMap<>();
+        try {
+            collectResults(pFound, pFilter, pTargetElements, pFoundElemVals, byName, pSearch);
+        } finally {
+            /*
+             * When the search gets stopped half way, see SearchOptions#withTimeout() and friends, the results gathered
+             * so far are still stored, to become the partial result of the search
              */
-            if (pElem.containsElement(curNodeInPathNoBrackets) && (arrayIndex(curNodeInPath) <= 0
-                    || pElem.memberValue(curNodeInPathNoBrackets).isArray())) {
+            storeResults(byName, pFoundElemVals, pSearch);
+        }
+    }
+
+
+    private void collectResults(List<Map.Entry<String, Context>> pFound,
+                                Filter pFilter,
+                                TargetElements pTargetElements,
+                                Map<String, Context> pFoundElemVals,
+                                Map<String, List<Context>> pByName,
+                                RunningSearch pSearch) {
+        SearchOptions opts = pSearch.getOptions();
+        int resultCnt = 0;
+        for (Map.Entry<String, Context> f : pFound) {
+            Context elem = f.getValue();
+            boolean isArray = elem.isArray();
+            int size = isArray ? arraySize(elem) : 1;
+            for (int i = 0; i < size && !opts.resultLimitReached(resultCnt); i++) {
+                pSearch.checkpoint();
+                Context entry = isArray ? elem.entryFromArray(i) : elem;
+                if (shouldExcludeFromResults(f.getKey(), entry, pFilter, pSearch)) {
+                    continue;
+                }
+                if (opts.isExistenceCheck()) {
+                    pFoundElemVals.put(f.getKey(), entry);
+                    return;
+                }
+                if (entry.isRecursible()) {
+                    entry = filterUnwantedElements(entry, pTargetElements, pSearch);
+                }
+                opts.checkResultBudget(resultCnt);
+                pByName.computeIfAbsent(f.getKey(), k -> new ArrayList<>()).add(entry);
+                resultCnt++;
+            }
+        }
+    }
+
+
+    private static void storeResults(Map<String, List<Context>> pByName,
+                                     Map<String, Context> pFoundElemVals,
+                                     RunningSearch pSearch) {
+        for (Map.Entry<String, List<Context>> e : pByName.entrySet()) {
+            List<Context> vals = e.getValue();
+            if (vals.size() == 1) {
+                pFoundElemVals.put(e.getKey(), vals.get(0));
+            } else {
+                // Same approach as in processElement(), see comments there
+                List<Object> elemValList = new ArrayList<>(vals.size());
+                vals.forEach(v -> elemValList.add(v.toString()));
+                pSearch.profile(QueryProfile.Counter.REPARSES);
+                pFoundElemVals.put(e.getKey(), ContextFactory.obtainContextUnmetered(elemValList));
+            }
+        }
+    }
+
+
+    /*
+     * Element of the explicit stack used by locateMatchingNodes(), the search path node at nodeIdx is yet to be applied to
+     * elem, whose concrete path is path, or null if paths are not being built.
+     */
+    private static final class PendingNode {
+        private final Context elem;
+        private final int nodeIdx;
+        private final String path;
+
+        private PendingNode(Context pElem, int pNodeIdx, String pPath) {
+            elem = pElem;
+            nodeIdx = pNodeIdx;
+            path = pPath;
+        }
+    }
+
+
+    /**
+     * Workhorse of the search, follows the search path down to the element found in its last node, and gives back that
+     * element along with its name, or <code>null</code> if nothing was found. The walk is a plain loop over the
+     * pre-parsed nodes of the {@link SearchPath}, with the position of the node currently being processed kept in an
+     * <code>int</code> cursor, hence the Java stack does not grow with the length of the search path, or with how deeply
+     * nested the searched document is. At each step the member named by the current node is fetched directly via
+     * {@link Context#memberValue(String)}, as opposed to scanning all the members of the current element.
+     */
+    Map.Entry<String, Context> locateEndNode(Context pElem,
+                                             SearchPath pSearchPath,
+                                             RunningSearch pSearch)
+            throws IllegalArgumentException {
+        return locateEndNode(pElem, pSearchPath, pSearch, null);
+    }
+
+
+    /*
+     * Same as locateEndNode() above, and also builds the concrete path of the element found in pPath, unless null, see
+     * locateEndNodes()
+     */
+    private Map.Entry<String, Context> locateEndNode(Context pElem,
+                                                     SearchPath pSearchPath,
+                                                     RunningSearch pSearch,
+                                                     StringBuilder pPath)
+            throws IllegalArgumentException {
+        SearchOptions opts = pSearch.getOptions();
+        Context curElem = pElem;
+        QueryProfiler profiler = pSearch.getProfiler();
+        for (int nodeIdx = 0; ; nodeIdx++) {
+            SearchPath.Node curNode = pSearchPath.node(nodeIdx);
+            if (null != profiler) {
+                profiler.step(nodeIdx, curNode.token());
+                if (curElem.isRecursible()) {
+                    profiler.count(QueryProfile.Counter.MEMBERS_SCANNED);
+                }
+            }
+            pSearch.checkpoint();
+            String curNodeInPath = curNode.token();
+            String curElemName = curNode.name();
+            int aryIdx = curNode.arrayIndex();
+            boolean atEndOfSearchPath = pSearchPath.isLastNode(nodeIdx);
+            Context elemToProcessNext;
+
+            if (nodeIdx == 0 && curNodeInPath.indexOf("[") == 0 && curElem.isArray()) {
+                /**
+                 * Deal with case where the original Context given is an anonymous array. In this scenario we expect
+                 * search path to be "[N].nodeX.nodeY.nodeZ...". The array gets identified by {@link this#ANON_ARY_HANDLE},
+                 * and from there on the logic further below deals with it as it would with any other array member. That code
+                 * already does all checks, throws exception where appropriate, etc.
+                 */
+                curNodeInPath = ANON_ARY_HANDLE + curNodeInPath;
+                curElemName = ANON_ARY_HANDLE;
+                elemToProcessNext = curElem;
+            } else if (!curElem.isRecursible()) {
+                /*
+                 * Search path goes deeper than a primitive (or an array for which the search path did not select an
+                 * entry), nothing to be found here.
+                 */
+                return null;
+            } else if (curElem.containsElement(curElemName)
+                    && (aryIdx <= 0 || curElem.memberValue(curElemName).isArray())) {
                 /**
-                 * Check inverse of "UnexpectedArrayNodeException" further below; a none-array node encountered,
-                 * yet search path told to expect array here. Unless the array index is 0, throw exception. The
-                 * motivation to make an exception if array index is 0 is to offer some flexibility to calling code. The same
-                 * data node can sometimes be an array, and at others a non-array. This can happen when there's no
-                 * schema backing things up, and in data conversion situations, the target data uses presence
-                 * of multi node or single to display respectively as array or not. A concrete example:
+                 * The 'aryIdx...' condition is there to see if caller expects array node to be found yet actual
+                 * is not an array, and they specified an index greater than 0, in which case the search path is
+                 * not applicable. Notice there's an exception made if array index is 0. The motivation is to offer some
+                 * flexibility to calling code. The same data node can sometimes be an array, and at others a non-array.
+                 * This can happen when there's no schema backing things up, and in data conversion situations, the
+                 * target data uses presence of multi node or single to display respectively as array or not. A concrete
+                 * example:
                  * <xml><node>...</node><node></node></xml> -> {xml: {node: [{}, {}]}}
                  *
                  * or
@@ -135,147 +892,131 @@ abstract class AbstractContext implements Context {
                  * <xml><node>...</node></xml> -> {xml: {node: {}}}
                  *
                  * Notice in first, the node is array, in second it's not. It all depends on how original
-                 * data looked. The rationale for this logic is as follows:
-                 * The client just wants the first node in array if index specified is [0], therefore
-                 * give it to them if it is a none-array, which obviously is a single element. However if client
-                 * gave [idx > 0], then I'm confused and don't know what to do, so throw it back to client
-                 * to decide what they want to do.
+                 * data looked. The client just wants the first node in array if index specified is [0], therefore
+                 * give it to them if it is a none-array, which obviously is a single element.
                  */
-
-                elemEntries = pElem.entrySet();
+                elemToProcessNext = curElem.memberValue(curElemName);
+                if (null != pPath) {
+                    pPath.append(pPath.length() == 0 ? "" : ".").append(curElemName);
+                }
             } else {
-
                 /**
                  * Have to wrap into an IllegalArgumentException because the method signature says so. When it was
                  * decided to throw a checked exception, namely IncompatibleSearchPathException, there would have had
                  * to be a lot of changes made in dependent code to reflect an updated method signature. Hence the reason
-                 * the below exception wrapping is made.
+                 * the below exception wrapping is made. If the caller instructed this API to ignore it when the search
+                 * path is not applicable for node in question, the node simply gets ignored and is excluded from
+                 * search results.
                  */
-                if (null != pExtraParams && pExtraParams.containsKey(IGNORE_INCOMPATIBLE_SEARCH_PATH_PROVIDED_ERROR)) {
-                    /*
-                     * Handles case where caller instructed this API to ignore it if search path is not
-                     * applicable for node in question. In such cases the node simply gets ignored and is excluded from search
-                     * results.
-                     */
-                    return pFoundElemVals;
-                } else {
-                    IncompatibleSearchPathException ispe = new IncompatibleSearchPathException(
-                            pSearchPath, curNodeInPathNoBrackets, pElem);
-                    throw new IllegalArgumentException(ispe);
+                if (opts.isIgnoreIncompatibleSearchPath() || opts.isMissingPathAsEmpty()) {
+                    return null;
                 }
-
+                throw searchPathMiss(
+                        new IncompatibleSearchPathException(pSearchPath, curElemName, curElem, false), opts);
             }
-        }
 
-        /**
-         * If "elemEntries" is not NULL, it means we're dealing with a complex structure (I.e. not a primitive)
-         * and the current element in the search path has been found at this location of the passed in element to search.
-         * Why am I constructing if() statements like this instead of nesting them? Makes code easier to read and
-         * hence maintain, less nesting which means less indentation.
-         */
-        if (null != elemEntries) {
-            for (Map.Entry<String, Context> elemEntry : elemEntries) {
+            /*
+             * If the current element is of type array, deal with it below. If we're *not* at the last node
+             * of the search path, enforce requirement that user must specify which array entry to select
+             * to continue on that path of the search.
+             * Otherwise, if we're already at last node of search path, the requirement is relaxed, and caller has
+             * option of either specifying and array entry to select, or just select the entire array.
+             */
+            if (elemToProcessNext.isArray()) {
                 /*
-                 * If this pFoundElemVals is not empty, exit, no need to process further. It means we reached
-                 * the last node in search path and found the goods. This was added here so that JVM does not
-                 * continue iterating if there's more than one element in the element node that contains the element we're
-                 * searching for.
+                 * If we're not at end of search path and we encountered an array node, yet the search path
+                 * did not tell us to expect an array at this spot of the search path, throw exception. If the
+                 * caller does not explicitly say what array entry to select, how do we know which path to continue on?
+                 * Also if we didn't enforce this, then it might result in hard to trace bugs in the callers code.
+                 * Note that this rule is relaxed if the array contains only one entry; in such a case, the client code
+                 * is not required to specify in the search path that the node is an array, the code will
+                 * auto select the only choice, namely the only array entry.
                  */
-                if (!pFoundElemVals.isEmpty()) {
-                    return pFoundElemVals;
-                }
-
-                String curElemName = elemEntry.getKey();
-
-                if (!curNodeInPathNoBrackets.equals(curElemName)) {
-                    continue;
+                if (aryIdx < 0 && !atEndOfSearchPath && arraySize(elemToProcessNext) > 1) {
+                    if (opts.isMissingPathAsEmpty()) {
+                        return null;
+                    }
+                    throw searchPathMiss(new UnexpectedArrayNodeException(
+                            pSearchPath, curNodeInPath, elemToProcessNext, false), opts);
                 }
 
-                Context elemToProcessNext = elemEntry.getValue();
                 /*
-                 * If the current element is of type array, deal with it below. If we're *not* at the last node
-                 * of the search path, enforce requirement that user must specify which array entry to select
-                 * to continue on that path of the search.
-                 * Otherwise, if we're already at last node of search path, the requirement is relaxed, and caller has
-                 * option of either specifying and array entry to select, or just select the entire array.
+                 * The search path did specify what array entry to grab. Combined with the end of search path check
+                 * further below, this is what allows the client to specify what array entry to grab from last node,
+                 * or grab the entire last array node.
                  */
-                if (elemToProcessNext.isArray()) {
-                    /*
-                     * If we're not at end of search path and we encountered an array node, yet the search path
-                     * did not tell us to expect an array at this spot of the search path, throw exception. If the
-                     * caller does not explicitly say what array entry to select, how do we know which path to continue on?
-                     * Also if we didn't enforce this, then it might result in hard to trace bugs in the callers code.
-                     * This is the inverse of check further above, where error is thrown if search path said to expect
-                     * an array but the actual node is not an array.
-                     * Note that this rule is relaxed if the array contains only one entry; in such a case, the client code
-                     * is not required to specify in the search path that the node is an array, the code will
-                     * auto select the only choice, namely the only array entry.
-                     */
-                    if (arrayIndex(curNodeInPath) < 0 && !atEndOfSearchPath && elemToProcessNext.asArray().size() > 1) {
-                        UnexpectedArrayNodeException uane =
-                                new UnexpectedArrayNodeException(pSearchPath, curNodeInPath, elemToProcessNext);
-                        throw new IllegalArgumentException(uane);
-                    }
-
-
-                    /**
-                     * The search path did specify what array entry to grab, deal with that logic in the if() block
-                     * below. Then further below this "if()" we check if this is the last node of search path
-                     * or not. These two pieces of logic combined is what allows the client to specify what array entry to grab
-                     * from last node, or grab the entire last array node.
-                     */
-                    int aryIdx;
-                    if ((aryIdx = arrayIndex(curNodeInPath)) >= 0) {
-                        /**
-                         * Handles scenario where a node in the search path specifies an array entry that does not exist,
-                         * and caller wants to ignore node-not-found error.
-                         */
-                        if (aryIdx >= elemToProcessNext.asArray().size()) {
-                            if (null != pExtraParams && pExtraParams.containsKey(IGNORE_INCOMPATIBLE_SEARCH_PATH_PROVIDED_ERROR)) {
-                                return pFoundElemVals;
-                            } else {
-                                IncompatibleSearchPathException ispe = new IncompatibleSearchPathException(
-                                        pSearchPath, curNodeInPath, elemToProcessNext);
-                                throw new IllegalArgumentException(ispe);
-                            }
+                if (aryIdx >= 0) {
+                    if (aryIdx >= arraySize(elemToProcessNext)) {
+                        if (opts.isIgnoreIncompatibleSearchPath() || opts.isMissingPathAsEmpty()) {
+                            return null;
                         }
-
-                        elemToProcessNext = elemToProcessNext.entryFromArray(aryIdx);
+                        throw searchPathMiss(new IncompatibleSearchPathException(
+                                pSearchPath, curNodeInPath, elemToProcessNext, false), opts);
+                    }
+                    elemToProcessNext = elemToProcessNext.entryFromArray(aryIdx);
+                    if (null != pPath) {
+                        pPath.append('[').append(aryIdx).append(']');
                     }
                 }
+            }
 
-
-                /*
-                 * If below evaluates to true, we're at the last node of our search path. Invoke helper
-                 * method to add the elements to results for us.
-                 * WARNING: Watch out, do not alter code below; do "atEndOfSearchPath" first. Once we have reached end of search path,
-                 *   recursion does not make sense. If we didn't do this check first, because the element to process next
-                 *   might be recursible, we might recurse even though we're at end of search path!!!
-                 */
-                if (atEndOfSearchPath) {
-                    processElement(curElemName, elemToProcessNext, pFilter, pTargetElements, pFoundElemVals, pExtraParams);
-                } else if (elemToProcessNext.isRecursible()) {
-                    findElement(elemToProcessNext, pSearchPath, pFilter, pTargetElements, pFoundElemVals, pExtraParams);
-                }
+            /*
+             * WARNING: Watch out, do "atEndOfSearchPath" first. Once we have reached end of search path,
+             *   going deeper does not make sense, even if the element to process next is recursible.
+             */
+            if (atEndOfSearchPath) {
+                return new AbstractMap.SimpleImmutableEntry<>(curElemName, elemToProcessNext);
             }
+            curElem = elemToProcessNext;
         }
+    }
+
+
+    /*
+     * Fetches the single value found at search path pSearchPath relative to pElem, for nested filter keys and target
+     * element search paths. Found arrays get converted the same way they are for the search results. Gives back
+     * null if nothing was found.
+     */
+    private Context nestedValue(Context pElem, SearchPath pSearchPath, RunningSearch pSearch) {
+        QueryProfiler profiler = pSearch.getProfiler();
+        if (null == profiler) {
+            return lookUpNestedValue(pElem, pSearchPath, pSearch);
+        }
+        profiler.beginNested();
+        try {
+            return lookUpNestedValue(pElem, pSearchPath, pSearch);
+        } finally {
+            profiler.endNested();
+        }
+    }
+
 
-        return pFoundElemVals;
+    private Context lookUpNestedValue(Context pElem, SearchPath pSearchPath, RunningSearch pSearch) {
+        if (!pSearchPath.isExact()) {
+            Map<String, Context> m = findElement(pElem, pSearchPath, null, null, pSearch);
+            return m.size() == 1 ? m.values().iterator().next() : null;
+        }
+        Map.Entry<String, Context> found = locateEndNode(pElem, pSearchPath, pSearch);
+        if (null == found) {
+            return null;
+        }
+        if (!found.getValue().isArray()) {
+            return found.getValue();
+        }
+        Map<String, Context> m = new LinkedHashMap<>(2);
+        processElement(found.getKey(), found.getValue(), null, null, m, pSearch);
+        return m.isEmpty() ? null : m.values().iterator().next();
     }
 
 
     /**
-     * Extracts the index specified between square brackets. If passed in string contains no
-     * square brackets, -1 is returned.
-     *
-     * @param pNode
-     * @return - The intenger contained within square brackets, -1 if no brackets found.
+     * Wraps a search path related exception, read {@link SearchPathMissException} for why this is done instead of simply
+     * using {@link IllegalArgumentException#IllegalArgumentException(Throwable)}. The exceptions passed in here by the
+     * search engine are built without stack trace, the wrapper returned already carries one that points to
+     * the exact same place, unless the caller asked to do without, see {@link Context#OMIT_MISS_STACK_TRACE}.
      */
-    private int arrayIndex(String pNode) {
-        if (pNode.indexOf('[') < 0) {
-            return -1;
-        }
-        return Integer.parseInt(pNode.substring(pNode.indexOf('[') + 1, pNode.indexOf(']')));
+    private static IllegalArgumentException searchPathMiss(Exception pCause, SearchOptions pOptions) {
+        return new SearchPathMissException(pCause, !pOptions.isOmitMissStackTrace());
     }
 
 
@@ -284,7 +1025,8 @@ abstract class AbstractContext implements Context {
                                 Filter pFilter,
                                 TargetElements pTargetElements,
                                 Map<String, Context> pFoundElemVals,
-                                Map<String, String> pExtraParams) throws IllegalArgumentException {
+                                RunningSearch pSearch) throws IllegalArgumentException {
+        SearchOptions opts = pSearch.getOptions();
         Context elemValToStore = null;
         /*
          * Handle case when element in last node of search path is primitive or another complex structure
@@ -296,7 +1038,7 @@ abstract class AbstractContext implements Context {
              * other words, this might be a scenario that never happens, but leaving code here for now in case
              * there's something I'm missing.
              */
-            if (shouldExcludeFromResults(pElemName, pElem, pFilter, pExtraParams)) {
+            if (shouldExcludeFromResults(pElemName, pElem, pFilter, pSearch)) {
                 return;
             }
 
@@ -305,32 +1047,80 @@ abstract class AbstractContext implements Context {
             /*
              * The pTargetElems parameter applies only when results contain another complex structure.
              */
-            if (pElem.isRecursible()) {
-                elemValToStore = filterUnwantedElements(pElem, pTargetElements, pExtraParams);
+            if (pElem.isRecursible() && !opts.isExistenceCheck()) {
+                elemValToStore = filterUnwantedElements(pElem, pTargetElements, pSearch);
             }
         } else if (pElem.isArray()) {
-            Iterator<Context> itElem = pElem.asArray().iterator();
-            List<Object> elemValList = new ArrayList<>();
-            itElem.forEachRemaining(elem -> {
-
+            List<Object> elemValList;
+            int size = arraySize(pElem);
+            if (opts.isParallelFor(size) && opts.getResultLimit() == 0 && !opts.isExistenceCheck()) {
+                /*
+                 * Large array, caller asked for it to be processed in parallel, see
+                 * SearchOptions#withParallelExecution()
+                 */
+                elemValList = ParallelChunks.process(size, opts.getParallelExecutor(), (from, to) ->
+                        matchArrayEntries(pElemName, pElem, from, to, pFilter, pTargetElements, pSearch));
+                /*
+                 * The chunks don't know about one another, hence the result budget can only be checked once they're done
+                 */
+                int budget = opts.getResultBudget();
+                if (budget > 0 && elemValList.size() > budget) {
+                    pFoundElemVals.put(pElemName, ContextFactory.obtainContextUnmetered(elemValList.subList(0, budget)));
+                    opts.checkResultBudget(elemValList.size());
+                }
+            } else {
+                elemValList = new ArrayList<>();
                 /*
-                 * Apply filtering if caller provided one. The shouldExcludeFromResults() method assumes
-                 * that the passed in element (the 2nd argument) is either a primitive or a complex object. This
-                 * logic assumes that an array will never contain an array (for example valid JSON does not allow
-                 * arrays inside arrays, otherwise how in the world can you reference an anonymous array in JSON???), so safely
-                 * invoke shouldExcludeFromResults() with this in mind.
+                 * Entries are fetched one at a time by index, instead of via asArray(), so that when a result limit was
+                 * given, the entries past the point where the limit is reached are never even wrapped, let alone
+                 * filtered and have target elements applied.
                  */
-                if (!shouldExcludeFromResults(pElemName, elem, pFilter, pExtraParams)) {
-                    if (elem.isRecursible()) {
+                try {
+                    for (int i = 0; i < size && !opts.resultLimitReached(elemValList.size()); i++) {
+                        pSearch.checkpoint();
+                        Context elem = pElem.entryFromArray(i);
+
+                        /*
+                         * Apply filtering if caller provided one. The shouldExcludeFromResults() method assumes
+                         * that the passed in element (the 2nd argument) is either a primitive or a complex object. This
+                         * logic assumes that an array will never contain an array (for example valid JSON does not allow
+                         * arrays inside arrays, otherwise how in the world can you reference an anonymous array in JSON???), so safely
+                         * invoke shouldExcludeFromResults() with this in mind.
+                         */
+                        if (shouldExcludeFromResults(pElemName, elem, pFilter, pSearch)) {
+                            continue;
+                        }
+
                         /*
-                         * See comment further above regarding pFilter, same applies here
-                         * to pTargetElements
+                         * Caller only wants to know if there's at least one match, no need to build
+                         * anything else
                          */
-                        elem = filterUnwantedElements(elem, pTargetElements, pExtraParams);
+                        if (opts.isExistenceCheck()) {
+                            pFoundElemVals.put(pElemName, elem);
+                            return;
+                        }
+
+                        if (elem.isRecursible()) {
+                            /*
+                             * See comment further above regarding pFilter, same applies here
+                             * to pTargetElements
+                             */
+                            elem = filterUnwantedElements(elem, pTargetElements, pSearch);
+                        }
+                        opts.checkResultBudget(elemValList.size());
+                        elemValList.add(elem.toString());
+                    }
+                } catch (SearchBudgetExceededException e) {
+                    /*
+                     * Keep the entries gathered so far, they become part of the partial result of the search, see
+                     * SearchBudgetExceededException#getPartialResult()
+                     */
+                    if (!elemValList.isEmpty()) {
+                        pFoundElemVals.put(pElemName, ContextFactory.obtainContextUnmetered(elemValList));
                     }
-                    elemValList.add(elem.toString());
+                    throw e;
                 }
-            });
+            }
 
             /*
              * In the SearchResult we can only store a Context. The below is a lame attempt
@@ -340,7 +1130,8 @@ abstract class AbstractContext implements Context {
              * that behave correctly.
              */
             if (!elemValList.isEmpty()) {
-                elemValToStore = ContextFactory.INSTANCE.obtainContext(elemValList);
+                pSearch.profile(QueryProfile.Counter.REPARSES);
+                elemValToStore = ContextFactory.obtainContextUnmetered(elemValList);
             }
         } else {
             throw new IllegalArgumentException("One of the elements to search is of type not currently supported."
@@ -357,6 +1148,54 @@ abstract class AbstractContext implements Context {
         }
     }
 
+    /*
+     * Filters, and applies target elements to, the array entries from index pFrom inclusive to pTo exclusive, for
+     * parallel processing of the array, see SearchOptions#withParallelExecution()
+     */
+    private List<Object> matchArrayEntries(String pElemName,
+                                           Context pAry,
+                                           int pFrom,
+                                           int pTo,
+                                           Filter pFilter,
+                                           TargetElements pTargetElements,
+                                           RunningSearch pSearch) {
+        List<Object> matches = new ArrayList<>(pTo - pFrom);
+        for (int i = pFrom; i < pTo; i++) {
+            pSearch.checkpoint();
+            Context elem = pAry.entryFromArray(i);
+            if (shouldExcludeFromResults(pElemName, elem, pFilter, pSearch)) {
+                continue;
+            }
+            if (elem.isRecursible()) {
+                elem = filterUnwantedElements(elem, pTargetElements, pSearch);
+            }
+            matches.add(elem.toString());
+        }
+        return matches;
+    }
+
+
+    /**
+     * Gives the number of entries of this array-like {@code Context}. This default implementation relies
+     * on {@link Context#asArray()}, child classes are encouraged to override it with something that does not
+     * build a {@link List} just to get its size.
+     *
+     * @return - Number of entries in the array
+     * @throws IllegalStateException - If this is not an array
+     */
+    int arraySize() throws IllegalStateException {
+        return asArray().size();
+    }
+
+
+    static int arraySize(Context pAry) {
+        if (pAry instanceof AbstractContext) {
+            return ((AbstractContext) pAry).arraySize();
+        }
+        return pAry.asArray().size();
+    }
+
+
     /**
      * This method should be implemented by child classes to handle {@link TargetElements}, to exclude
      * elements not contained therein.
@@ -365,41 +1204,53 @@ abstract class AbstractContext implements Context {
      * @param pTargetElems
      * @return
      */
-    Context filterUnwantedElements(Context pElem, TargetElements pTargetElems, Map<String, String> pExtraParams) {
+    Context filterUnwantedElements(Context pElem, TargetElements pTargetElems, RunningSearch pSearch) {
         if (null == pTargetElems) {
             return pElem;
         }
 
-        MutableContext mc = ContextFactory.INSTANCE.obtainMutableContext("{}");
+        QueryProfiler profiler = pSearch.getProfiler();
+        if (null == profiler) {
+            return keepTargetElements(pElem, pTargetElems, pSearch);
+        }
+        QueryProfiler.Phase prev = profiler.enter(QueryProfiler.TARGET_ELEMENTS);
+        try {
+            return keepTargetElements(pElem, pTargetElems, pSearch);
+        } finally {
+            profiler.exit(prev);
+        }
+    }
+
+
+    private Context keepTargetElements(Context pElem, TargetElements pTargetElems, RunningSearch pSearch) {
+        SearchOptions opts = pSearch.getOptions();
+        MutableContext mc = ContextFactory.obtainMutableContextUnmetered("{}");
         /*
          * Handle any target element that is one or more levels
          * deeper than found node.
          */
         for (String e : pTargetElems) {
+            pSearch.checkpoint();
             if (!stringIsASearchPath(e)) {
                 continue;
             }
             SearchPath sp = SearchPath.valueOf(e);
-            SearchResult sr = pElem.findElement(sp, null, null, pExtraParams);
+            pSearch.profile(QueryProfile.Counter.TARGET_ELEMENT_SUBSEARCHES);
+            Context found = nestedValue(pElem, sp, pSearch);
 
-            if (null == sr || sr.size() != 1) {
+            if (null == found) {
                 /*
                  * If caller said to ignore it if the target element search path is not valid for a node, then do so and continue
                  * processing other target elements provided.
                  */
-                if (null != pExtraParams && pExtraParams.containsKey(IGNORE_INCOMPATIBLE_TARGET_ELEMENT_PROVIDED_ERROR) &&
-                        (sr == null || sr.isEmpty())) {
+                if (opts.isIgnoreIncompatibleTargetElement() || opts.isMissingPathAsEmpty()) {
                     continue;
                 } else {
-                    throw new IllegalArgumentException("Either found more than one element for target element search path "
-                            + sp.toString() + ", or did not find any results. Check the search path and try again. Results "
-                            + "were " + (null == sr ? "NULL" : "EMPTY") + ". Target elements is " + pTargetElems.toString()
-                            + " and node is " + pElem.stringRepresentation());
+                    throw targetElementNotFound(sp, pTargetElems, pElem);
                 }
             }
 
-            Map.Entry<String, Context> found = sr.entrySet().iterator().next();
-            mc.addMember(sp.toString(), found.getValue());
+            mc.addMember(sp.toString(), found);
         }
 
         /*
@@ -409,7 +1260,18 @@ abstract class AbstractContext implements Context {
         ents.stream().filter(entry -> pTargetElems.contains(entry.getKey()))
                 .forEach(entry -> mc.addMember(entry.getKey(), entry.getValue()));
 
-        return ContextFactory.INSTANCE.obtainContext(mc.stringRepresentation());
+        pSearch.profile(QueryProfile.Counter.REPARSES);
+        return ContextFactory.obtainContextUnmetered(mc.stringRepresentation());
+    }
+
+
+    private static IllegalArgumentException targetElementNotFound(SearchPath pSearchPath,
+                                                                  TargetElements pTargetElems,
+                                                                  Context pElem) {
+        return new IllegalArgumentException("Either found more than one element for target element search path "
+                + pSearchPath.toString() + ", or did not find any results. Check the search path and try again. Results "
+                + "were EMPTY. Target elements is " + pTargetElems.toString()
+                + " and node is " + pElem.stringRepresentation());
     }
 
 
@@ -507,12 +1369,32 @@ abstract class AbstractContext implements Context {
      * @return - <code>true</code> if the data should be excluded from the search results, <code>false</code>
      * otherwise
      */
-    boolean shouldExcludeFromResults(String pElemName, Context pElem, Filter pFilter, Map<String, String> pExtraParams)
+    boolean shouldExcludeFromResults(String pElemName, Context pElem, Filter pFilter, RunningSearch pSearch)
             throws IllegalArgumentException {
         if (null == pFilter) {
             return false;
         }
 
+        QueryProfiler profiler = pSearch.getProfiler();
+        if (null == profiler) {
+            return filterExcludes(pElemName, pElem, pFilter, pSearch);
+        }
+        QueryProfiler.Phase prev = profiler.enter(QueryProfiler.FILTER);
+        try {
+            profiler.count(QueryProfile.Counter.ELEMENTS_FILTERED);
+            boolean exclude = filterExcludes(pElemName, pElem, pFilter, pSearch);
+            if (exclude) {
+                profiler.count(QueryProfile.Counter.ELEMENTS_EXCLUDED);
+            }
+            return exclude;
+        } finally {
+            profiler.exit(prev);
+        }
+    }
+
+
+    private boolean filterExcludes(String pElemName, Context pElem, Filter pFilter, RunningSearch pSearch) {
+        SearchOptions opts = pSearch.getOptions();
         if (pElem.isArray()) {
             throw new IllegalArgumentException("Got an array element when applying search filter "
                     + pFilter.entrySet().stream().map(Map.Entry::toString).collect(Collectors.joining())
@@ -546,7 +1428,7 @@ abstract class AbstractContext implements Context {
                 SearchPath elemSearchPath = SearchPath.valueOf(filterKey);
                 // Comparison has to be done with brackets removed from filtering key, else comparison is not valid
                 // and this will return true, because the Context member name does not have brackets
-                if (!pElem.containsElement(removeBrackets(elemSearchPath.get(0)))) {
+                if (!pElem.containsElement(elemSearchPath.node(0).name())) {
                     /*
                      * Return true because the top node of the specified search path
                      * was not even found in this context
@@ -555,18 +1437,14 @@ abstract class AbstractContext implements Context {
                 }
 
 
-                Map<String, Context> nestedElemSearchRes;
-                nestedElemSearchRes = findElement(pElem, elemSearchPath, null, null, null, pExtraParams);
-                Context nestedElemCtx;
-                if (null != nestedElemSearchRes && nestedElemSearchRes.size() > 0) {
-                    Set<Map.Entry<String, Context>> entries = nestedElemSearchRes.entrySet();
-                    nestedElemCtx = entries.iterator().next().getValue();
-                } else {
+                pSearch.profile(QueryProfile.Counter.NESTED_FILTER_LOOKUPS);
+                Context nestedElemCtx = nestedValue(pElem, elemSearchPath, pSearch);
+                if (null == nestedElemCtx) {
                     /*
                      * When the nested filter key (I.e. search path) failed to find results, simply ignore it if caller
                      * so has instructed, else throw exception.
                      */
-                    if (null == pExtraParams || !pExtraParams.containsKey(IGNORE_INCOMPATIBLE_SEARCH_PATH_PROVIDED_ERROR)) {
+                    if (!opts.isIgnoreIncompatibleSearchPath() && !opts.isMissingPathAsEmpty()) {
                         throw new IllegalArgumentException("The filter element value specified was not found off of this node: " +
                                 filterKey);
                     } else {
@@ -574,7 +1452,7 @@ abstract class AbstractContext implements Context {
                     }
                 }
 
-                if (!filterValueMatches(nestedElemCtx, filterVal, pExtraParams)) {
+                if (!filterValueMatches(nestedElemCtx, filterVal, pSearch)) {
                     return true;
                 }
             } else {
@@ -586,7 +1464,7 @@ abstract class AbstractContext implements Context {
                 }
 
 
-                if (!filterValueMatches(elem, filterVal, pExtraParams)) {
+                if (!filterValueMatches(elem, filterVal, pSearch)) {
                     return true;
                 }
             }
@@ -603,12 +1481,13 @@ abstract class AbstractContext implements Context {
      *
      * @param pFoundElem
      * @param pFilterVal
-     * @param pExtraParams
+     * @param pSearch
      * @return
      * @throws IllegalArgumentException
      */
-    boolean filterValueMatches(Context pFoundElem, String pFilterVal, Map<String, String> pExtraParams)
+    boolean filterValueMatches(Context pFoundElem, String pFilterVal, RunningSearch pSearch)
             throws IllegalArgumentException {
+        SearchOptions opts = pSearch.getOptions();
 
         if (pFoundElem.isArray()) {
             /**
@@ -616,13 +1495,25 @@ abstract class AbstractContext implements Context {
              * that's the case, then each array entry is compared to the supplied filter value. If match
              * is found in any of the array elements, then the element should *not* be excluded from
              * the search results.
+             * The comparisons are done sequentially, on the calling thread, unless the caller opted for parallel
+             * processing of large arrays, see SearchOptions#withParallelExecution().
              */
-            return pFoundElem.asArray()
-                    .parallelStream().anyMatch(v -> filterValueAndFoundValueMatch(v.stringRepresentation(),
-                            pFilterVal, pExtraParams));
+            int size = arraySize(pFoundElem);
+            if (opts.isParallelFor(size)) {
+                return ParallelChunks.anyMatch(size, opts.getParallelExecutor(), i -> filterValueAndFoundValueMatch(
+                        pFoundElem.entryFromArray(i).stringRepresentation(), pFilterVal, pSearch));
+            }
+            for (int i = 0; i < size; i++) {
+                pSearch.checkpoint();
+                if (filterValueAndFoundValueMatch(pFoundElem.entryFromArray(i).stringRepresentation(), pFilterVal,
+                        pSearch)) {
+                    return true;
+                }
+            }
+            return false;
 
         } else {
-            return filterValueAndFoundValueMatch(pFoundElem.stringRepresentation(), pFilterVal, pExtraParams);
+            return filterValueAndFoundValueMatch(pFoundElem.stringRepresentation(), pFilterVal, pSearch);
 
         }
     }
@@ -634,35 +1525,40 @@ abstract class AbstractContext implements Context {
      *
      * @param pFoundVal
      * @param pFilterVal
-     * @param pExtraParams
+     * @param pSearch
      * @return
      * @throws IllegalArgumentException
      */
-    boolean filterValueAndFoundValueMatch(String pFoundVal, String pFilterVal, Map<String, String> pExtraParams)
+    boolean filterValueAndFoundValueMatch(String pFoundVal, String pFilterVal, RunningSearch pSearch)
             throws IllegalArgumentException {
+        SearchOptions opts = pSearch.getOptions();
         /**
          * See if caller has requested that the values in the {@code Context} themselves behave
          * as regular expressions for purposes of filtering. In this case we ignore the matching style requested
          * for the filter key values, and instead just do the RegEx logic below
          */
-        if (null != pExtraParams && pExtraParams.containsKey(FOUND_ELEM_VAL_IS_REGEX)) {
+        pSearch.countFilterComparison();
+        if (opts.isFoundElemValIsRegex()) {
             /*
              * For performance gains, cache already seen regex patterns, and retrieve from
              * cache if same regex comes again.
              */
             Pattern p = patternCache.get(pFoundVal);
             if (null == p) {
+                SearchMetricsRegistry.get().cacheMiss(SearchMetrics.Cache.PATTERN);
                 p = Pattern.compile(pFoundVal);
                 Pattern prevPatt = patternCache.putIfAbsent(pFoundVal, p);
                 if (null != prevPatt) {
                     p = prevPatt;
                 }
+            } else {
+                SearchMetricsRegistry.get().cacheHit(SearchMetrics.Cache.PATTERN);
             }
             List<String> filterVals = buildListFilter(pFilterVal);
 
             for (String f : filterVals) {
-                Matcher m = p.matcher(f);
-                if (pExtraParams.containsKey(PARTIAL_REGEX_MATCH)) {
+                Matcher m = p.matcher(pSearch.guardText(f));
+                if (opts.isPartialRegexMatch()) {
                     if (m.find()) {
                         return true;
                     }
@@ -811,17 +1707,9 @@ abstract class AbstractContext implements Context {
 
     public List<String> topLevelElementNames() {
         if (isRecursible()) {
-            return entrySet().parallelStream().map(Map.Entry::getKey).collect(Collectors.toList());
+            return entrySet().stream().map(Map.Entry::getKey).collect(Collectors.toList());
         }
 
         return null;
     }
-
-
-    private String removeBrackets(String pIn) {
-        if (arrayIndex(pIn) < 0) {
-            return pIn;
-        }
-        return pIn.substring(0, pIn.indexOf('['));
-    }
 }
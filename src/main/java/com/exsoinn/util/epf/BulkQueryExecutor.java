@@ -0,0 +1,350 @@
+package com.exsoinn.util.epf;
+
+import net.jcip.annotations.Immutable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * Runs a fixed list of {@link SelectionCriteria} against a large number of documents stored in files, in one go. Each
+ * file is read with NIO and parsed via {@link ContextFactory}, and then every criteria is run against it, all in one
+ * task per document. On Java runtimes that have virtual threads, each task gets its own virtual thread, else the tasks
+ * run in a pool of platform threads, see {@link BulkQueryExecutor#withPlatformThreads(int)}.
+ *
+ * The number of documents being worked on at the same time is bounded both by count and by their combined size on disk,
+ * see {@link BulkQueryExecutor#withMaxInFlightDocuments(int)} and {@link BulkQueryExecutor#withMaxInFlightBytes(long)}.
+ * Files are not even read until there's room for them, which keeps memory in check no matter how many files are given.
+ * A file bigger than the byte cap still gets processed, alone. The byte cap counts the size of the files only, while
+ * each document in flight is held in memory as the bytes read, the text decoded out of them and the parsed
+ * {@link Context}, all at once. The memory taken up by the documents in flight is therefore several times the cap.
+ *
+ * A document that fails, because it can't be read, can't be parsed, or one of the searches throws, produces a failed
+ * {@link DocumentResult}, and the rest of the documents are not affected.
+ *
+ * Instances are immutable, hence can be shared, and reused for any number of runs.
+ */
+@Immutable
+public final class BulkQueryExecutor {
+    private static final long DEFAULT_MAX_IN_FLIGHT_BYTES = 256L * 1024 * 1024;
+    private static final int DEFAULT_MAX_IN_FLIGHT_DOCUMENTS = 1024;
+    /*
+     * Executors.newVirtualThreadPerTaskExecutor(), looked up reflectively because this library gets built for Java 8.
+     * Null when the runtime has no virtual threads.
+     */
+    private static final Method NEW_VIRTUAL_THREAD_EXECUTOR = virtualThreadExecutorFactory();
+
+    private final List<SelectionCriteria> criteria;
+    private final SearchOptions options;
+    private final long maxInFlightBytes;
+    private final int maxInFlightDocuments;
+    private final int platformThreads;
+    private final boolean useVirtualThreads;
+
+
+    private BulkQueryExecutor(List<SelectionCriteria> pCriteria,
+                              SearchOptions pOptions,
+                              long pMaxInFlightBytes,
+                              int pMaxInFlightDocuments,
+                              int pPlatformThreads,
+                              boolean pUseVirtualThreads) {
+        criteria = pCriteria;
+        options = pOptions;
+        maxInFlightBytes = pMaxInFlightBytes;
+        maxInFlightDocuments = pMaxInFlightDocuments;
+        platformThreads = pPlatformThreads;
+        useVirtualThreads = pUseVirtualThreads;
+    }
+
+
+    /**
+     * @param pCriteria - What to search for in each document, the {@link SearchResult}'s of each
+     *                  {@link DocumentResult} come in this same order
+     * @param pOptions - Options of every search, can be <code>null</code>
+     * @return - A {@code BulkQueryExecutor} with default settings: virtual threads if available, else as many platform
+     *   threads as there are processors, and at most 1024 documents or 256 MB worth of files in flight
+     * @throws IllegalArgumentException - If no criteria were given
+     */
+    public static BulkQueryExecutor of(List<SelectionCriteria> pCriteria, SearchOptions pOptions)
+            throws IllegalArgumentException {
+        if (null == pCriteria || pCriteria.isEmpty()) {
+            throw new IllegalArgumentException("At least one selection criteria is needed");
+        }
+        return new BulkQueryExecutor(Collections.unmodifiableList(new ArrayList<>(pCriteria)),
+                null == pOptions ? SearchOptions.defaultOptions() : pOptions, DEFAULT_MAX_IN_FLIGHT_BYTES,
+                DEFAULT_MAX_IN_FLIGHT_DOCUMENTS, Runtime.getRuntime().availableProcessors(), true);
+    }
+
+
+    /**
+     * @param pMaxBytes - Maximum combined size, in bytes, of the files being worked on at the same time. This is the
+     *                  size of the files on disk, the memory they take up once read and parsed is several times that,
+     *                  so leave room for it.
+     * @return - A new {@code BulkQueryExecutor} with the given cap
+     * @throws IllegalArgumentException - If <code>pMaxBytes</code> is less than 1
+     */
+    public BulkQueryExecutor withMaxInFlightBytes(long pMaxBytes) throws IllegalArgumentException {
+        if (pMaxBytes < 1) {
+            throw new IllegalArgumentException("The maximum number of bytes in flight must be at least 1, got "
+                    + pMaxBytes);
+        }
+        return new BulkQueryExecutor(criteria, options, pMaxBytes, maxInFlightDocuments, platformThreads,
+                useVirtualThreads);
+    }
+
+
+    /**
+     * @param pMaxDocuments - Maximum number of documents being worked on at the same time
+     * @return - A new {@code BulkQueryExecutor} with the given cap
+     * @throws IllegalArgumentException - If <code>pMaxDocuments</code> is less than 1
+     */
+    public BulkQueryExecutor withMaxInFlightDocuments(int pMaxDocuments) throws IllegalArgumentException {
+        if (pMaxDocuments < 1) {
+            throw new IllegalArgumentException("The maximum number of documents in flight must be at least 1, got "
+                    + pMaxDocuments);
+        }
+        return new BulkQueryExecutor(criteria, options, maxInFlightBytes, pMaxDocuments, platformThreads,
+                useVirtualThreads);
+    }
+
+
+    /**
+     * @param pThreads - Size of the pool of platform threads that process the documents when virtual threads are not
+     *                 used
+     * @return - A new {@code BulkQueryExecutor} with the given pool size
+     * @throws IllegalArgumentException - If <code>pThreads</code> is less than 1
+     */
+    public BulkQueryExecutor withPlatformThreads(int pThreads) throws IllegalArgumentException {
+        if (pThreads < 1) {
+            throw new IllegalArgumentException("The number of platform threads must be at least 1, got " + pThreads);
+        }
+        return new BulkQueryExecutor(criteria, options, maxInFlightBytes, maxInFlightDocuments, pThreads,
+                useVirtualThreads);
+    }
+
+
+    /**
+     * @param pUseVirtualThreads - <code>false</code> to always use platform threads, even if the runtime has virtual
+     *                           threads
+     * @return - A new {@code BulkQueryExecutor} with the given setting
+     */
+    public BulkQueryExecutor withVirtualThreads(boolean pUseVirtualThreads) {
+        return new BulkQueryExecutor(criteria, options, maxInFlightBytes, maxInFlightDocuments, platformThreads,
+                pUseVirtualThreads);
+    }
+
+
+    /**
+     * @return - <code>true</code> if the Java runtime has virtual threads
+     */
+    public static boolean virtualThreadsAvailable() {
+        return null != NEW_VIRTUAL_THREAD_EXECUTOR;
+    }
+
+
+    /**
+     * Processes all of <code>pFiles</code>, and gives back the results once all are done.
+     *
+     * @param pFiles - The files to process, each one at most once
+     * @return - The result of each file, in the same order as <code>pFiles</code>
+     * @throws InterruptedException - If the calling thread gets interrupted while waiting for the files to be
+     *   processed. The files not yet started are skipped.
+     * @throws IllegalArgumentException - If <code>pFiles</code> holds the same {@link Path} more than once, since
+     *   the results are keyed by {@link Path}
+     */
+    public Map<Path, DocumentResult> run(Collection<Path> pFiles) throws InterruptedException {
+        int distinct = new HashSet<>(pFiles).size();
+        if (distinct != pFiles.size()) {
+            throw new IllegalArgumentException("The files to process must be distinct, " + pFiles.size()
+                    + " paths were given, only " + distinct + " of them distinct");
+        }
+        Map<Path, DocumentResult> byPath = new ConcurrentHashMap<>();
+        run(pFiles, byPath::put);
+        Map<Path, DocumentResult> ordered = new LinkedHashMap<>();
+        for (Path p : pFiles) {
+            ordered.put(p, byPath.get(p));
+        }
+        return Collections.unmodifiableMap(ordered);
+    }
+
+
+    /**
+     * Processes all of <code>pFiles</code>, handing over the result of each one to <code>pConsumer</code> as soon as
+     * it is ready. Meant for large batches, since results are not held on to once consumed. The consumer gets called
+     * from the threads that process the documents, one call at a time, in the order the documents finish. The
+     * {@link DocumentResult#getSequence()} of each result tells the position of the file in <code>pFiles</code>.
+     * <code>pConsumer</code> is never called once this method returns, whether normally or not.
+     *
+     * @param pFiles - The files to process
+     * @param pConsumer - Receives each file along with its result
+     * @throws InterruptedException - If the calling thread gets interrupted while waiting for the files to be
+     *   processed. The files not yet started are skipped, and the results of those in progress are discarded.
+     */
+    public void run(Iterable<Path> pFiles, BiConsumer<Path, DocumentResult> pConsumer) throws InterruptedException {
+        InFlightBudget budget = new InFlightBudget(maxInFlightBytes, maxInFlightDocuments);
+        AtomicReference<RuntimeException> consumerError = new AtomicReference<>();
+        /*
+         * Calls to the consumer take turns under a lock of their own, rather than the monitor of the consumer, which the
+         * caller might hold as well, or of anything else, since a virtual thread waiting on a monitor can't give up its
+         * carrier thread on all Java versions
+         */
+        Lock consumerLock = new ReentrantLock();
+        /*
+         * Set on the way out, under the consumer lock, hence from then on documents still being processed, when the
+         * caller got interrupted, don't get to hand over their result
+         */
+        AtomicBoolean closed = new AtomicBoolean();
+        BiConsumer<Path, DocumentResult> consumer = (path, result) -> {
+            consumerLock.lock();
+            try {
+                if (closed.get()) {
+                    return;
+                }
+                pConsumer.accept(path, result);
+            } catch (RuntimeException e) {
+                consumerError.compareAndSet(null, e);
+            } finally {
+                consumerLock.unlock();
+            }
+        };
+
+        ExecutorService executor = newExecutor();
+        try {
+            long seq = 0;
+            for (Path p : pFiles) {
+                long docSeq = seq++;
+                long size;
+                try {
+                    size = Files.size(p);
+                } catch (IOException e) {
+                    consumer.accept(p, DocumentResult.failure(docSeq, new UncheckedIOException(e)));
+                    continue;
+                }
+                budget.acquire(size);
+                try {
+                    executor.execute(() -> {
+                        try {
+                            consumer.accept(p, process(docSeq, p));
+                        } finally {
+                            budget.release(size);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    budget.release(size);
+                    consumer.accept(p, DocumentResult.failure(docSeq, e));
+                }
+            }
+            budget.awaitIdle();
+        } finally {
+            executor.shutdownNow();
+            consumerLock.lock();
+            try {
+                closed.set(true);
+            } finally {
+                consumerLock.unlock();
+            }
+        }
+
+        if (null != consumerError.get()) {
+            throw consumerError.get();
+        }
+    }
+
+
+    private DocumentResult process(long pSeq, Path pFile) {
+        byte[] content;
+        try {
+            content = Files.readAllBytes(pFile);
+        } catch (IOException e) {
+            return DocumentResult.failure(pSeq, new UncheckedIOException(e));
+        }
+        return DocumentQuery.run(pSeq, content, criteria, options, null);
+    }
+
+
+    private ExecutorService newExecutor() {
+        if (useVirtualThreads && null != NEW_VIRTUAL_THREAD_EXECUTOR) {
+            try {
+                return (ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR.invoke(null);
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                /*
+                 * For example, virtual threads are a preview feature of the runtime, and previews are not enabled. Fall
+                 * back to platform threads.
+                 */
+            }
+        }
+        AtomicInteger threadCnt = new AtomicInteger();
+        return Executors.newFixedThreadPool(platformThreads, r -> {
+            Thread t = new Thread(r, "bulk-query-" + threadCnt.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+
+    private static Method virtualThreadExecutorFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+
+    /*
+     * Counts the documents in flight, and their combined size. A document that would go over either cap waits until
+     * enough of the documents in flight are done, unless there are none, so that a file bigger than the byte cap does
+     * not wait forever.
+     */
+    private static final class InFlightBudget {
+        private final long maxBytes;
+        private final int maxDocuments;
+        private long bytes;
+        private int documents;
+
+        private InFlightBudget(long pMaxBytes, int pMaxDocuments) {
+            maxBytes = pMaxBytes;
+            maxDocuments = pMaxDocuments;
+        }
+
+        synchronized void acquire(long pBytes) throws InterruptedException {
+            while (documents > 0 && (documents >= maxDocuments || bytes + pBytes > maxBytes)) {
+                wait();
+            }
+            documents++;
+            bytes += pBytes;
+        }
+
+        synchronized void release(long pBytes) {
+            documents--;
+            bytes -= pBytes;
+            notifyAll();
+        }
+
+        synchronized void awaitIdle() throws InterruptedException {
+            while (documents > 0) {
+                wait();
+            }
+        }
+    }
+}
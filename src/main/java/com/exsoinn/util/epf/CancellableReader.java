@@ -0,0 +1,34 @@
+package com.exsoinn.util.epf;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * {@link Reader} that checks with a {@link SearchGuard} before every read, so that parsing a large document stops
+ * shortly after the parsing was cancelled, see {@link ContextFactory#obtainContextAsync(Object, java.util.concurrent.Executor)}.
+ * Parsers read in chunks, therefore the check happens once per chunk, not once per character.
+ */
+final class CancellableReader extends FilterReader {
+    private final SearchGuard guard;
+
+
+    CancellableReader(Reader pIn, SearchGuard pGuard) {
+        super(pIn);
+        guard = pGuard;
+    }
+
+
+    @Override
+    public int read() throws IOException {
+        guard.checkpoint();
+        return super.read();
+    }
+
+
+    @Override
+    public int read(char[] pBuf, int pOff, int pLen) throws IOException {
+        guard.checkpoint();
+        return super.read(pBuf, pOff, pLen);
+    }
+}
@@ -1,7 +1,10 @@
 package com.exsoinn.util.epf;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * This API is meant to make it easier to search disparate data formats (e.g. XML, JSON), by acting as a wrapper
@@ -30,6 +33,37 @@ public interface Context {
     String PARTIAL_REGEX_MATCH = "partialRegexMatch";
     String IGNORE_INCOMPATIBLE_SEARCH_PATH_PROVIDED_ERROR = "ignoreIncompatibleSearchPathProvidedError";
     String IGNORE_INCOMPATIBLE_TARGET_ELEMENT_PROVIDED_ERROR = "ignoreIncompatibleTargetElementProvidedError";
+    /**
+     * When present, any node of the search path (or of a nested filter key, or of a target element) that is not found,
+     * including unexpected array nodes, simply yields no results, without building and throwing any exception.
+     */
+    String MISSING_PATH_AS_EMPTY = "missingPathAsEmpty";
+    /**
+     * Value is the maximum number of results to produce, see {@link SearchOptions#withResultLimit(int)}.
+     */
+    String RESULT_LIMIT = "resultLimit";
+    /**
+     * When present, search path nodes that search for a member at any depth ("..name") are answered from an index of
+     * member names, built the first time it is needed and kept for the lifetime of the {@link Context}, instead of
+     * scanning the whole document on every search. Has no effect on {@link MutableContext}'s.
+     */
+    String USE_NAME_INDEX = "useNameIndex";
+    /**
+     * When present, the results of the search are remembered by the {@link Context}, and an identical search later on,
+     * that is, one with equal {@link SelectionCriteria} and equal options, also asking for the result cache, gets them
+     * back without searching again. Only the most recently used searches are remembered, and the garbage collector may
+     * reclaim their results when memory runs low. Searches that fail are not remembered. Has no effect on
+     * {@link MutableContext}'s, since what they hold can change between one search and the next.
+     */
+    String USE_RESULT_CACHE = "useResultCache";
+    /**
+     * When present, the {@link IllegalArgumentException} thrown because a node of the search path was not found, or was
+     * an unexpected array, carries no stack trace, which saves filling it in for callers that expect many such misses
+     * and only look at the message and cause. The cause, an {@link IncompatibleSearchPathException} or an
+     * {@link UnexpectedArrayNodeException}, is there either way. Callers that do not need the exception at all can
+     * rather use {@link Context#MISSING_PATH_AS_EMPTY}.
+     */
+    String OMIT_MISS_STACK_TRACE = "omitMissStackTrace";
 
     /**
      * Represents the entry point to begin searching the underlying data structure. The search works by specifying a path
@@ -152,6 +186,185 @@ public interface Context {
      */
     SearchResult findElement(SelectionCriteria pSelectCriteria,
                              Map<String, String> pExtraParams) throws IllegalArgumentException;
+
+
+    /**
+     * Works the same as {@link Context#findElement(SelectionCriteria, Map)}, except that the behavior of the search is
+     * controlled by a typed {@link SearchOptions} object instead of an extra parameters {@link Map}. This is the
+     * preferred way to search, the options get resolved only once instead of being looked up in a {@link Map} over and
+     * over while the search is in progress.
+     * This default implementation simply converts the options via {@link SearchOptions#toMap()}, implementing classes
+     * are expected to override it.
+     * @param pSelectCriteria - pSelectCriteria
+     * @param pOptions - The search options, if <code>null</code> then {@link SearchOptions#defaultOptions()} is used
+     * @return - See {@link Context#findElement(SearchPath, Filter, TargetElements, Map)}
+     * @throws IllegalArgumentException - See {@link Context#findElement(SearchPath, Filter, TargetElements, Map)}
+     */
+    default SearchResult findElementWithOptions(SelectionCriteria pSelectCriteria,
+                                                SearchOptions pOptions) throws IllegalArgumentException {
+        return findElement(pSelectCriteria, null == pOptions ? null : pOptions.toMap());
+    }
+
+
+    /**
+     * Asynchronous flavor of {@link Context#findElementWithOptions(SelectionCriteria, SearchOptions)}, the search runs in
+     * <code>pExecutor</code>, leaving the calling thread free to do other things. Cancelling the returned
+     * {@link CompletableFuture} stops the search at the next node or array entry it processes, so that a search nobody
+     * is waiting for anymore does not keep consuming CPU.
+     * This default implementation can only honor cancellations that happen before the search starts running,
+     * implementing classes are expected to override it.
+     * @param pSelectCriteria - pSelectCriteria
+     * @param pOptions - The search options, if <code>null</code> then {@link SearchOptions#defaultOptions()} is used
+     * @param pExecutor - Where to run the search
+     * @return - Completes with the search results, or exceptionally with whatever the search threw
+     */
+    default CompletableFuture<SearchResult> findElementAsync(SelectionCriteria pSelectCriteria,
+                                                             SearchOptions pOptions,
+                                                             Executor pExecutor) {
+        return CompletableFuture.supplyAsync(() -> findElementWithOptions(pSelectCriteria, pOptions), pExecutor);
+    }
+
+
+    /**
+     * Exception-free flavor of {@link Context#findElementWithOptions(SelectionCriteria, SearchOptions)}, meant for optional
+     * data. The search runs with {@link SearchOptions#withMissingPathAsEmpty(boolean)} turned on, therefore a search
+     * path that does not exist in this {@code Context} does not cost building, filling the stack trace of, and throwing
+     * an exception.
+     * @param pSelectCriteria - pSelectCriteria
+     * @param pOptions - The search options, if <code>null</code> then {@link SearchOptions#defaultOptions()} is used
+     * @return - The search results, or an empty {@link Optional} if nothing was found
+     * @throws IllegalArgumentException - For errors other than the search path not being found, for example a filter
+     *   that is not applicable to the found element
+     */
+    default Optional<SearchResult> findOptionalElement(SelectionCriteria pSelectCriteria,
+                                                       SearchOptions pOptions) throws IllegalArgumentException {
+        SearchOptions opts = (null == pOptions ? SearchOptions.defaultOptions() : pOptions).withMissingPathAsEmpty(true);
+        SearchResult sr = findElementWithOptions(pSelectCriteria, opts);
+        return null == sr || sr.isEmpty() ? Optional.empty() : Optional.of(sr);
+    }
+
+
+    /**
+     * Same as {@link Context#exists(SelectionCriteria, SearchOptions)}, with default search options.
+     * @param pSelectCriteria - pSelectCriteria
+     * @return - <code>true</code> if the search would yield at least one result
+     * @throws IllegalArgumentException - See {@link Context#exists(SelectionCriteria, SearchOptions)}
+     */
+    default boolean exists(SelectionCriteria pSelectCriteria) throws IllegalArgumentException {
+        return exists(pSelectCriteria, null);
+    }
+
+
+    /**
+     * Tells if the search described by <code>pSelectCriteria</code> finds anything, without building any search results. The
+     * search stops at the first match, and a search path that is not found simply answers <code>false</code>. The
+     * {@link TargetElements} of the criteria, if any, are disregarded, they shape the search results but have no say on
+     * whether something was found or not.
+     * @param pSelectCriteria - pSelectCriteria
+     * @param pOptions - The search options, if <code>null</code> then {@link SearchOptions#defaultOptions()} is used
+     * @return - <code>true</code> if the search would yield at least one result
+     * @throws IllegalArgumentException - For errors other than the search path not being found, for example a filter
+     *   that is not applicable to the found element
+     */
+    default boolean exists(SelectionCriteria pSelectCriteria, SearchOptions pOptions) throws IllegalArgumentException {
+        SearchOptions opts = (null == pOptions ? SearchOptions.defaultOptions() : pOptions)
+                .withMissingPathAsEmpty(true).withResultLimit(1);
+        return !findElementWithOptions(SelectionCriteria.fromObjects(pSelectCriteria.getSearchPath(),
+                pSelectCriteria.getFilter(), null), opts).isEmpty();
+    }
+
+    /**
+     * Lazy flavor of {@link Context#findElementWithOptions(SelectionCriteria, SearchOptions)}. Rather than building
+     * the whole {@link SearchResult} up front, the returned {@link Stream} produces the matches one at a time, as the
+     * search finds them. When the last node of the search path is an array, each array entry that passes the
+     * {@link Filter} becomes a separate stream element, whose key is the name of the array, and whose value is the
+     * array entry with {@link TargetElements} already applied. Otherwise the stream contains at most one element. Unlike
+     * {@link Context#findElementWithOptions(SelectionCriteria, SearchOptions)}, found complex objects are never
+     * unwrapped to their single target element.
+     *
+     * Errors, such as a search path that is not found, are thrown by the stream terminal operation, not by this method.
+     * A stream left before it runs out of matches, for example by {@link Stream#findFirst()}, should be closed, so that
+     * {@link SearchMetrics} learn that the search is over.
+     * This default implementation runs the regular search and streams over its results, implementing classes are
+     * expected to override it with a truly lazy one.
+     * @param pSelectCriteria - pSelectCriteria
+     * @param pOptions - The search options, if <code>null</code> then {@link SearchOptions#defaultOptions()} is used
+     * @return - A sequential {@link Stream} of the matches, call {@link Stream#parallel()} to process them in parallel
+     */
+    default Stream<Map.Entry<String, Context>> findElementStream(SelectionCriteria pSelectCriteria,
+                                                               SearchOptions pOptions) {
+        return findElementWithOptions(pSelectCriteria, pOptions).entrySet().stream()
+                .flatMap(e -> e.getValue().isArray()
+                        ? e.getValue().asArray().stream().map(v -> new AbstractMap.SimpleImmutableEntry<>(e.getKey(), v))
+                        : Stream.of(e));
+    }
+
+
+    /**
+     * Callback flavor of {@link Context#findElementWithOptions(SelectionCriteria, SearchOptions)}, for code that only
+     * consumes the matches. Instead of returning a {@link SearchResult}, each match is handed to <code>pVisitor</code> as
+     * soon as it is found, see {@link MatchVisitor} for the details. Implementing classes should not build any
+     * intermediate results when searching this way.
+     *
+     * This default implementation visits the elements of
+     * {@link Context#findElementStream(SelectionCriteria, SearchOptions)}, as is, therefore the position it reports is
+     * that of the match among all the matches, which is the same as the array index only when no {@link Filter} was
+     * given, and it reports no path. Implementing classes are expected to override it.
+     * @param pSelectCriteria - pSelectCriteria
+     * @param pOptions - The search options, if <code>null</code> then {@link SearchOptions#defaultOptions()} is used
+     * @param pVisitor - Receives the matches
+     * @throws IllegalArgumentException - See {@link Context#findElementWithOptions(SelectionCriteria, SearchOptions)}
+     */
+    default void findElement(SelectionCriteria pSelectCriteria,
+                             SearchOptions pOptions,
+                             MatchVisitor pVisitor) throws IllegalArgumentException {
+        Iterator<Map.Entry<String, Context>> it = findElementStream(pSelectCriteria, pOptions).iterator();
+        for (int i = 0; it.hasNext(); i++) {
+            Map.Entry<String, Context> e = it.next();
+            pVisitor.visit(e.getKey(), e.getValue(), i, null);
+        }
+    }
+
+
+    /**
+     * Runs the search described by <code>pSelectCriteria</code>, same as
+     * {@link Context#findElementWithOptions(SelectionCriteria, SearchOptions)} does, and tells where it spent its time
+     * and effort: per search path step, and for filtering, applying target elements and gathering results, the time
+     * spent, the nodes visited, members scanned, elements filtered, nested filter lookups, target element subsearches and
+     * serialize/reparse round trips, see {@link QueryProfile}. Meant to find out why a given criteria is slow, and what to
+     * change about it, not to be used on every search.
+     *
+     * Parallel processing of arrays, see {@link SearchOptions#withParallelExecution(Executor, int)},
+     * is turned off for the search, so that the time of each phase is that of a single thread. This default
+     * implementation only gives the total time, with no breakdown, implementing classes are expected to override it.
+     * @param pSelectCriteria - pSelectCriteria
+     * @param pOptions - The search options, if <code>null</code> then {@link SearchOptions#defaultOptions()} is used
+     * @return - The profile of the search, whose root also holds what the search found, see
+     *   {@link QueryProfile#getResult()}
+     * @throws IllegalArgumentException - See {@link Context#findElementWithOptions(SelectionCriteria, SearchOptions)}
+     */
+    default QueryProfile explain(SelectionCriteria pSelectCriteria, SearchOptions pOptions)
+            throws IllegalArgumentException {
+        SearchOptions opts = (null == pOptions ? SearchOptions.defaultOptions() : pOptions)
+                .withParallelExecution(null, 0);
+        long start = System.nanoTime();
+        SearchResult res = findElementWithOptions(pSelectCriteria, opts);
+        return QueryProfile.of(pSelectCriteria.toString(), System.nanoTime() - start, Collections.emptyMap(),
+                Collections.emptyList(), res);
+    }
+
+
+    /**
+     * Shape and size of this {@code Context}, see {@link ContextStats}. This default implementation walks the whole
+     * {@code Context} on every invocation, implementing classes which are immutable are expected to override it and
+     * remember the result.
+     * @return - The stats of this {@code Context}
+     */
+    default ContextStats stats() {
+        return ContextStats.compute(this);
+    }
+
+
     /**
      * Implementing classes use this method to tell if underlying data is a primitive (I.e. long, int, double,
      * {@link String}, etc...
@@ -272,10 +485,10 @@ public interface Context {
         boolean errorParsingCtx = true;
         try {
             Context ctx;
-            if (null != (ctx = ContextFactory.obtainContext(pArg)) && ctx.isArray()) {
+            if (null != (ctx = ContextFactory.obtainContextUnmetered(pArg)) && ctx.isArray()) {
                 List<Context> ctxAry = ctx.asArray();
                 // All the Context objects in the List must be of type primitive.
-                if (ctxAry.parallelStream().filter(e -> !e.isPrimitive()).findAny().isPresent()) {
+                if (ctxAry.stream().anyMatch(e -> !e.isPrimitive())) {
                     throw new IllegalArgumentException("The produced list did not contain all primitive values, please check: "
                             + pArg);
                 }
@@ -284,7 +497,7 @@ public interface Context {
                         collect(Collectors.toCollection(() -> new ArrayList<>()));
             }
         } catch (Exception ignore) {
-            // Ignore
+            SearchMetricsRegistry.get().exceptionMiss(SearchMetrics.ExceptionMiss.LIST_FILTER);
         } finally {
             if (errorParsingCtx) {
                 /**
@@ -5,9 +5,12 @@ import com.google.gson.JsonParseException;
 import com.google.gson.JsonParser;
 import org.json.JSONObject;
 import org.json.XML;
+import java.io.StringReader;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * Factory for building {@link Context}'s from passed in data. Currently any valid JSON or XML string can be
@@ -33,7 +36,22 @@ public enum ContextFactory {
      * @throws IllegalArgumentException - TODO
      */
     public static Context obtainContext(Object pData) throws IllegalArgumentException {
-        return obtainContext(pData, CLASS_NAME_JSON_CTX);
+        return obtainContext(pData, CLASS_NAME_JSON_CTX, null);
+    }
+
+
+    /**
+     * Asynchronous flavor of {@link ContextFactory#obtainContext(Object)}, the data gets parsed in
+     * <code>pExecutor</code>. Cancelling the returned {@link CompletableFuture} stops the parsing shortly after,
+     * instead of letting it run to completion.
+     *
+     * @param pData - The data from which a {@code Context} will be constructed.
+     * @param pExecutor - Where to do the parsing
+     * @return - Completes with the {@link Context}, or exceptionally with {@link IllegalArgumentException} if
+     *   <code>pData</code> is not in a supported format
+     */
+    public static CompletableFuture<Context> obtainContextAsync(Object pData, Executor pExecutor) {
+        return SearchGuard.supplyAsync(guard -> obtainContext(pData, CLASS_NAME_JSON_CTX, guard), pExecutor);
     }
 
 
@@ -44,13 +62,79 @@ public enum ContextFactory {
      * @throws IllegalArgumentException - TODO
      */
     public static MutableContext obtainMutableContext(Object pData) throws IllegalArgumentException {
-        return (MutableContext) obtainContext(pData, CLASS_NAME_MUT_JSON_CTX);
+        return (MutableContext) obtainContext(pData, CLASS_NAME_MUT_JSON_CTX, null);
     }
 
 
-    private static Context obtainContext(Object pData, String pClassName)
+    /*
+     * For components of this package that parse on behalf of a search that can be cancelled
+     */
+    static Context obtainContext(Object pData, SearchGuard pGuard) throws IllegalArgumentException {
+        return obtainContext(pData, CLASS_NAME_JSON_CTX, pGuard);
+    }
+
+
+    /*
+     * For the search engine itself, which builds Context's along the way, out of found array entries, filter value lists
+     * and the like. Those are part of the search, hence are not reported to SearchMetrics as parses.
+     */
+    static Context obtainContextUnmetered(Object pData) throws IllegalArgumentException {
+        return parse(pData, CLASS_NAME_JSON_CTX, null);
+    }
+
+
+    static MutableContext obtainMutableContextUnmetered(Object pData) throws IllegalArgumentException {
+        return (MutableContext) parse(pData, CLASS_NAME_MUT_JSON_CTX, null);
+    }
+
+
+    /*
+     * The pGuard, if not null, gets checked while parsing, see obtainContextAsync()
+     */
+    private static Context obtainContext(Object pData, String pClassName, SearchGuard pGuard)
             throws IllegalArgumentException {
-        JsonElement je = convertToJson(pData);
+        // No parse to report for null, which parse() rejects right away
+        if (null == pData || !SearchMetricsRegistry.isEnabled()) {
+            return parse(pData, pClassName, pGuard);
+        }
+        SearchMetrics metrics = SearchMetricsRegistry.get();
+        SearchMetrics.Format format = formatOf(pData);
+        metrics.parseStarted(format);
+        long start = System.nanoTime();
+        Context ctx;
+        try {
+            ctx = parse(pData, pClassName, pGuard);
+        } catch (RuntimeException e) {
+            metrics.parseFailed(format, System.nanoTime() - start, e);
+            throw e;
+        }
+        metrics.contextParsed(format, System.nanoTime() - start,
+                pData instanceof CharSequence ? ((CharSequence) pData).length() : 0L);
+        return ctx;
+    }
+
+
+    /*
+     * Text gets tried as JSON first, then as XML, and only XML can start with '<'
+     */
+    private static SearchMetrics.Format formatOf(Object pData) {
+        if (pData instanceof JsonElement) {
+            return SearchMetrics.Format.JSON_ELEMENT;
+        } else if (pData instanceof List) {
+            return SearchMetrics.Format.LIST;
+        }
+        String str = pData.toString();
+        for (int i = 0; i < str.length(); i++) {
+            if (!Character.isWhitespace(str.charAt(i))) {
+                return str.charAt(i) == '<' ? SearchMetrics.Format.XML : SearchMetrics.Format.JSON;
+            }
+        }
+        return SearchMetrics.Format.JSON;
+    }
+
+
+    private static Context parse(Object pData, String pClassName, SearchGuard pGuard) throws IllegalArgumentException {
+        JsonElement je = convertToJson(pData, pGuard);
         String xmlToJsonStr;
 
         boolean formatIsSupported = false;
@@ -61,10 +145,10 @@ public enum ContextFactory {
             jsonCtxClassConstructor.setAccessible(true);
             if (null != je) {
                 formatIsSupported = true;
-            } else if (pData instanceof List && null != (je = convertToJson(pData.toString()))) {
+            } else if (pData instanceof List && null != (je = convertToJson(pData.toString(), pGuard))) {
                 formatIsSupported = true;
-            } else if (pData instanceof String && null != (xmlToJsonStr = tryXml((String) pData))
-                    && null != (je = convertToJson(xmlToJsonStr))) {
+            } else if (pData instanceof String && null != (xmlToJsonStr = tryXml((String) pData, pGuard))
+                    && null != (je = convertToJson(xmlToJsonStr, pGuard))) {
                 /*
                  * Because we got XML, (I.e. the tryXml() method call did not return NULL), check if we still
                  * ended up with empty JSON, in which case we will throw error
@@ -98,13 +182,17 @@ public enum ContextFactory {
     /*
      * See if we get lucky and this is XML
      */
-    private static String tryXml(String pData) {
+    private static String tryXml(String pData, SearchGuard pGuard) {
+        if (null != pGuard) {
+            pGuard.checkpoint();
+        }
         try {
             JSONObject jo = XML.toJSONObject(pData);
             if (null != jo) {
                 return jo.toString();
             }
         } catch (Exception e) {
+            SearchMetricsRegistry.get().exceptionMiss(SearchMetrics.ExceptionMiss.XML_PARSE);
             return null;
         }
 
@@ -115,15 +203,18 @@ public enum ContextFactory {
      * This could have been made to return a boolean, but then the calling code would have to again
      * do a JsonParser.parse() operation, which is unnecessary.
      */
-    private static JsonElement convertToJson(Object pData) {
+    private static JsonElement convertToJson(Object pData, SearchGuard pGuard) {
         try {
             JsonParser jp = new JsonParser();
             if (pData instanceof JsonElement) {
                 return JsonContext.generateBrandNewJsonElementObject((JsonElement) pData);
+            } else if (pData instanceof String && null != pGuard) {
+                return jp.parse(new CancellableReader(new StringReader((String) pData), pGuard));
             } else if (pData instanceof String) {
                 return jp.parse((String) pData);
             }
         } catch (JsonParseException e) {
+            SearchMetricsRegistry.get().exceptionMiss(SearchMetrics.ExceptionMiss.JSON_PARSE);
             return null;
         }
 
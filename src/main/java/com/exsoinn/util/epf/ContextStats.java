@@ -0,0 +1,229 @@
+package com.exsoinn.util.epf;
+
+import net.jcip.annotations.Immutable;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Shape and size of a {@link Context}: how many nodes it has and of what kind, how deeply nested it is, how big its
+ * arrays are, how many distinct member names it uses, and roughly how much heap it retains. Meant for sizing caches of
+ * {@link Context} objects, for example as the weight of each entry of a cache evicting by weight, and for capacity
+ * planning.
+ *
+ * Gathered in a single walk of the {@link Context}, see {@link Context#stats()}, which immutable implementations
+ * remember, so that asking again costs nothing. The walk uses an explicit stack, hence deeply nested documents are no
+ * problem.
+ *
+ * The retained heap size is an estimate, not a measurement. It assumes a 64-bit JVM with compressed references, and
+ * that the document is held the way {@link ContextFactory} holds JSON and XML, that is, as a Gson tree, each member
+ * name and primitive value a {@link String} of one byte per character, see
+ * {@link ContextStats#getEstimatedRetainedBytes()}. It leaves out what the engine builds on demand and memoizes, like
+ * these same stats.
+ */
+@Immutable
+public final class ContextStats {
+    /*
+     * Shallow sizes, in bytes, with compressed references and 8 byte alignment
+     */
+    private static final int REFERENCE = 4;
+    private static final int ARRAY_HEADER = 16;
+    private static final int STRING = 24;
+    private static final int JSON_WRAPPER = 16;
+    private static final int TREE_MAP = 48;
+    private static final int TREE_MAP_NODE = 48;
+    private static final int ARRAY_LIST = 24;
+
+    private final long nodeCount;
+    private final long complexCount;
+    private final long arrayCount;
+    private final long primitiveCount;
+    private final int maxDepth;
+    private final long totalArrayEntries;
+    private final int maxArraySize;
+    private final long memberCount;
+    private final int distinctMemberNames;
+    private final long estimatedRetainedBytes;
+
+
+    private ContextStats(long pNodeCount,
+                         long pComplexCount,
+                         long pArrayCount,
+                         long pPrimitiveCount,
+                         int pMaxDepth,
+                         long pTotalArrayEntries,
+                         int pMaxArraySize,
+                         long pMemberCount,
+                         int pDistinctMemberNames,
+                         long pEstimatedRetainedBytes) {
+        nodeCount = pNodeCount;
+        complexCount = pComplexCount;
+        arrayCount = pArrayCount;
+        primitiveCount = pPrimitiveCount;
+        maxDepth = pMaxDepth;
+        totalArrayEntries = pTotalArrayEntries;
+        maxArraySize = pMaxArraySize;
+        memberCount = pMemberCount;
+        distinctMemberNames = pDistinctMemberNames;
+        estimatedRetainedBytes = pEstimatedRetainedBytes;
+    }
+
+
+    /**
+     * Same as {@link Context#stats()}
+     */
+    public static ContextStats of(Context pContext) {
+        return pContext.stats();
+    }
+
+
+    /*
+     * Does the walk, each time it is invoked, see AbstractContext#stats() for the memoizing flavor
+     */
+    static ContextStats compute(Context pContext) {
+        long nodes = 0;
+        long complexes = 0;
+        long arrays = 0;
+        long primitives = 0;
+        int maxDepth = 0;
+        long arrayEntries = 0;
+        int maxArraySize = 0;
+        long members = 0;
+        long bytes = 0;
+        Set<String> names = new HashSet<>();
+        Deque<Context> pending = new ArrayDeque<>();
+        Deque<Integer> depths = new ArrayDeque<>();
+        pending.push(pContext);
+        depths.push(1);
+        while (!pending.isEmpty()) {
+            Context c = pending.pop();
+            int depth = depths.pop();
+            nodes++;
+            maxDepth = Math.max(maxDepth, depth);
+            if (c.isRecursible()) {
+                complexes++;
+                bytes += JSON_WRAPPER + TREE_MAP;
+                for (Map.Entry<String, Context> e : c.entrySet()) {
+                    members++;
+                    names.add(e.getKey());
+                    bytes += TREE_MAP_NODE + stringSize(e.getKey());
+                    pending.push(e.getValue());
+                    depths.push(depth + 1);
+                }
+            } else if (c.isArray()) {
+                List<Context> entries = c.asArray();
+                arrays++;
+                arrayEntries += entries.size();
+                maxArraySize = Math.max(maxArraySize, entries.size());
+                bytes += JSON_WRAPPER + ARRAY_LIST + align(ARRAY_HEADER + (long) REFERENCE * entries.size());
+                for (Context e : entries) {
+                    pending.push(e);
+                    depths.push(depth + 1);
+                }
+            } else if (c.isPrimitive()) {
+                primitives++;
+                bytes += JSON_WRAPPER + stringSize(c.stringRepresentation());
+            } else {
+                /*
+                 * JSON null, a single instance shared by all documents, it only takes the reference to it
+                 */
+                primitives++;
+            }
+        }
+        return new ContextStats(nodes, complexes, arrays, primitives, maxDepth, arrayEntries, maxArraySize, members,
+                names.size(), bytes);
+    }
+
+
+    private static long stringSize(String pStr) {
+        return STRING + align(ARRAY_HEADER + (long) pStr.length());
+    }
+
+
+    private static long align(long pBytes) {
+        return (pBytes + 7) & ~7L;
+    }
+
+
+    /**
+     * @return - Number of nodes: complex objects, arrays and primitives, the {@link Context} itself included
+     */
+    public long getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * @return - Number of complex objects, see {@link Context#isRecursible()}
+     */
+    public long getComplexCount() {
+        return complexCount;
+    }
+
+    public long getArrayCount() {
+        return arrayCount;
+    }
+
+    /**
+     * @return - Number of primitives, JSON nulls included
+     */
+    public long getPrimitiveCount() {
+        return primitiveCount;
+    }
+
+    /**
+     * @return - How deeply nested the {@link Context} is, 1 for a lone primitive
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @return - Number of entries of all the arrays added up
+     */
+    public long getTotalArrayEntries() {
+        return totalArrayEntries;
+    }
+
+    /**
+     * @return - Number of entries of the biggest array, 0 if there are no arrays
+     */
+    public int getMaxArraySize() {
+        return maxArraySize;
+    }
+
+    /**
+     * @return - Number of members of all the complex objects added up
+     */
+    public long getMemberCount() {
+        return memberCount;
+    }
+
+    /**
+     * @return - Number of distinct member names, across all the complex objects
+     */
+    public int getDistinctMemberNames() {
+        return distinctMemberNames;
+    }
+
+    /**
+     * @return - Estimate of the heap, in bytes, that the {@link Context} keeps from being garbage collected: per complex
+     *   object a Gson {@code JsonObject} and its map, plus a map node and a {@link String} per member, per array a
+     *   {@code JsonArray} and its list, and per primitive a {@code JsonPrimitive} and its value as a {@link String}
+     */
+    public long getEstimatedRetainedBytes() {
+        return estimatedRetainedBytes;
+    }
+
+
+    @Override
+    public String toString() {
+        return "nodes=" + nodeCount + ", complexes=" + complexCount + ", arrays=" + arrayCount + ", primitives="
+                + primitiveCount + ", maxDepth=" + maxDepth + ", arrayEntries=" + totalArrayEntries + ", maxArraySize="
+                + maxArraySize + ", members=" + memberCount + ", distinctMemberNames=" + distinctMemberNames
+                + ", estimatedRetainedBytes=" + estimatedRetainedBytes;
+    }
+}
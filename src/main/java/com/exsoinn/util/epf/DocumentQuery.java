@@ -0,0 +1,79 @@
+package com.exsoinn.util.epf;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses one document and runs a fixed list of {@link SelectionCriteria} against it, the unit of work shared by the
+ * components that query a series of documents in one go.
+ */
+final class DocumentQuery {
+    private DocumentQuery() {
+    }
+
+
+    /**
+     * Never throws, the document failing for whatever reason is reported in the returned {@link DocumentResult}.
+     *
+     * @param pSequence - Position of the document among the documents being processed
+     * @param pDocument - A {@link Context}, or anything {@link ContextFactory#obtainContext(Object)} accepts, or the
+     *                  bytes of a JSON or XML document encoded in UTF-8
+     * @param pCriteria - What to search for
+     * @param pOptions - Options of every search
+     * @param pGuard - Checked while parsing and searching, can be <code>null</code>
+     */
+    static DocumentResult run(long pSequence,
+                              Object pDocument,
+                              List<SelectionCriteria> pCriteria,
+                              SearchOptions pOptions,
+                              SearchGuard pGuard) {
+        Context context;
+        try {
+            context = toContext(pDocument, pGuard);
+        } catch (RuntimeException e) {
+            return DocumentResult.failure(pSequence, e);
+        }
+        return search(pSequence, context, pCriteria, pOptions, pGuard);
+    }
+
+
+    /**
+     * The second half of {@link DocumentQuery#run}, for components that parse and search in separate steps. Never
+     * throws either.
+     *
+     * @param pContext - The parsed document, see {@link DocumentQuery#toContext(Object, SearchGuard)}
+     */
+    static DocumentResult search(long pSequence,
+                                 Context pContext,
+                                 List<SelectionCriteria> pCriteria,
+                                 SearchOptions pOptions,
+                                 SearchGuard pGuard) {
+        try {
+            List<SearchResult> results = new ArrayList<>(pCriteria.size());
+            for (SelectionCriteria sc : pCriteria) {
+                results.add(null != pGuard && pContext instanceof AbstractContext
+                        ? ((AbstractContext) pContext).findElementWithOptions(sc, pOptions, pGuard)
+                        : pContext.findElementWithOptions(sc, pOptions));
+            }
+            return DocumentResult.success(pSequence, results);
+        } catch (RuntimeException e) {
+            return DocumentResult.failure(pSequence, e);
+        }
+    }
+
+
+    /**
+     * The first half of {@link DocumentQuery#run}, for components that parse and search in separate steps.
+     *
+     * @throws IllegalArgumentException - If the document is not in a supported format
+     */
+    static Context toContext(Object pDocument, SearchGuard pGuard) throws IllegalArgumentException {
+        if (pDocument instanceof Context) {
+            return (Context) pDocument;
+        } else if (pDocument instanceof byte[]) {
+            return ContextFactory.obtainContext(new String((byte[]) pDocument, StandardCharsets.UTF_8), pGuard);
+        }
+        return ContextFactory.obtainContext(pDocument, pGuard);
+    }
+}
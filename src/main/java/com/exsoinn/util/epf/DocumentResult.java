@@ -0,0 +1,77 @@
+package com.exsoinn.util.epf;
+
+import net.jcip.annotations.Immutable;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of running a fixed list of {@link SelectionCriteria} against one document, as produced by the components
+ * that query a series of documents in one go. Either all the criteria ran, in which case
+ * {@link DocumentResult#getResults()} has one {@link SearchResult} per criteria, in the same order as the criteria
+ * were given, or the document failed, be it because it could not be parsed or because one of the searches threw, in
+ * which case {@link DocumentResult#getError()} tells why. A failed document does not affect the rest of the documents.
+ */
+@Immutable
+public final class DocumentResult {
+    private final long sequence;
+    private final List<SearchResult> results;
+    private final RuntimeException error;
+
+
+    private DocumentResult(long pSequence, List<SearchResult> pResults, RuntimeException pError) {
+        sequence = pSequence;
+        results = pResults;
+        error = pError;
+    }
+
+
+    static DocumentResult success(long pSequence, List<SearchResult> pResults) {
+        return new DocumentResult(pSequence, Collections.unmodifiableList(pResults), null);
+    }
+
+
+    static DocumentResult failure(long pSequence, RuntimeException pError) {
+        return new DocumentResult(pSequence, Collections.emptyList(), pError);
+    }
+
+
+    /**
+     * @return - Position of the document among the documents given, starting at 0
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+
+    /**
+     * @return - <code>true</code> if all the criteria ran against the document
+     */
+    public boolean isSuccess() {
+        return null == error;
+    }
+
+
+    /**
+     * @return - One {@link SearchResult} per {@link SelectionCriteria}, in the order the criteria were given. Empty
+     *   if the document failed.
+     */
+    public List<SearchResult> getResults() {
+        return results;
+    }
+
+
+    /**
+     * @return - Why the document failed, <code>null</code> if it did not
+     */
+    public RuntimeException getError() {
+        return error;
+    }
+
+
+    @Override
+    public String toString() {
+        return "DocumentResult{sequence=" + sequence + (isSuccess() ? ", results=" + results : ", error=" + error)
+                + "}";
+    }
+}
@@ -49,7 +49,7 @@ public final class Filter implements Map<String, String> {
         }
 
         StringBuilder sb = new StringBuilder();
-        sb.append(pFilterMap.entrySet().parallelStream().map(Map.Entry::toString)
+        sb.append(pFilterMap.entrySet().stream().map(Map.Entry::toString)
                 .collect(Collectors.joining(";", "", "")));
 
         return Filter.valueOf(sb.toString());
@@ -115,6 +115,20 @@ public final class Filter implements Map<String, String> {
         return new HashSet<>(m.entrySet());
     }
 
+    /**
+     * Per the {@link Map} contract, equal to any {@link Map} with the same entries, regardless of the order in which
+     * they appeared in the filter string
+     */
+    @Override
+    public boolean equals(Object o) {
+        return this == o || m.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        return m.hashCode();
+    }
+
     @Override
     public String toString() {
         return m.entrySet().stream().map(Map.Entry::toString).collect(Collectors.joining(";"));
@@ -5,23 +5,63 @@ package com.exsoinn.util.epf;
  * if a node in the {@link SearchPath} is not found in the area of the {@link Context} object currently being search, then this
  * {@code Exception} is used to describe that scenario.
  *
+ * The message includes the string representation of the {@link Context} region that was being searched, which can be
+ * large. For this reason the message is not built until {@link IncompatibleSearchPathException#getMessage()} gets
+ * invoked for the first time. Callers that do not need the stack trace (for example the search engine itself, which
+ * always wraps this exception) can skip it via
+ * {@link IncompatibleSearchPathException#IncompatibleSearchPathException(SearchPath, String, Context, Throwable, boolean)},
+ * which also takes the cause of the miss, if there is one.
+ *
  * Created by QuijadaJ on 7/29/2017.
  */
 public class IncompatibleSearchPathException extends Exception {
     private final SearchPath searchPath;
     private final String node;
     private final Context context;
+    private volatile String message;
 
+    /**
+     * The cause is left unset, so that it can still be given via {@link Throwable#initCause(Throwable)}
+     */
     public IncompatibleSearchPathException(SearchPath pSearchPath, String pNode, Context pCtx) {
-        super("Did not find expected path node '" + pNode
-                + "' in the current part of the element currently being processed/searched. Check that the "
-                + "search path is correct: " + pSearchPath.toString()
-                + ". Element is " + pCtx.stringRepresentation());
         searchPath = pSearchPath;
         node = pNode;
         context = pCtx;
     }
 
+    public IncompatibleSearchPathException(SearchPath pSearchPath, String pNode, Context pCtx, boolean pWritableStackTrace) {
+        this(pSearchPath, pNode, pCtx, null, pWritableStackTrace);
+    }
+
+    /**
+     * @param pCause - What led to the miss, <code>null</code> if nothing in particular
+     * @param pWritableStackTrace - <code>false</code> to skip filling in the stack trace, which is most of the cost of
+     *   building this exception
+     */
+    public IncompatibleSearchPathException(SearchPath pSearchPath,
+                                           String pNode,
+                                           Context pCtx,
+                                           Throwable pCause,
+                                           boolean pWritableStackTrace) {
+        super(null, pCause, true, pWritableStackTrace);
+        searchPath = pSearchPath;
+        node = pNode;
+        context = pCtx;
+    }
+
+    @Override
+    public String getMessage() {
+        String msg = message;
+        if (null == msg) {
+            msg = "Did not find expected path node '" + node
+                    + "' in the current part of the element currently being processed/searched. Check that the "
+                    + "search path is correct: " + searchPath.toString()
+                    + ". Element is " + context.stringRepresentation();
+            message = msg;
+        }
+        return msg;
+    }
+
     /*
      * Getters
      */
@@ -143,6 +143,15 @@ class JsonContext extends AbstractContext {
     }
 
 
+    @Override
+    int arraySize() throws IllegalStateException {
+        if (!je.isJsonArray()) {
+            throw new IllegalStateException("Object is not a JSON array, therefore arraySize() call is invalid: " + je);
+        }
+        return je.getAsJsonArray().size();
+    }
+
+
     /**
      *
      * @param pElemName - pElemName
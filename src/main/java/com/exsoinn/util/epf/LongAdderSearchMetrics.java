@@ -0,0 +1,281 @@
+package com.exsoinn.util.epf;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link SearchMetrics} which counts the events in {@link LongAdder}'s. A {@link LongAdder} spreads the updates of
+ * concurrent threads over several cells, instead of having them all compete for the same memory location, hence the
+ * counting itself does not become a point of contention when many threads search at once. The flip side is that
+ * reading a count is comparatively slow, and not an atomic snapshot of all the counts, which is fine for a monitoring
+ * system that polls every so often.
+ *
+ * Besides the totals, search latency is also kept per selection criteria, for up to
+ * {@link LongAdderSearchMetrics#MAX_TRACKED_CRITERIA} distinct criteria, after which the searches of any new criteria
+ * get accounted under {@link LongAdderSearchMetrics#OTHER_CRITERIA}.
+ */
+public class LongAdderSearchMetrics implements SearchMetrics {
+    public static final int MAX_TRACKED_CRITERIA = 1024;
+    public static final String OTHER_CRITERIA = "(other)";
+
+    private final LongAdder contextsParsed = new LongAdder();
+    private final LongAdder parseNanos = new LongAdder();
+    private final LongAdder parsedChars = new LongAdder();
+    private final LongAdder failedParses = new LongAdder();
+    private final LongAdder searches = new LongAdder();
+    private final LongAdder failedSearches = new LongAdder();
+    private final LongAdder searchNanos = new LongAdder();
+    private final LongAdder nodesVisited = new LongAdder();
+    private final LongAdder filterComparisons = new LongAdder();
+    private final LongAdder results = new LongAdder();
+    private final Map<Cache, LongAdder> cacheHits = adders(Cache.class);
+    private final Map<Cache, LongAdder> cacheMisses = adders(Cache.class);
+    private final Map<ExceptionMiss, LongAdder> exceptionMisses = adders(ExceptionMiss.class);
+    private final ConcurrentMap<String, CriteriaStats> criteriaStats = new ConcurrentHashMap<>();
+
+
+    private static <E extends Enum<E>> Map<E, LongAdder> adders(Class<E> pType) {
+        Map<E, LongAdder> m = new EnumMap<>(pType);
+        for (E e : pType.getEnumConstants()) {
+            m.put(e, new LongAdder());
+        }
+        return Collections.unmodifiableMap(m);
+    }
+
+
+    /**
+     * Search latency of one selection criteria
+     */
+    public static final class CriteriaStats {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0L);
+
+        private void record(long pNanos) {
+            count.increment();
+            totalNanos.add(pNanos);
+            maxNanos.accumulate(pNanos);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getTotalNanos() {
+            return totalNanos.sum();
+        }
+
+        public long getMaxNanos() {
+            return maxNanos.get();
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + getCount() + ", totalNanos=" + getTotalNanos() + ", maxNanos=" + getMaxNanos();
+        }
+    }
+
+
+    @Override
+    public void contextParsed(Format pFormat, long pNanos, long pChars) {
+        contextsParsed.increment();
+        parseNanos.add(pNanos);
+        parsedChars.add(pChars);
+    }
+
+
+    @Override
+    public void parseFailed(Format pFormat, long pNanos, RuntimeException pError) {
+        failedParses.increment();
+        parseNanos.add(pNanos);
+    }
+
+
+    @Override
+    public void searchCompleted(Context pContext,
+                                SearchPath pSearchPath,
+                                Filter pFilter,
+                                TargetElements pTargetElements,
+                                long pNanos,
+                                long pNodesVisited,
+                                long pFilterComparisons,
+                                int pResults) {
+        searches.increment();
+        searchNanos.add(pNanos);
+        nodesVisited.add(pNodesVisited);
+        filterComparisons.add(pFilterComparisons);
+        results.add(pResults);
+        statsFor(pSearchPath, pFilter, pTargetElements).record(pNanos);
+    }
+
+
+    @Override
+    public void searchFailed(Context pContext,
+                             SearchPath pSearchPath,
+                             Filter pFilter,
+                             TargetElements pTargetElements,
+                             long pNanos,
+                             RuntimeException pError) {
+        failedSearches.increment();
+        searchNanos.add(pNanos);
+    }
+
+
+    @Override
+    public void cacheHit(Cache pCache) {
+        cacheHits.get(pCache).increment();
+    }
+
+
+    @Override
+    public void cacheMiss(Cache pCache) {
+        cacheMisses.get(pCache).increment();
+    }
+
+
+    @Override
+    public void exceptionMiss(ExceptionMiss pMiss) {
+        exceptionMisses.get(pMiss).increment();
+    }
+
+
+    private CriteriaStats statsFor(SearchPath pSearchPath, Filter pFilter, TargetElements pTargetElements) {
+        String key = SelectionCriteria.fromObjects(pSearchPath, pFilter, pTargetElements).toString();
+        CriteriaStats stats = criteriaStats.get(key);
+        if (null != stats) {
+            return stats;
+        }
+        if (criteriaStats.size() >= MAX_TRACKED_CRITERIA) {
+            key = OTHER_CRITERIA;
+        }
+        return criteriaStats.computeIfAbsent(key, k -> new CriteriaStats());
+    }
+
+
+    /**
+     * @return - Number of {@link Context}'s built, failed parses excluded
+     */
+    public long getContextsParsed() {
+        return contextsParsed.sum();
+    }
+
+    public long getFailedParses() {
+        return failedParses.sum();
+    }
+
+    /**
+     * @return - Time spent parsing, failed parses included
+     */
+    public long getParseNanos() {
+        return parseNanos.sum();
+    }
+
+    public long getParsedChars() {
+        return parsedChars.sum();
+    }
+
+    /**
+     * @return - Number of searches that completed, failed ones excluded
+     */
+    public long getSearches() {
+        return searches.sum();
+    }
+
+    public long getFailedSearches() {
+        return failedSearches.sum();
+    }
+
+    /**
+     * @return - Time spent searching, failed searches included
+     */
+    public long getSearchNanos() {
+        return searchNanos.sum();
+    }
+
+    public long getNodesVisited() {
+        return nodesVisited.sum();
+    }
+
+    public long getFilterComparisons() {
+        return filterComparisons.sum();
+    }
+
+    public long getResults() {
+        return results.sum();
+    }
+
+    public long getCacheHits(Cache pCache) {
+        return cacheHits.get(pCache).sum();
+    }
+
+    public long getCacheMisses(Cache pCache) {
+        return cacheMisses.get(pCache).sum();
+    }
+
+    public long getExceptionMisses(ExceptionMiss pMiss) {
+        return exceptionMisses.get(pMiss).sum();
+    }
+
+
+    /**
+     * @return - Unmodifiable view of the search latency by selection criteria, in the format of
+     *   {@link SelectionCriteria#toString()}
+     */
+    public Map<String, CriteriaStats> getCriteriaStats() {
+        return Collections.unmodifiableMap(criteriaStats);
+    }
+
+
+    /**
+     * Sets all the counts back to 0, and forgets the criteria seen so far
+     */
+    public void reset() {
+        for (LongAdder a : new LongAdder[] {contextsParsed, failedParses, parseNanos, parsedChars, searches, failedSearches,
+                searchNanos, nodesVisited, filterComparisons, results}) {
+            a.reset();
+        }
+        cacheHits.values().forEach(LongAdder::reset);
+        cacheMisses.values().forEach(LongAdder::reset);
+        exceptionMisses.values().forEach(LongAdder::reset);
+        criteriaStats.clear();
+    }
+
+
+    /**
+     * @return - All the totals, keyed by name, for example "searches" or "cacheHits.PATTERN", handy to feed a metrics
+     *   library that deals in names, or to log
+     */
+    public Map<String, Long> toMap() {
+        Map<String, Long> m = new LinkedHashMap<>();
+        m.put("contextsParsed", getContextsParsed());
+        m.put("failedParses", getFailedParses());
+        m.put("parseNanos", getParseNanos());
+        m.put("parsedChars", getParsedChars());
+        m.put("searches", getSearches());
+        m.put("failedSearches", getFailedSearches());
+        m.put("searchNanos", getSearchNanos());
+        m.put("nodesVisited", getNodesVisited());
+        m.put("filterComparisons", getFilterComparisons());
+        m.put("results", getResults());
+        for (Cache c : Cache.values()) {
+            m.put("cacheHits." + c, getCacheHits(c));
+            m.put("cacheMisses." + c, getCacheMisses(c));
+        }
+        for (ExceptionMiss e : ExceptionMiss.values()) {
+            m.put("exceptionMisses." + e, getExceptionMisses(e));
+        }
+        return m;
+    }
+
+
+    @Override
+    public String toString() {
+        return toMap().toString();
+    }
+}
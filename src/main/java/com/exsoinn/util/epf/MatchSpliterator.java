@@ -0,0 +1,268 @@
+package com.exsoinn.util.epf;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * {@link Spliterator} behind {@link Context#findElementStream(SelectionCriteria, SearchOptions)}. Nothing gets searched when
+ * the stream is built, the search path is followed down to its last node only when the first match is requested. From
+ * there, if the found element is an array, each entry is filtered, and has {@link TargetElements} applied to it, only at
+ * the moment the stream asks for the next match. This means at most one match is held at any given time, and a downstream
+ * short-circuiting operation such as {@link java.util.stream.Stream#limit(long)} or
+ * {@link java.util.stream.Stream#findFirst()} leaves the rest of the array untouched.
+ *
+ * When the search path is not exact (see {@link SearchPath#isExact()}), all the elements found at its last node are
+ * located up front, and then the matches get produced one found element after the other, in the same fashion.
+ *
+ * When a single array was found, {@link Spliterator#trySplit()} hands half of the remaining entries to a new
+ * {@code MatchSpliterator}, which makes parallel streams possible. Splitting is not supported when a result limit was
+ * given in the {@link SearchOptions}, since the limit applies to the whole search. The result budget, see
+ * {@link SearchOptions#withResultBudget(int)}, applies to the whole search as well, hence the split off
+ * {@code MatchSpliterator}'s share a single count of the results produced, along with the guard of the search.
+ *
+ * The search begins, and with it the clock of its timeout, see {@link SearchOptions#withTimeout(long,
+ * java.util.concurrent.TimeUnit)}, when the first match or split is requested, not when the stream is built. It is
+ * over for {@link SearchMetrics} once this {@code MatchSpliterator}, and every one split off it, ran out of matches, or
+ * once the stream gets closed, whichever comes first, and it failed as soon as one of them throws. A stream abandoned
+ * by a short-circuiting operation without being closed therefore reports that the search began, and nothing more.
+ *
+ * Instances are not thread safe, as is the norm for {@link Spliterator}'s.
+ */
+final class MatchSpliterator implements Spliterator<Map.Entry<String, Context>> {
+    private static final int CHARACTERISTICS = Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE;
+
+    private final AbstractContext root;
+    private final SelectionCriteria selectionCriteria;
+    private final SearchOptions options;
+    private final AtomicInteger produced;
+    private RunningSearch search;
+    private Report report;
+    private boolean located;
+    private boolean exhausted;
+    private List<Map.Entry<String, Context>> endNodes = Collections.emptyList();
+    private int endNodePos;
+    private String elemName;
+    private Context endNode;
+    private boolean endNodeIsArray;
+    private int nextIdx;
+    private int endIdx;
+
+
+    MatchSpliterator(AbstractContext pRoot, SelectionCriteria pSelectCriteria, SearchOptions pOptions) {
+        root = pRoot;
+        selectionCriteria = pSelectCriteria;
+        options = pOptions;
+        produced = new AtomicInteger();
+    }
+
+
+    private MatchSpliterator(MatchSpliterator pParent, int pFromIdx, int pToIdx) {
+        root = pParent.root;
+        selectionCriteria = pParent.selectionCriteria;
+        options = pParent.options;
+        search = pParent.search;
+        report = pParent.report;
+        if (null != report) {
+            report.split();
+        }
+        produced = pParent.produced;
+        located = true;
+        elemName = pParent.elemName;
+        endNode = pParent.endNode;
+        endNodeIsArray = true;
+        nextIdx = pFromIdx;
+        endIdx = pToIdx;
+    }
+
+
+    /*
+     * Start the search and follow the search path, only once, the first time a match or a split is requested
+     */
+    private void locate() {
+        if (located) {
+            return;
+        }
+        located = true;
+        search = RunningSearch.start(options);
+        if (SearchMetricsRegistry.isEnabled()) {
+            report = new Report(root, selectionCriteria, search, produced);
+        }
+        endNodes = root.locateEndNodes(root, selectionCriteria.getSearchPath(), search);
+        endNodePos = 0;
+        startEndNode();
+    }
+
+
+    /*
+     * Get ready to produce the matches of the end node at endNodePos, if any left
+     */
+    private boolean startEndNode() {
+        if (endNodePos >= endNodes.size()) {
+            return false;
+        }
+        Map.Entry<String, Context> found = endNodes.get(endNodePos++);
+        elemName = found.getKey();
+        endNode = found.getValue();
+        endNodeIsArray = endNode.isArray();
+        nextIdx = 0;
+        endIdx = endNodeIsArray ? AbstractContext.arraySize(endNode) : 1;
+        return true;
+    }
+
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Map.Entry<String, Context>> pAction) {
+        try {
+            if (advance(pAction)) {
+                return true;
+            }
+        } catch (RuntimeException e) {
+            if (null != report) {
+                report.failed(e);
+            }
+            throw e;
+        }
+        if (!exhausted) {
+            exhausted = true;
+            if (null != report) {
+                report.exhausted();
+            }
+        }
+        return false;
+    }
+
+
+    private boolean advance(Consumer<? super Map.Entry<String, Context>> pAction) {
+        locate();
+        while ((nextIdx < endIdx || startEndNode()) && !options.resultLimitReached(produced.get())) {
+            if (nextIdx >= endIdx) {
+                continue;
+            }
+            search.checkpoint();
+            Context candidate = endNodeIsArray ? endNode.entryFromArray(nextIdx) : endNode;
+            nextIdx++;
+            if (root.shouldExcludeFromResults(elemName, candidate, selectionCriteria.getFilter(), search)) {
+                continue;
+            }
+            if (candidate.isRecursible()) {
+                candidate = root.filterUnwantedElements(candidate, selectionCriteria.getTargetElements(), search);
+            }
+            options.checkResultBudget(produced.getAndIncrement());
+            pAction.accept(new AbstractMap.SimpleImmutableEntry<>(elemName, candidate));
+            return true;
+        }
+        return false;
+    }
+
+
+    @Override
+    public Spliterator<Map.Entry<String, Context>> trySplit() {
+        try {
+            locate();
+        } catch (RuntimeException e) {
+            if (null != report) {
+                report.failed(e);
+            }
+            throw e;
+        }
+        int remaining = endIdx - nextIdx;
+        if (!endNodeIsArray || endNodePos < endNodes.size() || remaining < 2 || options.getResultLimit() > 0) {
+            return null;
+        }
+        int mid = nextIdx + remaining / 2;
+        MatchSpliterator prefix = new MatchSpliterator(this, nextIdx, mid);
+        nextIdx = mid;
+        return prefix;
+    }
+
+
+    @Override
+    public long estimateSize() {
+        if (!located) {
+            return Long.MAX_VALUE;
+        }
+        return endNodePos < endNodes.size() ? Long.MAX_VALUE : endIdx - nextIdx;
+    }
+
+
+    @Override
+    public int characteristics() {
+        return CHARACTERISTICS;
+    }
+
+
+    /*
+     * Invoked when the stream gets closed, see Stream#onClose()
+     */
+    void close() {
+        if (null != report) {
+            report.over();
+        }
+    }
+
+
+    /*
+     * Reports the search to SearchMetrics, shared by a MatchSpliterator and those split off it, which may run in
+     * different threads. Only the first of the ways the search can be over gets reported.
+     */
+    private static final class Report {
+        private final SearchMetrics metrics;
+        private final AbstractContext context;
+        private final SelectionCriteria selectionCriteria;
+        private final RunningSearch search;
+        private final AtomicInteger produced;
+        private final long start;
+        private final AtomicInteger notExhausted = new AtomicInteger(1);
+        private final AtomicBoolean over = new AtomicBoolean();
+
+
+        private Report(AbstractContext pContext,
+                       SelectionCriteria pSelectCriteria,
+                       RunningSearch pSearch,
+                       AtomicInteger pProduced) {
+            metrics = SearchMetricsRegistry.get();
+            context = pContext;
+            selectionCriteria = pSelectCriteria;
+            search = pSearch;
+            produced = pProduced;
+            metrics.searchStarted(context, selectionCriteria.getSearchPath(), selectionCriteria.getFilter(),
+                    selectionCriteria.getTargetElements());
+            start = System.nanoTime();
+        }
+
+
+        private void split() {
+            notExhausted.incrementAndGet();
+        }
+
+
+        private void exhausted() {
+            if (notExhausted.decrementAndGet() == 0) {
+                over();
+            }
+        }
+
+
+        private void over() {
+            if (over.compareAndSet(false, true)) {
+                AbstractContext.reportSearch(metrics, context, selectionCriteria.getSearchPath(),
+                        selectionCriteria.getFilter(), selectionCriteria.getTargetElements(), search, start,
+                        produced.get());
+            }
+        }
+
+
+        private void failed(RuntimeException pError) {
+            if (over.compareAndSet(false, true)) {
+                metrics.searchFailed(context, selectionCriteria.getSearchPath(), selectionCriteria.getFilter(),
+                        selectionCriteria.getTargetElements(), System.nanoTime() - start, pError);
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.exsoinn.util.epf;
+
+/**
+ * Callback that receives the matches of a search as the search finds them, see
+ * {@link Context#findElement(SelectionCriteria, SearchOptions, MatchVisitor)}. Meant for code that merely consumes the
+ * matches, for example to write them to some output, and therefore has no use for a {@link SearchResult}. The search
+ * builds no results {@link java.util.Map} of any kind in this case.
+ *
+ * The {@link Context} handed to the visitor is the node as found in the searched {@link Context}, not a copy of it. When
+ * {@link TargetElements} were given, and the matched node is a complex object, the visitor gets called once for each of
+ * the target elements found in the matched node, rather than once with a new complex object made up of just the target
+ * elements.
+ */
+@FunctionalInterface
+public interface MatchVisitor {
+    /**
+     * Value of the position argument of {@link MatchVisitor#visit(String, Context, int, String)} when the element found
+     * at the last node of the search path is not an array.
+     */
+    int NOT_IN_ARRAY = -1;
+
+
+    /**
+     * Invoked once per match, in the order in which the matches are found, which is document order. The target elements
+     * of a match, if any, are visited one after the other, in the order they are listed in the {@link TargetElements}.
+     *
+     * @param pName - The name of the found element or, when {@link TargetElements} were given, of the target element. For
+     *              target elements that are themselves a search path, the name is that search path, as is the case
+     *              with the regular search.
+     * @param pNode - The matched node
+     * @param pPosition - The index of the match within the array found at the last node of the search path, or
+     *                  {@link MatchVisitor#NOT_IN_ARRAY} if the found element is not an array. Target elements of the same
+     *                  array entry share the position of that entry.
+     * @param pPath - Where the match is in the searched {@link Context}: the members followed, separated by dots, and
+     *              the array entries selected, in square brackets, for example <code>a.b[3].c</code>, whatever
+     *              wildcards, index lists, slices or recursive descent the search path had. Tells apart matches found
+     *              at different elements, which can share both name and position. Target elements get the path of
+     *              their match, followed by a dot and their name. <code>null</code> if the {@link Context}
+     *              implementation can't tell, see {@link Context#findElement(SelectionCriteria, SearchOptions,
+     *              MatchVisitor)}.
+     */
+    void visit(String pName, Context pNode, int pPosition, String pPath);
+}
@@ -0,0 +1,189 @@
+package com.exsoinn.util.epf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntPredicate;
+
+/**
+ * Splits the processing of an indexed collection, typically the entries of an array found by the search, in contiguous
+ * chunks that run in the {@link Executor} configured via {@link SearchOptions#withParallelExecution(Executor, int)}.
+ * The chunk results are put back together in index order.
+ *
+ * The calling thread never waits for a chunk that no thread has picked up yet: it processes the last chunk itself, and
+ * then every other chunk that is still queued, hence a search makes progress even when the {@link Executor} is
+ * saturated, bounded, or the very one the search runs on. It only ever waits for chunks already running on some other
+ * thread. Also, chunks never split their own work any further, parallel processing found while inside a chunk, for
+ * example a filter value compared against a large array value found in an entry of a large array, runs sequentially on
+ * the thread of the chunk, so that a chunk never holds up a thread of the {@link Executor} waiting on other tasks.
+ */
+final class ParallelChunks {
+    /*
+     * Set while the current thread processes a chunk
+     */
+    private static final ThreadLocal<Boolean> inChunk = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+
+    private ParallelChunks() {
+    }
+
+
+    /**
+     * Processes the entries from <code>pFrom</code> inclusive to <code>pTo</code> exclusive, giving back the results in
+     * index order.
+     */
+    @FunctionalInterface
+    interface ChunkTask<T> {
+        List<T> process(int pFrom, int pTo);
+    }
+
+
+    /**
+     * A chunk, run by whichever thread claims it first, either one of the {@link Executor} or the calling thread
+     */
+    private static final class Chunk<T> implements Runnable {
+        private final ChunkTask<T> task;
+        private final int from;
+        private final int to;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private final CompletableFuture<List<T>> result = new CompletableFuture<>();
+
+        private Chunk(ChunkTask<T> pTask, int pFrom, int pTo) {
+            task = pTask;
+            from = pFrom;
+            to = pTo;
+        }
+
+        @Override
+        public void run() {
+            if (!claimed.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                result.complete(processChunk(task, from, to));
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        }
+
+        /**
+         * Keeps the chunk from running, if no thread claimed it yet
+         */
+        private void cancel() {
+            claimed.set(true);
+        }
+    }
+
+
+    /**
+     * @param pSize - Number of entries to process
+     * @param pExecutor - Where to run all chunks but the last, unless the calling thread gets to them first
+     * @param pTask - The processing of a chunk
+     * @return - The results of all chunks, in index order
+     */
+    static <T> List<T> process(int pSize, Executor pExecutor, ChunkTask<T> pTask) {
+        if (inChunk.get()) {
+            return pTask.process(0, pSize);
+        }
+
+        int chunkCnt = chunkCount(pExecutor, pSize);
+        List<Chunk<T>> chunks = new ArrayList<>(chunkCnt - 1);
+        int from = 0;
+        for (int c = 0; c < chunkCnt - 1; c++) {
+            int chunkTo = from + (pSize - from) / (chunkCnt - c);
+            Chunk<T> chunk = new Chunk<>(pTask, from, chunkTo);
+            chunks.add(chunk);
+            try {
+                pExecutor.execute(chunk);
+            } catch (RejectedExecutionException ignore) {
+                // The calling thread will process it
+            }
+            from = chunkTo;
+        }
+
+        List<T> lastChunk;
+        try {
+            lastChunk = processChunk(pTask, from, pSize);
+            for (Chunk<T> chunk : chunks) {
+                chunk.run();
+            }
+        } catch (RuntimeException | Error e) {
+            chunks.forEach(Chunk::cancel);
+            throw e;
+        }
+
+        List<T> all = new ArrayList<>(pSize);
+        for (Chunk<T> chunk : chunks) {
+            all.addAll(join(chunk.result));
+        }
+        all.addAll(lastChunk);
+        return all;
+    }
+
+
+    private static <T> List<T> processChunk(ChunkTask<T> pTask, int pFrom, int pTo) {
+        boolean nested = inChunk.get();
+        inChunk.set(Boolean.TRUE);
+        try {
+            return pTask.process(pFrom, pTo);
+        } finally {
+            inChunk.set(nested);
+        }
+    }
+
+
+    /**
+     * Parallel counterpart of {@link java.util.stream.IntStream#anyMatch(IntPredicate)} over indexes 0 to
+     * <code>pSize</code> exclusive. Once a chunk finds a match, the chunks still running stop testing.
+     */
+    static boolean anyMatch(int pSize, Executor pExecutor, IntPredicate pPredicate) {
+        AtomicBoolean found = new AtomicBoolean();
+        process(pSize, pExecutor, (from, to) -> {
+            for (int i = from; i < to && !found.get(); i++) {
+                if (pPredicate.test(i)) {
+                    found.set(true);
+                }
+            }
+            return Collections.emptyList();
+        });
+        return found.get();
+    }
+
+
+    private static int chunkCount(Executor pExecutor, int pSize) {
+        int parallelism;
+        if (pExecutor instanceof ForkJoinPool) {
+            parallelism = ((ForkJoinPool) pExecutor).getParallelism();
+        } else if (pExecutor instanceof ThreadPoolExecutor && ((ThreadPoolExecutor) pExecutor).getCorePoolSize() > 0) {
+            parallelism = ((ThreadPoolExecutor) pExecutor).getCorePoolSize();
+        } else {
+            parallelism = Runtime.getRuntime().availableProcessors();
+        }
+        return Math.max(1, Math.min(parallelism, pSize));
+    }
+
+
+    /*
+     * Re-throws whatever a chunk threw as is, rather than wrapped in a CompletionException, so that callers see the
+     * same exceptions they would see with sequential processing
+     */
+    static <T> T join(CompletableFuture<T> pFuture) {
+        try {
+            return pFuture.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
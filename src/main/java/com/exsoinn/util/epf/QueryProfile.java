@@ -0,0 +1,217 @@
+package com.exsoinn.util.epf;
+
+import net.jcip.annotations.Immutable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Profile of a search, as produced by {@link Context#explain(SelectionCriteria, SearchOptions)}, which tells where the
+ * search spent its time and effort. The profile is a tree: the root stands for the whole search, and its children for
+ * the phases of the search, in the order they first ran:
+ * <ul>
+ *     <li>one node per search path step, for following the search path down to the elements it selects</li>
+ *     <li>"results", for going over the elements found, array entries included, and gathering those that pass into
+ *     the {@link SearchResult}</li>
+ *     <li>"filter", for applying the {@link Filter} to the elements found, nested filter keys included</li>
+ *     <li>"target elements", for applying the {@link TargetElements} to the elements that passed the filter</li>
+ * </ul>
+ *
+ * Each node has the time spent in it, and counts of the work done there, see {@link Counter}. Phases interleave, for
+ * example each array entry is filtered, and then has its target elements applied, before the next entry is looked at,
+ * but each nanosecond of the search is accounted to exactly one node, hence the time of the root equals the time of
+ * the whole search. The bookkeeping itself slows the search down somewhat, so the times are best compared to one
+ * another, rather than to those of a regular search.
+ */
+@Immutable
+public final class QueryProfile {
+    /**
+     * What gets counted for each node of the profile
+     */
+    public enum Counter {
+        /**
+         * Points where the search checks if it should stop, see {@link SearchOptions#withNodeVisitBudget(long)}: each
+         * search path step, array entry and descendant looked at, and each target element applied
+         */
+        NODES_VISITED,
+        /**
+         * Members of complex objects looked at while following the search path, including those looked at by wild
+         * cards and recursive descent
+         */
+        MEMBERS_SCANNED,
+        /**
+         * Elements, array entries included, that the filter got applied to
+         */
+        ELEMENTS_FILTERED,
+        /**
+         * Elements that the filter kept out of the results
+         */
+        ELEMENTS_EXCLUDED,
+        /**
+         * Found values compared against a filter value
+         */
+        FILTER_COMPARISONS,
+        /**
+         * Lookups of filter keys which are search paths, that is, of values nested below the element being filtered
+         */
+        NESTED_FILTER_LOOKUPS,
+        /**
+         * Lookups of target elements which are search paths, that is, of values nested below the element that passed the
+         * filter
+         */
+        TARGET_ELEMENT_SUBSEARCHES,
+        /**
+         * Times that a {@link Context} got serialized to text and parsed back into a new one, which the search does to
+         * build found arrays, and complex objects with only the target elements, out of what it found
+         */
+        REPARSES
+    }
+
+
+    private final String name;
+    private final long selfNanos;
+    private final long nanos;
+    private final Map<Counter, Long> counts;
+    private final List<QueryProfile> children;
+    private final SearchResult result;
+
+
+    private QueryProfile(String pName,
+                         long pSelfNanos,
+                         Map<Counter, Long> pCounts,
+                         List<QueryProfile> pChildren,
+                         SearchResult pResult) {
+        name = pName;
+        selfNanos = pSelfNanos;
+        Map<Counter, Long> m = new EnumMap<>(Counter.class);
+        m.putAll(pCounts);
+        counts = Collections.unmodifiableMap(m);
+        children = Collections.unmodifiableList(new ArrayList<>(pChildren));
+        result = pResult;
+        long total = pSelfNanos;
+        for (QueryProfile c : children) {
+            total += c.nanos;
+        }
+        nanos = total;
+    }
+
+
+    static QueryProfile of(String pName,
+                           long pSelfNanos,
+                           Map<Counter, Long> pCounts,
+                           List<QueryProfile> pChildren,
+                           SearchResult pResult) {
+        return new QueryProfile(pName, pSelfNanos, pCounts, pChildren, pResult);
+    }
+
+
+    /**
+     * @return - The selection criteria for the root, see {@link SelectionCriteria#toString()}, else the name of the
+     *   phase, for example "step 1: node2[0]" or "filter"
+     */
+    public String getName() {
+        return name;
+    }
+
+
+    /**
+     * @return - Time spent in this node, and in all the nodes below it, in nanoseconds
+     */
+    public long getNanos() {
+        return nanos;
+    }
+
+
+    /**
+     * @return - Time spent in this node, not counting the nodes below it, in nanoseconds
+     */
+    public long getSelfNanos() {
+        return selfNanos;
+    }
+
+
+    /**
+     * @return - How many times <code>pCounter</code> was counted in this node, not counting the nodes below it
+     */
+    public long getCount(Counter pCounter) {
+        return counts.getOrDefault(pCounter, 0L);
+    }
+
+
+    /**
+     * @return - How many times <code>pCounter</code> was counted in this node, and in all the nodes below it
+     */
+    public long getTotalCount(Counter pCounter) {
+        long total = getCount(pCounter);
+        for (QueryProfile c : children) {
+            total += c.getTotalCount(pCounter);
+        }
+        return total;
+    }
+
+
+    public List<QueryProfile> getChildren() {
+        return children;
+    }
+
+
+    /**
+     * @return - The first child named <code>pName</code>, <code>null</code> if none
+     */
+    public QueryProfile getChild(String pName) {
+        for (QueryProfile c : children) {
+            if (c.name.equals(pName)) {
+                return c;
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * @return - What the search found, for the root, <code>null</code> for the other nodes
+     */
+    public SearchResult getResult() {
+        return result;
+    }
+
+
+    /**
+     * @return - The tree, one node per line, indented by depth, with the time and the counts of each node, for example
+     *   to log
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        append(sb, 0);
+        return sb.toString();
+    }
+
+
+    private void append(StringBuilder pSb, int pDepth) {
+        for (int i = 0; i < pDepth; i++) {
+            pSb.append("  ");
+        }
+        pSb.append(name).append(String.format(Locale.ROOT, "  %.3f ms", nanos / 1e6));
+        if (!children.isEmpty()) {
+            pSb.append(String.format(Locale.ROOT, " (self %.3f ms)", selfNanos / 1e6));
+        }
+        boolean first = true;
+        for (Map.Entry<Counter, Long> e : counts.entrySet()) {
+            if (e.getValue() == 0L) {
+                continue;
+            }
+            pSb.append(first ? "  " : ", ").append(e.getKey().name().toLowerCase(Locale.ROOT)).append('=')
+                    .append(e.getValue());
+            first = false;
+        }
+        pSb.append('\n');
+        for (QueryProfile c : children) {
+            c.append(pSb, pDepth + 1);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.exsoinn.util.epf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records the {@link QueryProfile} of a single search, see {@link Context#explain(SelectionCriteria, SearchOptions)}.
+ * The search engine tells it when the search moves on to another phase, and what it does there, via the
+ * {@link SearchGuard} attached to the search. Not thread safe, searches being explained are run sequentially.
+ *
+ * Time is accounted by phase switch: whenever the search switches to a phase, the time elapsed since the previous
+ * switch gets added to the phase being switched away from.
+ *
+ * Lookups of nested values, done for filter keys and target elements which are search paths, walk search paths of
+ * their own, and may even filter and gather results of their own. While one is underway, see
+ * {@link QueryProfiler#beginNested()}, phase switches are ignored, so that all its work gets accounted to the phase
+ * that triggered it.
+ */
+final class QueryProfiler {
+    static final String FILTER = "filter";
+    static final String TARGET_ELEMENTS = "target elements";
+    static final String RESULTS = "results";
+
+    private final Phase root;
+    private final Map<String, Phase> phases = new LinkedHashMap<>();
+    private Phase current;
+    private long lastSwitchNanos;
+    private int nestedDepth;
+    private boolean locating = true;
+
+
+    QueryProfiler(String pName) {
+        root = new Phase(pName);
+        current = root;
+        lastSwitchNanos = System.nanoTime();
+    }
+
+
+    /*
+     * Mutable counterpart of QueryProfile
+     */
+    static final class Phase {
+        private final String name;
+        private final Map<QueryProfile.Counter, Long> counts = new EnumMap<>(QueryProfile.Counter.class);
+        private long selfNanos;
+
+        private Phase(String pName) {
+            name = pName;
+        }
+    }
+
+
+    /**
+     * The search is about to apply step <code>pNodeIdx</code> of its search path
+     */
+    void step(int pNodeIdx, String pToken) {
+        if (nestedDepth > 0 || !locating) {
+            return;
+        }
+        Phase p = phases.get(stepKey(pNodeIdx));
+        switchTo(null == p ? phase("step " + pNodeIdx + ": " + pToken, stepKey(pNodeIdx)) : p);
+    }
+
+
+    private static String stepKey(int pNodeIdx) {
+        return "\0" + pNodeIdx;
+    }
+
+
+    /**
+     * The search is done following its search path, and moves on to process what it found
+     */
+    void beginResults() {
+        if (nestedDepth > 0) {
+            return;
+        }
+        locating = false;
+        enter(RESULTS);
+    }
+
+
+    /**
+     * Switches to the phase named <code>pName</code>, {@link QueryProfiler#FILTER} for example.
+     *
+     * @return - The phase switched away from, to give to {@link QueryProfiler#exit(Phase)} once done
+     */
+    Phase enter(String pName) {
+        Phase prev = current;
+        if (nestedDepth == 0) {
+            Phase p = phases.get(pName);
+            switchTo(null == p ? phase(pName, pName) : p);
+        }
+        return prev;
+    }
+
+
+    void exit(Phase pPrevious) {
+        switchTo(pPrevious);
+    }
+
+
+    void beginNested() {
+        nestedDepth++;
+    }
+
+
+    void endNested() {
+        nestedDepth--;
+    }
+
+
+    void count(QueryProfile.Counter pCounter) {
+        count(pCounter, 1L);
+    }
+
+
+    void count(QueryProfile.Counter pCounter, long pCount) {
+        current.counts.merge(pCounter, pCount, Long::sum);
+    }
+
+
+    /**
+     * @return - The profile of the search, which is over
+     */
+    QueryProfile finish(SearchResult pResult) {
+        switchTo(root);
+        List<QueryProfile> children = new ArrayList<>(phases.size());
+        for (Phase p : phases.values()) {
+            children.add(QueryProfile.of(p.name, p.selfNanos, p.counts, Collections.emptyList(), null));
+        }
+        return QueryProfile.of(root.name, root.selfNanos, root.counts, children, pResult);
+    }
+
+
+    private Phase phase(String pName, String pKey) {
+        Phase p = new Phase(pName);
+        phases.put(pKey, p);
+        return p;
+    }
+
+
+    private void switchTo(Phase pPhase) {
+        long now = System.nanoTime();
+        current.selfNanos += now - lastSwitchNanos;
+        lastSwitchNanos = now;
+        current = pPhase;
+    }
+}
@@ -0,0 +1,99 @@
+package com.exsoinn.util.epf;
+
+import java.lang.ref.SoftReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Results of the searches of one immutable {@link Context}, see {@link Context#USE_RESULT_CACHE}. Searches are told
+ * apart by their {@link SelectionCriteria} and their {@link SearchOptions}. {@link SearchResult}'s are unmodifiable,
+ * hence the same one can be handed out to any number of callers.
+ *
+ * Memory use is bounded twice over: only the {@link ResultCache#CAPACITY} most recently used searches are kept, and
+ * their results are softly referenced, so that the garbage collector reclaims them before running out of memory. The
+ * cache lives as long as the {@link Context} it belongs to, and is created on its first use, hence contexts that never
+ * ask for it pay nothing.
+ *
+ * Lookups and additions lock the cache, which is held only long enough to look up or add one entry of a small map.
+ */
+final class ResultCache {
+    static final int CAPACITY = 64;
+
+    private final Map<Key, SoftReference<SearchResult>> results =
+            new LinkedHashMap<Key, SoftReference<SearchResult>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, SoftReference<SearchResult>> pEldest) {
+                    return size() > CAPACITY;
+                }
+            };
+
+
+    /**
+     * @return - The results of an earlier search equal to this one, <code>null</code> if there was none, or its
+     *   results were reclaimed by the garbage collector
+     */
+    SearchResult get(SearchPath pSearchPath, Filter pFilter, TargetElements pTargetElements, SearchOptions pOptions) {
+        Key k = new Key(pSearchPath, pFilter, pTargetElements, pOptions);
+        synchronized (results) {
+            SoftReference<SearchResult> ref = results.get(k);
+            if (null == ref) {
+                return null;
+            }
+            SearchResult res = ref.get();
+            if (null == res) {
+                results.remove(k);
+            }
+            return res;
+        }
+    }
+
+
+    void put(SearchPath pSearchPath,
+             Filter pFilter,
+             TargetElements pTargetElements,
+             SearchOptions pOptions,
+             SearchResult pResult) {
+        Key k = new Key(pSearchPath, pFilter, pTargetElements, pOptions);
+        synchronized (results) {
+            results.put(k, new SoftReference<>(pResult));
+        }
+    }
+
+
+    int size() {
+        synchronized (results) {
+            return results.size();
+        }
+    }
+
+
+    private static final class Key {
+        private final SelectionCriteria criteria;
+        private final SearchOptions options;
+        private final int hash;
+
+        private Key(SearchPath pSearchPath, Filter pFilter, TargetElements pTargetElements, SearchOptions pOptions) {
+            criteria = SelectionCriteria.fromObjects(pSearchPath, pFilter, pTargetElements);
+            options = pOptions;
+            hash = Objects.hash(criteria, options);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key that = (Key) o;
+            return hash == that.hash && criteria.equals(that.criteria) && options.equals(that.options);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
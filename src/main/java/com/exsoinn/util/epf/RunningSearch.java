@@ -0,0 +1,115 @@
+package com.exsoinn.util.epf;
+
+/**
+ * A search underway: the {@link SearchOptions} it was given, which are plain values and can be shared by any number of
+ * searches, along with the {@link SearchGuard} of this search alone, if it needs one. The search engine hands it down
+ * to every step of the search, and consults it at regular points via {@link RunningSearch#checkpoint()}.
+ *
+ * Keeping the guard here rather than in the {@link SearchOptions} leaves those free of per search state, hence two
+ * searches given equal options can be told to be alike, for example by {@link ResultCache}.
+ */
+final class RunningSearch {
+    /**
+     * For walks of a {@link Context} done on behalf of the engine itself rather than of a search, such as building an
+     * index, which are neither guarded nor counted
+     */
+    static final RunningSearch UNGUARDED = new RunningSearch(SearchOptions.defaultOptions(), null);
+
+    private final SearchOptions options;
+    private final SearchGuard guard;
+
+
+    private RunningSearch(SearchOptions pOptions, SearchGuard pGuard) {
+        options = pOptions;
+        guard = pGuard;
+    }
+
+
+    /**
+     * Invoked at the beginning of a search, attaches the guard that enforces the timeout and node visit budget, if any
+     * were configured, and that counts node visits and filter comparisons, if a {@link SearchMetrics} is installed.
+     * The clock of the timeout starts ticking here.
+     *
+     * @param pOptions - The options of the search
+     * @param pCancellation - Tells whether the search was cancelled, <code>null</code> if it can't be, see
+     *   {@link SearchGuard#supplyAsync}
+     * @param pProfiler - Where to record the profile of the search, <code>null</code> if it is not being profiled, see
+     *   {@link Context#explain(SelectionCriteria, SearchOptions)}
+     * @return - The search about to begin
+     */
+    static RunningSearch start(SearchOptions pOptions, SearchGuard pCancellation, QueryProfiler pProfiler) {
+        return new RunningSearch(pOptions,
+                SearchGuard.forSearch(pOptions, pCancellation, SearchMetricsRegistry.isEnabled(), pProfiler));
+    }
+
+
+    static RunningSearch start(SearchOptions pOptions) {
+        return start(pOptions, null, null);
+    }
+
+
+    SearchOptions getOptions() {
+        return options;
+    }
+
+
+    /**
+     * Called by the search engine at regular points of the traversal, for example for every search path node and every
+     * array entry processed, so that a search that should not go on, because it was cancelled for instance, stops
+     * promptly. Costs nothing more than a <code>null</code> check for regular searches.
+     *
+     * @throws java.util.concurrent.CancellationException - If the search was cancelled
+     * @throws SearchBudgetExceededException - If the search ran past its deadline, or its node visit budget
+     */
+    void checkpoint() {
+        if (null != guard) {
+            guard.checkpoint();
+        }
+    }
+
+
+    /**
+     * @return - The text to evaluate a regular expression against, which checks the timeout while it is being read
+     */
+    CharSequence guardText(CharSequence pText) {
+        return null == guard ? pText : guard.guardText(pText);
+    }
+
+
+    /**
+     * Invoked every time the search compares a found value to a filter value, counted for {@link SearchMetrics}
+     */
+    void countFilterComparison() {
+        if (null != guard) {
+            guard.countFilterComparison();
+        }
+    }
+
+
+    /**
+     * @return - Where to record the profile of the search, <code>null</code> if it is not being profiled, which is
+     *   the case unless the search runs on behalf of {@link Context#explain(SelectionCriteria, SearchOptions)}
+     */
+    QueryProfiler getProfiler() {
+        return null == guard ? null : guard.profiler();
+    }
+
+
+    /**
+     * Counts <code>pCounter</code> in the profile of the search, if it is being profiled
+     */
+    void profile(QueryProfile.Counter pCounter) {
+        QueryProfiler profiler = getProfiler();
+        if (null != profiler) {
+            profiler.count(pCounter);
+        }
+    }
+
+
+    /**
+     * @return - The guard of the search, <code>null</code> if it needs none
+     */
+    SearchGuard getGuard() {
+        return guard;
+    }
+}
@@ -0,0 +1,62 @@
+package com.exsoinn.util.epf;
+
+import java.util.Map;
+
+/**
+ * Thrown when a search runs past one of the limits configured in its {@link SearchOptions}, see
+ * {@link SearchOptions#withTimeout(long, java.util.concurrent.TimeUnit)},
+ * {@link SearchOptions#withNodeVisitBudget(long)} and {@link SearchOptions#withResultBudget(int)}. The search stops
+ * right away, and whatever results it had already gathered at that point are available via
+ * {@link SearchBudgetExceededException#getPartialResult()}, which allows the caller to decide between failing the
+ * request, or going ahead with incomplete data.
+ */
+public final class SearchBudgetExceededException extends RuntimeException {
+    /**
+     * Which of the limits was hit
+     */
+    public enum Reason {
+        /**
+         * The search took longer than the configured timeout
+         */
+        TIMEOUT,
+        /**
+         * The search processed more nodes, array entries and target elements than the configured budget
+         */
+        NODE_VISIT_BUDGET,
+        /**
+         * The search found more results than the configured budget
+         */
+        RESULT_BUDGET
+    }
+
+    private final Reason reason;
+    private volatile SearchResult partialResult = SearchResult.emptySearchResult();
+
+
+    SearchBudgetExceededException(Reason pReason, String pMessage) {
+        super(pMessage);
+        reason = pReason;
+    }
+
+
+    public Reason getReason() {
+        return reason;
+    }
+
+
+    /**
+     * @return - The results the search had gathered before it was stopped, possibly empty, never <code>null</code>
+     */
+    public SearchResult getPartialResult() {
+        return partialResult;
+    }
+
+
+    /*
+     * Called by the search engine as the exception travels up, each caller replacing what inner callers attached,
+     * hence the outermost search has the final say
+     */
+    void attachPartialResult(Map<String, Context> pResult) {
+        partialResult = SearchResult.fromOwnedMap(pResult);
+    }
+}
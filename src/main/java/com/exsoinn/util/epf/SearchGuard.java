@@ -0,0 +1,242 @@
+package com.exsoinn.util.epf;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+/**
+ * State of a single search that the search engine consults as the search progresses, via
+ * {@link RunningSearch#checkpoint()}, to find out if it should stop: because it was cancelled, because it ran past its
+ * deadline, or because it visited more nodes than its budget allows. A new instance gets attached to each search that
+ * needs one, see {@link RunningSearch#start(SearchOptions, SearchGuard, QueryProfiler)}, and it is never shared between
+ * searches. It can however be used by several threads at once, when the search processes an array in
+ * parallel.
+ *
+ * While a {@link SearchMetrics} is installed, the guard also counts the nodes visited and the filter comparisons made,
+ * for {@link SearchMetrics#searchCompleted}.
+ */
+final class SearchGuard {
+    private static final long NONE = 0L;
+    /*
+     * Reading the clock on every checkpoint would cost more than the checkpoint itself
+     */
+    private static final int DEADLINE_CHECK_INTERVAL = 16;
+    private static final int CHARS_PER_DEADLINE_CHECK = 1024;
+
+    private final BooleanSupplier cancelled;
+    private final long deadlineNanos;
+    private final long nodeVisitBudget;
+    private final boolean counting;
+    private final QueryProfiler profiler;
+    private final AtomicLong visits = new AtomicLong();
+    private final AtomicLong filterComparisons = new AtomicLong();
+
+
+    SearchGuard(BooleanSupplier pCancelled) {
+        this(pCancelled, NONE, NONE, false, null);
+    }
+
+
+    private SearchGuard(BooleanSupplier pCancelled,
+                        long pDeadlineNanos,
+                        long pNodeVisitBudget,
+                        boolean pCounting,
+                        QueryProfiler pProfiler) {
+        cancelled = pCancelled;
+        deadlineNanos = pDeadlineNanos;
+        nodeVisitBudget = pNodeVisitBudget;
+        counting = pCounting;
+        profiler = pProfiler;
+    }
+
+
+    /**
+     * Builds the guard for a search about to begin, out of the timeout and node visit budget of
+     * <code>pOptions</code>, keeping the cancellation check of the guard already attached to it, if any.
+     *
+     * @param pCounting - Whether to count node visits and filter comparisons, see {@link SearchGuard#visitCount()}
+     * @param pProfiler - Where to record the profile of the search, <code>null</code> if it is not being profiled
+     * @return - The guard, <code>null</code> if the search does not need one
+     */
+    static SearchGuard forSearch(SearchOptions pOptions,
+                                 SearchGuard pCurrent,
+                                 boolean pCounting,
+                                 QueryProfiler pProfiler) {
+        long timeout = pOptions.getTimeoutNanos();
+        long budget = pOptions.getNodeVisitBudget();
+        if (timeout == NONE && budget == NONE && !pCounting && null == pProfiler) {
+            return pCurrent;
+        }
+        long deadline = timeout == NONE ? NONE : System.nanoTime() + timeout;
+        /*
+         * A deadline that happens to land on 0 would read as "no deadline"
+         */
+        if (timeout != NONE && deadline == NONE) {
+            deadline = 1L;
+        }
+        return new SearchGuard(null == pCurrent ? null : pCurrent.cancelled, deadline, budget, pCounting,
+                pProfiler);
+    }
+
+
+    /**
+     * @return - <code>true</code> if this guard enforces a timeout or a node visit budget
+     */
+    boolean enforcesBudgets() {
+        return deadlineNanos != NONE || nodeVisitBudget != NONE;
+    }
+
+
+    /**
+     * @return - <code>true</code> if this guard was built by {@link SearchGuard#forSearch}, as opposed to one that
+     *   merely checks for cancellation
+     */
+    boolean startedSearch() {
+        return counting || null != profiler || enforcesBudgets();
+    }
+
+
+    /**
+     * @return - Where to record the profile of the search, <code>null</code> if it is not being profiled
+     */
+    QueryProfiler profiler() {
+        return profiler;
+    }
+
+
+    /**
+     * @return - Number of {@link SearchGuard#checkpoint()}'s so far, only kept track of when counting or enforcing
+     *   budgets
+     */
+    long visitCount() {
+        return visits.get();
+    }
+
+
+    void countFilterComparison() {
+        if (counting) {
+            filterComparisons.incrementAndGet();
+        }
+        if (null != profiler) {
+            profiler.count(QueryProfile.Counter.FILTER_COMPARISONS);
+        }
+    }
+
+
+    long filterComparisonCount() {
+        return filterComparisons.get();
+    }
+
+
+    /**
+     * @throws CancellationException - If the search was cancelled
+     * @throws SearchBudgetExceededException - If the search ran past its deadline, or its node visit budget
+     */
+    void checkpoint() {
+        if (null != cancelled && cancelled.getAsBoolean()) {
+            throw new CancellationException("The search was cancelled");
+        }
+        if (!startedSearch()) {
+            return;
+        }
+        if (null != profiler) {
+            profiler.count(QueryProfile.Counter.NODES_VISITED);
+        }
+        long visitCnt = visits.incrementAndGet();
+        if (nodeVisitBudget != NONE && visitCnt > nodeVisitBudget) {
+            throw new SearchBudgetExceededException(SearchBudgetExceededException.Reason.NODE_VISIT_BUDGET,
+                    "The search visited more than " + nodeVisitBudget + " nodes");
+        }
+        if (visitCnt % DEADLINE_CHECK_INTERVAL == 0) {
+            checkDeadline();
+        }
+    }
+
+
+    private void checkDeadline() {
+        if (deadlineNanos != NONE && System.nanoTime() - deadlineNanos > 0) {
+            throw new SearchBudgetExceededException(SearchBudgetExceededException.Reason.TIMEOUT,
+                    "The search did not complete within the configured timeout");
+        }
+    }
+
+
+    /**
+     * Regular expressions can take a very long time to evaluate against a single value. When there is a deadline,
+     * the {@link CharSequence} given back checks it as the regular expression engine reads characters from it.
+     *
+     * @return - <code>pText</code> itself if there's no deadline, else a {@link CharSequence} over it that checks the
+     *   deadline every so many characters read
+     */
+    CharSequence guardText(CharSequence pText) {
+        return deadlineNanos == NONE ? pText : new DeadlineCharSequence(pText);
+    }
+
+
+    private final class DeadlineCharSequence implements CharSequence {
+        private final CharSequence text;
+        private int reads;
+
+        private DeadlineCharSequence(CharSequence pText) {
+            text = pText;
+        }
+
+        @Override
+        public int length() {
+            return text.length();
+        }
+
+        @Override
+        public char charAt(int pIdx) {
+            if (++reads % CHARS_PER_DEADLINE_CHECK == 0) {
+                checkDeadline();
+            }
+            return text.charAt(pIdx);
+        }
+
+        @Override
+        public CharSequence subSequence(int pStart, int pEnd) {
+            return new DeadlineCharSequence(text.subSequence(pStart, pEnd));
+        }
+
+        @Override
+        public String toString() {
+            return text.toString();
+        }
+    }
+
+
+    /**
+     * Runs <code>pTask</code> in <code>pExecutor</code>, handing it a {@code SearchGuard} tied to the returned
+     * {@link CompletableFuture}. Cancelling the {@link CompletableFuture} makes the next
+     * {@link SearchGuard#checkpoint()} throw, which stops the task instead of letting it run to completion only
+     * to have its result discarded.
+     *
+     * @param pTask - The work to do, must check the guard given to it at regular points
+     * @param pExecutor - Where to run the task
+     * @return - Completes with what <code>pTask</code> gives back, or exceptionally with what it throws
+     */
+    static <T> CompletableFuture<T> supplyAsync(Function<SearchGuard, T> pTask, Executor pExecutor) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        SearchGuard guard = new SearchGuard(future::isCancelled);
+        try {
+            pExecutor.execute(() -> {
+                if (future.isDone()) {
+                    return;
+                }
+                try {
+                    future.complete(pTask.apply(guard));
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+}
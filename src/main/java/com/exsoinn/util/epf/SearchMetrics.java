@@ -0,0 +1,212 @@
+package com.exsoinn.util.epf;
+
+/**
+ * Receives events from the inside of the search engine, to find out where the time goes: parsing, searching, node
+ * visits, filter comparisons, the hit ratio of the internal caches, and the places where the engine relies on an
+ * exception being thrown to find out that something is not what it tried. Implementations get installed via
+ * {@link SearchMetricsRegistry}, and can forward the events to whatever metrics library the application uses, without
+ * this library depending on it. {@link LongAdderSearchMetrics} is a ready made implementation which simply counts.
+ *
+ * The methods get invoked on the threads doing the parsing and searching, often several of them at once, and some of them
+ * (the cache ones) in the innermost loops of the engine. Implementations must therefore be thread safe, return
+ * quickly, never block and never throw. Every method does nothing by default, so that implementations only
+ * override the events they care about.
+ *
+ * While no implementation is installed, or none of those installed says it is enabled, the engine does not even read the
+ * clock, see {@link SearchMetrics#isEnabled()}.
+ */
+public interface SearchMetrics {
+    /**
+     * Does nothing, installed when no other implementation is. The engine recognizes this instance and skips the
+     * bookkeeping it would otherwise do to feed the per search events.
+     */
+    SearchMetrics NO_OP = new SearchMetrics() {
+    };
+
+
+    /**
+     * The formats {@link ContextFactory} builds a {@link Context} out of
+     */
+    enum Format {
+        JSON,
+        XML,
+        /**
+         * An already parsed Gson {@code JsonElement}
+         */
+        JSON_ELEMENT,
+        /**
+         * A {@link java.util.List} of values, as the search engine builds for found arrays
+         */
+        LIST
+    }
+
+
+    /**
+     * The internal caches the engine looks things up in
+     */
+    enum Cache {
+        /**
+         * Parsed search paths, see {@link SearchPath#valueOf(String)}
+         */
+        SEARCH_PATH,
+        /**
+         * Parsed target elements, see {@link TargetElements#valueOf(String)}
+         */
+        TARGET_ELEMENTS,
+        /**
+         * Compiled regular expressions, see {@link Context#FOUND_ELEM_VAL_IS_REGEX}
+         */
+        PATTERN,
+        /**
+         * Results of earlier searches of the same {@link Context}, see {@link Context#USE_RESULT_CACHE}
+         */
+        SEARCH_RESULT
+    }
+
+
+    /**
+     * The places where the engine tries something and learns from the exception thrown that it should do something
+     * else. Exceptions are expensive to build, so a high count here is worth looking into.
+     */
+    enum ExceptionMiss {
+        /**
+         * The data given to {@link ContextFactory} was not JSON, so it was tried as something else
+         */
+        JSON_PARSE,
+        /**
+         * The data given to {@link ContextFactory} was not XML either
+         */
+        XML_PARSE,
+        /**
+         * A filter value could not be made into a {@link Context} array, so it was taken as a comma separated list
+         * or a single value, see {@link Context#transformArgumentToListObject(String)}
+         */
+        LIST_FILTER
+    }
+
+
+    /**
+     * Consulted when a search or parse begins, to decide whether to do the bookkeeping needed for
+     * {@link SearchMetrics#contextParsed}, {@link SearchMetrics#searchCompleted} and
+     * {@link SearchMetrics#searchFailed}. Implementations whose reporting can be switched on and off at run time
+     * override it, and then must make it cheap, since it is invoked on every search.
+     *
+     * @return - <code>false</code> to have the engine skip the per search and per parse events
+     */
+    default boolean isEnabled() {
+        return true;
+    }
+
+
+    /**
+     * A {@link Context} is about to get built by {@link ContextFactory}. Once it is, {@link SearchMetrics#contextParsed}
+     * follows, on the same thread, or {@link SearchMetrics#parseFailed} if the parse fails, unless an {@link Error} gets
+     * thrown. Meant for implementations that need to know when the parse began, rather than only how long it took, for
+     * example to time it themselves.
+     *
+     * @param pFormat - What the {@link Context} is being built out of
+     */
+    default void parseStarted(Format pFormat) {
+    }
+
+
+    /**
+     * A {@link Context} got built by {@link ContextFactory}, at the request of the caller. The {@link Context}'s that
+     * the search engine builds along the way, for example out of the entries of a found array, are part of the search,
+     * hence are not reported.
+     *
+     * @param pFormat - What the {@link Context} was built out of
+     * @param pNanos - Time it took
+     * @param pChars - Length of the text parsed, 0 if the {@link Context} was not built from text
+     */
+    default void contextParsed(Format pFormat, long pNanos, long pChars) {
+    }
+
+
+    /**
+     * A parse failed, same as {@link SearchMetrics#contextParsed}, except that no {@link Context} got built. Data of an
+     * unsupported format fails this way, but <code>null</code> data does not even get to begin a parse.
+     *
+     * @param pError - What the parse threw
+     */
+    default void parseFailed(Format pFormat, long pNanos, RuntimeException pError) {
+    }
+
+
+    /**
+     * A search is about to begin. Once it is over, {@link SearchMetrics#searchCompleted} or
+     * {@link SearchMetrics#searchFailed} follows, on the same thread, with the same <code>pContext</code> and
+     * <code>pSearchPath</code>, unless an {@link Error} gets thrown. Other events may come in between, for example the
+     * search may build a {@link Context}, see {@link SearchMetrics#parseStarted(Format)}.
+     *
+     * The searches of {@link Context#findElementStream(SelectionCriteria, SearchOptions)} are the exception: they are
+     * over once the stream ran out of matches, or got closed, which for a parallel stream may be on another thread,
+     * and a stream abandoned early without being closed never reports that its search is over.
+     */
+    default void searchStarted(Context pContext,
+                               SearchPath pSearchPath,
+                               Filter pFilter,
+                               TargetElements pTargetElements) {
+    }
+
+
+    /**
+     * A search completed, any of the {@link Context#findElement(SelectionCriteria, java.util.Map)} flavors,
+     * {@link Context#findElementStream(SelectionCriteria, SearchOptions)} or
+     * {@link Context#exists(SelectionCriteria, SearchOptions)}.
+     *
+     * @param pContext - What was searched
+     * @param pSearchPath - What was searched for
+     * @param pFilter - The filter of the search, <code>null</code> if none
+     * @param pTargetElements - The target elements of the search, <code>null</code> if none
+     * @param pNanos - Time the search took
+     * @param pNodesVisited - Number of nodes the search visited: path nodes walked, array entries and members
+     *   scanned
+     * @param pFilterComparisons - Number of times a found value got compared to a filter value
+     * @param pResults - Number of results produced
+     */
+    default void searchCompleted(Context pContext,
+                                 SearchPath pSearchPath,
+                                 Filter pFilter,
+                                 TargetElements pTargetElements,
+                                 long pNanos,
+                                 long pNodesVisited,
+                                 long pFilterComparisons,
+                                 int pResults) {
+    }
+
+
+    /**
+     * A search failed, same as {@link SearchMetrics#searchCompleted}, except that there are no results.
+     *
+     * @param pError - What the search threw
+     */
+    default void searchFailed(Context pContext,
+                              SearchPath pSearchPath,
+                              Filter pFilter,
+                              TargetElements pTargetElements,
+                              long pNanos,
+                              RuntimeException pError) {
+    }
+
+
+    /**
+     * What was looked up was found in <code>pCache</code>
+     */
+    default void cacheHit(Cache pCache) {
+    }
+
+
+    /**
+     * What was looked up was not found in <code>pCache</code>, and had to be built
+     */
+    default void cacheMiss(Cache pCache) {
+    }
+
+
+    /**
+     * An exception was caught and swallowed at <code>pMiss</code>
+     */
+    default void exceptionMiss(ExceptionMiss pMiss) {
+    }
+}
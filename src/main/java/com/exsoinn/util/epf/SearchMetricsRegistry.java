@@ -0,0 +1,278 @@
+package com.exsoinn.util.epf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+/**
+ * Holds the {@link SearchMetrics} the engine reports to, process wide. At start up, the first implementation found by
+ * {@link ServiceLoader}, if any, gets installed, so that a metrics adapter can be plugged in by merely putting it on the
+ * class path, with a <code>META-INF/services/com.exsoinn.util.epf.SearchMetrics</code> entry.
+ * {@link SearchMetricsRegistry#register(SearchMetrics)} installs more of them, alongside those already installed, so
+ * that for example a {@link SlowQueryLog} and a metrics adapter can listen at the same time. Every event goes to all of
+ * them, in the order they were installed.
+ *
+ * The set of installed implementations is replaced as a whole on every change, hence the engine reads it without
+ * locking, and changes are expected to be rare, typically at start up and shut down.
+ */
+public final class SearchMetricsRegistry {
+    private static final SearchMetrics[] DISCOVERED = discover();
+    private static SearchMetrics[] listening = DISCOVERED;
+    private static volatile SearchMetrics current = combine(DISCOVERED);
+
+
+    private SearchMetricsRegistry() {
+    }
+
+
+    /**
+     * @return - What the engine reports to, never <code>null</code>: {@link SearchMetrics#NO_OP} when nothing is
+     *   installed, the single implementation installed, or else one that hands every event to all of those installed
+     */
+    public static SearchMetrics get() {
+        return current;
+    }
+
+
+    /**
+     * @return - The implementations currently installed, in the order they were installed, empty when none are
+     */
+    public static List<SearchMetrics> installed() {
+        synchronized (SearchMetricsRegistry.class) {
+            return Collections.unmodifiableList(new ArrayList<>(Arrays.asList(listening)));
+        }
+    }
+
+
+    /**
+     * Installs <code>pMetrics</code> alongside those currently installed. Searches already underway may or may not
+     * report to it. Installing an implementation already installed does nothing.
+     *
+     * @param pMetrics - What to report to from now on, in addition to what is already being reported to
+     * @throws IllegalArgumentException - If <code>pMetrics</code> is <code>null</code>
+     */
+    public static void register(SearchMetrics pMetrics) {
+        if (null == pMetrics) {
+            throw new IllegalArgumentException("The search metrics can't be null, to stop reporting use "
+                    + SearchMetricsRegistry.class.getSimpleName() + ".unregister()");
+        }
+        synchronized (SearchMetricsRegistry.class) {
+            if (indexOf(pMetrics) >= 0) {
+                return;
+            }
+            SearchMetrics[] m = Arrays.copyOf(listening, listening.length + 1);
+            m[listening.length] = pMetrics;
+            install(m);
+        }
+    }
+
+
+    /**
+     * Stops reporting to <code>pMetrics</code>, leaving the others installed as they are. Searches already underway
+     * may still report to it.
+     *
+     * @param pMetrics - What to stop reporting to, the implementation found by {@link ServiceLoader} included
+     * @return - <code>false</code> if <code>pMetrics</code> was not installed
+     */
+    public static boolean unregister(SearchMetrics pMetrics) {
+        synchronized (SearchMetricsRegistry.class) {
+            int idx = indexOf(pMetrics);
+            if (idx < 0) {
+                return false;
+            }
+            SearchMetrics[] m = new SearchMetrics[listening.length - 1];
+            System.arraycopy(listening, 0, m, 0, idx);
+            System.arraycopy(listening, idx + 1, m, idx, m.length - idx);
+            install(m);
+            return true;
+        }
+    }
+
+
+    /**
+     * Goes back to what was installed at start up, the implementation found by {@link ServiceLoader}, if any,
+     * uninstalling all those installed via {@link SearchMetricsRegistry#register(SearchMetrics)}
+     */
+    public static void unregister() {
+        synchronized (SearchMetricsRegistry.class) {
+            install(DISCOVERED);
+        }
+    }
+
+
+    /**
+     * @return - <code>false</code> if nothing is listening, see {@link SearchMetrics#isEnabled()}, in which case the
+     *   engine skips the bookkeeping needed for the per search events
+     */
+    static boolean isEnabled() {
+        SearchMetrics m = current;
+        return m != SearchMetrics.NO_OP && m.isEnabled();
+    }
+
+
+    /*
+     * Must be invoked holding the class lock
+     */
+    private static int indexOf(SearchMetrics pMetrics) {
+        for (int i = 0; i < listening.length; i++) {
+            if (listening[i] == pMetrics) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+    /*
+     * Must be invoked holding the class lock
+     */
+    private static void install(SearchMetrics[] pMetrics) {
+        listening = pMetrics;
+        current = combine(pMetrics);
+    }
+
+
+    private static SearchMetrics combine(SearchMetrics[] pMetrics) {
+        if (0 == pMetrics.length) {
+            return SearchMetrics.NO_OP;
+        }
+        if (1 == pMetrics.length) {
+            return pMetrics[0];
+        }
+        return new Composite(pMetrics);
+    }
+
+
+    private static SearchMetrics[] discover() {
+        try {
+            Iterator<SearchMetrics> it = ServiceLoader.load(SearchMetrics.class).iterator();
+            if (it.hasNext()) {
+                return new SearchMetrics[] {it.next()};
+            }
+        } catch (ServiceConfigurationError | LinkageError ignore) {
+            /*
+             * A broken adapter, or one built for a newer Java than the one running, must not prevent searching, carry
+             * on without metrics
+             */
+        }
+        return new SearchMetrics[0];
+    }
+
+
+    /**
+     * Hands every event to each of several {@link SearchMetrics}. It is enabled while any of them is, and then all of
+     * them get the per search and per parse events, those not enabled included, so that a search begun while one of
+     * them was enabled gets ended there even if it got disabled in the mean time.
+     */
+    private static final class Composite implements SearchMetrics {
+        private final SearchMetrics[] metrics;
+
+
+        private Composite(SearchMetrics[] pMetrics) {
+            metrics = pMetrics;
+        }
+
+
+        @Override
+        public boolean isEnabled() {
+            for (SearchMetrics m : metrics) {
+                if (m.isEnabled()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+
+        @Override
+        public void parseStarted(Format pFormat) {
+            for (SearchMetrics m : metrics) {
+                m.parseStarted(pFormat);
+            }
+        }
+
+
+        @Override
+        public void contextParsed(Format pFormat, long pNanos, long pChars) {
+            for (SearchMetrics m : metrics) {
+                m.contextParsed(pFormat, pNanos, pChars);
+            }
+        }
+
+
+        @Override
+        public void parseFailed(Format pFormat, long pNanos, RuntimeException pError) {
+            for (SearchMetrics m : metrics) {
+                m.parseFailed(pFormat, pNanos, pError);
+            }
+        }
+
+
+        @Override
+        public void searchStarted(Context pContext,
+                                  SearchPath pSearchPath,
+                                  Filter pFilter,
+                                  TargetElements pTargetElements) {
+            for (SearchMetrics m : metrics) {
+                m.searchStarted(pContext, pSearchPath, pFilter, pTargetElements);
+            }
+        }
+
+
+        @Override
+        public void searchCompleted(Context pContext,
+                                    SearchPath pSearchPath,
+                                    Filter pFilter,
+                                    TargetElements pTargetElements,
+                                    long pNanos,
+                                    long pNodesVisited,
+                                    long pFilterComparisons,
+                                    int pResults) {
+            for (SearchMetrics m : metrics) {
+                m.searchCompleted(pContext, pSearchPath, pFilter, pTargetElements, pNanos, pNodesVisited,
+                        pFilterComparisons, pResults);
+            }
+        }
+
+
+        @Override
+        public void searchFailed(Context pContext,
+                                 SearchPath pSearchPath,
+                                 Filter pFilter,
+                                 TargetElements pTargetElements,
+                                 long pNanos,
+                                 RuntimeException pError) {
+            for (SearchMetrics m : metrics) {
+                m.searchFailed(pContext, pSearchPath, pFilter, pTargetElements, pNanos, pError);
+            }
+        }
+
+
+        @Override
+        public void cacheHit(Cache pCache) {
+            for (SearchMetrics m : metrics) {
+                m.cacheHit(pCache);
+            }
+        }
+
+
+        @Override
+        public void cacheMiss(Cache pCache) {
+            for (SearchMetrics m : metrics) {
+                m.cacheMiss(pCache);
+            }
+        }
+
+
+        @Override
+        public void exceptionMiss(ExceptionMiss pMiss) {
+            for (SearchMetrics m : metrics) {
+                m.exceptionMiss(pMiss);
+            }
+        }
+    }
+}
@@ -0,0 +1,515 @@
+package com.exsoinn.util.epf;
+
+import net.jcip.annotations.Immutable;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unmodifiable, typed representation of the options that control how a {@link Context} search behaves. Historically
+ * these options were passed as a {@code Map<String, String>} of "extra parameters" (see for example
+ * {@link Context#findElement(SelectionCriteria, Map)}), and the search engine kept asking that {@link Map} whether
+ * it contained a given key, for every node visited and every value compared. Instead the options are now resolved
+ * just once, when the search begins, into a bit set, and the engine reads the flags from there.
+ *
+ * The {@link Map} based methods of {@link Context} are still supported, they simply convert the extra parameters
+ * via {@link SearchOptions#fromMap(Map)} and then proceed as usual. Because instances of this class are
+ * immutable, the <code>with*()</code> methods return a new {@code SearchOptions} object, leaving the original one
+ * as is.
+ */
+@Immutable
+public final class SearchOptions {
+    private static final int IGNORE_INCOMPATIBLE_SEARCH_PATH = 1;
+    private static final int IGNORE_INCOMPATIBLE_TARGET_ELEMENT = 1 << 1;
+    private static final int FOUND_ELEM_VAL_IS_REGEX = 1 << 2;
+    private static final int PARTIAL_REGEX_MATCH = 1 << 3;
+    private static final int MISSING_PATH_AS_EMPTY = 1 << 4;
+    /*
+     * Internal only, the search runs merely to answer whether anything would be found, see Context#exists()
+     */
+    private static final int EXISTENCE_CHECK = 1 << 5;
+    private static final int USE_NAME_INDEX = 1 << 6;
+    private static final int USE_RESULT_CACHE = 1 << 7;
+    private static final int OMIT_MISS_STACK_TRACE = 1 << 8;
+    private static final int FLAG_COMBINATIONS = 1 << 9;
+    private static final int NO_RESULT_LIMIT = 0;
+    private static final int MIN_PARALLEL_THRESHOLD = 2;
+    private static final long NO_BUDGET = 0L;
+
+    /*
+     * Options built from an extra parameters Map consist only of flags, hence there's a fixed number of them. Pre-build
+     * them all, so that the Map adapter methods do not create a new object on every search.
+     */
+    private static final SearchOptions[] cachedFlagOnlyOptions = new SearchOptions[FLAG_COMBINATIONS];
+    static {
+        for (int i = 0; i < FLAG_COMBINATIONS; i++) {
+            cachedFlagOnlyOptions[i] = new SearchOptions(i, NO_RESULT_LIMIT, null, 0, NO_BUDGET, NO_BUDGET,
+                    NO_RESULT_LIMIT);
+        }
+    }
+
+    private final int flags;
+    private final int resultLimit;
+    private final Executor parallelExecutor;
+    private final int parallelThreshold;
+    private final long timeoutNanos;
+    private final long nodeVisitBudget;
+    private final int resultBudget;
+
+
+    private SearchOptions(int pFlags,
+                          int pResultLimit,
+                          Executor pParallelExecutor,
+                          int pParallelThreshold,
+                          long pTimeoutNanos,
+                          long pNodeVisitBudget,
+                          int pResultBudget) {
+        flags = pFlags;
+        resultLimit = pResultLimit;
+        parallelExecutor = pParallelExecutor;
+        parallelThreshold = pParallelThreshold;
+        timeoutNanos = pTimeoutNanos;
+        nodeVisitBudget = pNodeVisitBudget;
+        resultBudget = pResultBudget;
+    }
+
+
+    private static SearchOptions of(int pFlags,
+                                    int pResultLimit,
+                                    Executor pParallelExecutor,
+                                    int pParallelThreshold,
+                                    long pTimeoutNanos,
+                                    long pNodeVisitBudget,
+                                    int pResultBudget) {
+        if (pResultLimit == NO_RESULT_LIMIT && null == pParallelExecutor && pTimeoutNanos == NO_BUDGET
+                && pNodeVisitBudget == NO_BUDGET && pResultBudget == NO_RESULT_LIMIT) {
+            return cachedFlagOnlyOptions[pFlags];
+        }
+        return new SearchOptions(pFlags, pResultLimit, pParallelExecutor, pParallelThreshold, pTimeoutNanos,
+                pNodeVisitBudget, pResultBudget);
+    }
+
+
+    /*
+     * Copy of this, with only the flags and the result limit changed, the rest of the settings are carried over
+     */
+    private SearchOptions copy(int pFlags, int pResultLimit) {
+        return of(pFlags, pResultLimit, parallelExecutor, parallelThreshold, timeoutNanos, nodeVisitBudget,
+                resultBudget);
+    }
+
+
+    /**
+     * @return - The options used when caller does not provide any, in other words all flags turned off.
+     */
+    public static SearchOptions defaultOptions() {
+        return cachedFlagOnlyOptions[0];
+    }
+
+
+    /**
+     * Converts the "extra parameters" {@link Map} accepted by {@link Context#findElement(SelectionCriteria, Map)} and
+     * {@link Context#findElement(SearchPath, Filter, TargetElements, Map)} into a {@code SearchOptions}. As has always
+     * been the case, it is the presence of the key that turns an option on, the value is disregarded. The only
+     * exception is {@link Context#RESULT_LIMIT}, whose value must be an integer.
+     *
+     * @param pExtraParams - The extra parameters, can be <code>null</code>
+     * @return - The equivalent {@code SearchOptions}
+     * @throws IllegalArgumentException - If the {@link Context#RESULT_LIMIT} value is not a valid integer
+     */
+    public static SearchOptions fromMap(Map<String, String> pExtraParams) {
+        if (null == pExtraParams || pExtraParams.isEmpty()) {
+            return defaultOptions();
+        }
+
+        int flags = 0;
+        if (pExtraParams.containsKey(Context.IGNORE_INCOMPATIBLE_SEARCH_PATH_PROVIDED_ERROR)) {
+            flags |= IGNORE_INCOMPATIBLE_SEARCH_PATH;
+        }
+        if (pExtraParams.containsKey(Context.IGNORE_INCOMPATIBLE_TARGET_ELEMENT_PROVIDED_ERROR)) {
+            flags |= IGNORE_INCOMPATIBLE_TARGET_ELEMENT;
+        }
+        if (pExtraParams.containsKey(Context.FOUND_ELEM_VAL_IS_REGEX)) {
+            flags |= FOUND_ELEM_VAL_IS_REGEX;
+        }
+        if (pExtraParams.containsKey(Context.PARTIAL_REGEX_MATCH)) {
+            flags |= PARTIAL_REGEX_MATCH;
+        }
+        if (pExtraParams.containsKey(Context.MISSING_PATH_AS_EMPTY)) {
+            flags |= MISSING_PATH_AS_EMPTY;
+        }
+        if (pExtraParams.containsKey(Context.USE_NAME_INDEX)) {
+            flags |= USE_NAME_INDEX;
+        }
+        if (pExtraParams.containsKey(Context.USE_RESULT_CACHE)) {
+            flags |= USE_RESULT_CACHE;
+        }
+        if (pExtraParams.containsKey(Context.OMIT_MISS_STACK_TRACE)) {
+            flags |= OMIT_MISS_STACK_TRACE;
+        }
+
+        int resultLimit = NO_RESULT_LIMIT;
+        String limitStr = pExtraParams.get(Context.RESULT_LIMIT);
+        if (null != limitStr) {
+            resultLimit = validResultLimit(Integer.parseInt(limitStr.trim()));
+        }
+
+        return of(flags, resultLimit, null, 0, NO_BUDGET, NO_BUDGET, NO_RESULT_LIMIT);
+    }
+
+
+    /**
+     * The inverse of {@link SearchOptions#fromMap(Map)}, meant for {@link Context} implementations that only know how to
+     * deal with the extra parameters {@link Map}. Options that have no extra parameter equivalent, such as
+     * {@link SearchOptions#withParallelExecution(Executor, int)} and the timeout and budgets, are left out.
+     *
+     * @return - An unmodifiable extra parameters {@link Map} equivalent to this {@code SearchOptions}
+     */
+    public Map<String, String> toMap() {
+        if (flags == 0 && resultLimit == NO_RESULT_LIMIT) {
+            return Collections.emptyMap();
+        }
+
+        Map<String, String> m = new HashMap<>();
+        if (isIgnoreIncompatibleSearchPath()) {
+            m.put(Context.IGNORE_INCOMPATIBLE_SEARCH_PATH_PROVIDED_ERROR, Boolean.TRUE.toString());
+        }
+        if (isIgnoreIncompatibleTargetElement()) {
+            m.put(Context.IGNORE_INCOMPATIBLE_TARGET_ELEMENT_PROVIDED_ERROR, Boolean.TRUE.toString());
+        }
+        if (isFoundElemValIsRegex()) {
+            m.put(Context.FOUND_ELEM_VAL_IS_REGEX, Boolean.TRUE.toString());
+        }
+        if (isPartialRegexMatch()) {
+            m.put(Context.PARTIAL_REGEX_MATCH, Boolean.TRUE.toString());
+        }
+        if (isMissingPathAsEmpty()) {
+            m.put(Context.MISSING_PATH_AS_EMPTY, Boolean.TRUE.toString());
+        }
+        if (isUseNameIndex()) {
+            m.put(Context.USE_NAME_INDEX, Boolean.TRUE.toString());
+        }
+        if (isUseResultCache()) {
+            m.put(Context.USE_RESULT_CACHE, Boolean.TRUE.toString());
+        }
+        if (isOmitMissStackTrace()) {
+            m.put(Context.OMIT_MISS_STACK_TRACE, Boolean.TRUE.toString());
+        }
+        if (resultLimit != NO_RESULT_LIMIT) {
+            m.put(Context.RESULT_LIMIT, String.valueOf(resultLimit));
+        }
+        return Collections.unmodifiableMap(m);
+    }
+
+
+    /*
+     * Flag accessors, see the constants of the same name in Context for what each one means
+     */
+    public boolean isIgnoreIncompatibleSearchPath() {
+        return (flags & IGNORE_INCOMPATIBLE_SEARCH_PATH) != 0;
+    }
+
+    public boolean isIgnoreIncompatibleTargetElement() {
+        return (flags & IGNORE_INCOMPATIBLE_TARGET_ELEMENT) != 0;
+    }
+
+    public boolean isFoundElemValIsRegex() {
+        return (flags & FOUND_ELEM_VAL_IS_REGEX) != 0;
+    }
+
+    public boolean isPartialRegexMatch() {
+        return (flags & PARTIAL_REGEX_MATCH) != 0;
+    }
+
+    public boolean isMissingPathAsEmpty() {
+        return (flags & MISSING_PATH_AS_EMPTY) != 0;
+    }
+
+    public boolean isUseNameIndex() {
+        return (flags & USE_NAME_INDEX) != 0;
+    }
+
+    public boolean isUseResultCache() {
+        return (flags & USE_RESULT_CACHE) != 0;
+    }
+
+    public boolean isOmitMissStackTrace() {
+        return (flags & OMIT_MISS_STACK_TRACE) != 0;
+    }
+
+    boolean isExistenceCheck() {
+        return (flags & EXISTENCE_CHECK) != 0;
+    }
+
+    /**
+     * @return - The maximum number of results the search will produce, 0 if unlimited. See
+     *   {@link SearchOptions#withResultLimit(int)}
+     */
+    public int getResultLimit() {
+        return resultLimit;
+    }
+
+    /**
+     * @return - The {@link Executor} that array entries get processed in, <code>null</code> if processing is sequential.
+     *   See {@link SearchOptions#withParallelExecution(Executor, int)}
+     */
+    public Executor getParallelExecutor() {
+        return parallelExecutor;
+    }
+
+    /**
+     * @return - Minimum number of array entries for processing to go parallel, see
+     *   {@link SearchOptions#withParallelExecution(Executor, int)}
+     */
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /**
+     * @return - <code>true</code> if an array, or any other collection, of <code>pSize</code> entries is big enough to
+     *   be processed in parallel
+     */
+    boolean isParallelFor(int pSize) {
+        return null != parallelExecutor && pSize >= parallelThreshold;
+    }
+
+    /**
+     * @return - The timeout in nanoseconds, 0 if none. See {@link SearchOptions#withTimeout(long, TimeUnit)}
+     */
+    public long getTimeoutNanos() {
+        return timeoutNanos;
+    }
+
+    /**
+     * @return - The node visit budget, 0 if none. See {@link SearchOptions#withNodeVisitBudget(long)}
+     */
+    public long getNodeVisitBudget() {
+        return nodeVisitBudget;
+    }
+
+    /**
+     * @return - The result budget, 0 if none. See {@link SearchOptions#withResultBudget(int)}
+     */
+    public int getResultBudget() {
+        return resultBudget;
+    }
+
+    /**
+     * Invoked right before the search adds a result, when it already has <code>pResultCount</code> of them.
+     *
+     * @throws SearchBudgetExceededException - If adding one more result would go over the result budget
+     */
+    void checkResultBudget(int pResultCount) {
+        if (resultBudget != NO_RESULT_LIMIT && pResultCount >= resultBudget) {
+            throw new SearchBudgetExceededException(SearchBudgetExceededException.Reason.RESULT_BUDGET,
+                    "The search found more than " + resultBudget + " results");
+        }
+    }
+
+    /**
+     * @return - <code>true</code> if enough results have been produced to satisfy {@link SearchOptions#getResultLimit()}
+     */
+    boolean resultLimitReached(int pResultCount) {
+        return resultLimit != NO_RESULT_LIMIT && pResultCount >= resultLimit;
+    }
+
+
+    /*
+     * Copy methods, each returns a new SearchOptions with the respective flag set as requested
+     */
+    public SearchOptions withIgnoreIncompatibleSearchPath(boolean pOn) {
+        return withFlag(IGNORE_INCOMPATIBLE_SEARCH_PATH, pOn);
+    }
+
+    public SearchOptions withIgnoreIncompatibleTargetElement(boolean pOn) {
+        return withFlag(IGNORE_INCOMPATIBLE_TARGET_ELEMENT, pOn);
+    }
+
+    public SearchOptions withFoundElemValIsRegex(boolean pOn) {
+        return withFlag(FOUND_ELEM_VAL_IS_REGEX, pOn);
+    }
+
+    public SearchOptions withPartialRegexMatch(boolean pOn) {
+        return withFlag(PARTIAL_REGEX_MATCH, pOn);
+    }
+
+    public SearchOptions withMissingPathAsEmpty(boolean pOn) {
+        return withFlag(MISSING_PATH_AS_EMPTY, pOn);
+    }
+
+    public SearchOptions withUseNameIndex(boolean pOn) {
+        return withFlag(USE_NAME_INDEX, pOn);
+    }
+
+    public SearchOptions withUseResultCache(boolean pOn) {
+        return withFlag(USE_RESULT_CACHE, pOn);
+    }
+
+    public SearchOptions withOmitMissStackTrace(boolean pOn) {
+        return withFlag(OMIT_MISS_STACK_TRACE, pOn);
+    }
+
+    SearchOptions withExistenceCheck(boolean pOn) {
+        return withFlag(EXISTENCE_CHECK, pOn);
+    }
+
+
+    /**
+     * Caps the number of results the search produces. When the last node of the {@link SearchPath} is an array, this is
+     * the maximum number of array entries that make it into the results, and as soon as that many have been found the
+     * engine stops scanning, filtering and applying {@link TargetElements} to the remaining entries. Pass 1 to get only the first
+     * match.
+     *
+     * @param pLimit - The maximum number of results, 0 means no limit
+     * @return - A new {@code SearchOptions} with the given result limit
+     * @throws IllegalArgumentException - If <code>pLimit</code> is negative
+     */
+    public SearchOptions withResultLimit(int pLimit) {
+        return pLimit == resultLimit ? this : copy(flags, validResultLimit(pLimit));
+    }
+
+
+    /**
+     * Turns on parallel processing of large arrays. When the last node of the search path is an array with at least
+     * <code>pThreshold</code> entries, the entries get split in contiguous chunks, which are filtered, and have
+     * {@link TargetElements} applied to them, as separate tasks in <code>pExecutor</code>. The calling thread processes one
+     * of the chunks itself, then waits for the others, and the results are put back together in the original array
+     * order, therefore they're the same as those of a sequential search. Arrays smaller than the threshold are processed
+     * sequentially on the calling thread, as they are by default, since for those the cost of handing off work to
+     * other threads is bigger than what's gained.
+     *
+     * The search never uses the {@link java.util.concurrent.ForkJoinPool#commonPool()} on its own, parallel processing
+     * only ever happens on the {@link Executor} given here. When the {@link Executor} is a
+     * {@link java.util.concurrent.ForkJoinPool}, the number of chunks matches its parallelism, when it is a
+     * {@link java.util.concurrent.ThreadPoolExecutor}, its core pool size, else the number of available processors. The
+     * {@link Executor} can be bounded, busy with other work, or even the one the search itself runs on, the calling
+     * thread processes whatever chunks no thread of the {@link Executor} picked up. Parallel processing found within a
+     * chunk runs sequentially.
+     *
+     * The same applies to {@link Filter} values compared against the entries of an array of at least
+     * <code>pThreshold</code> entries. Parallel processing of the found array does not apply when a result limit is set,
+     * see {@link SearchOptions#withResultLimit(int)}.
+     *
+     * @param pExecutor - Where to run the chunks, <code>null</code> to turn parallel processing off
+     * @param pThreshold - Minimum number of array entries to go parallel, at least 2
+     * @return - A new {@code SearchOptions} with parallel processing configured as requested
+     * @throws IllegalArgumentException - If <code>pThreshold</code> is less than 2
+     */
+    public SearchOptions withParallelExecution(Executor pExecutor, int pThreshold) {
+        if (null == pExecutor) {
+            return of(flags, resultLimit, null, 0, timeoutNanos, nodeVisitBudget, resultBudget);
+        }
+        if (pThreshold < MIN_PARALLEL_THRESHOLD) {
+            throw new IllegalArgumentException("The parallel threshold must be at least " + MIN_PARALLEL_THRESHOLD
+                    + ": " + pThreshold);
+        }
+        return of(flags, resultLimit, pExecutor, pThreshold, timeoutNanos, nodeVisitBudget, resultBudget);
+    }
+
+
+    /**
+     * Bounds how long a search may take. The clock starts when the search begins, and is checked as the search goes
+     * through search path nodes, array entries and target elements, and also while regular expressions get evaluated
+     * (see {@link Context#FOUND_ELEM_VAL_IS_REGEX}). A search that runs past it stops with a
+     * {@link SearchBudgetExceededException}, whose reason is {@link SearchBudgetExceededException.Reason#TIMEOUT}.
+     *
+     * @param pTimeout - How long the search may take, 0 means no timeout
+     * @param pUnit - Unit of <code>pTimeout</code>
+     * @return - A new {@code SearchOptions} with the given timeout
+     * @throws IllegalArgumentException - If <code>pTimeout</code> is negative
+     */
+    public SearchOptions withTimeout(long pTimeout, TimeUnit pUnit) {
+        return of(flags, resultLimit, parallelExecutor, parallelThreshold,
+                pUnit.toNanos(validBudget(pTimeout, "timeout")), nodeVisitBudget, resultBudget);
+    }
+
+
+    /**
+     * Bounds the work a search may do, measured as the number of search path nodes, array entries, descendants and target
+     * elements it processes. A search that goes over it stops with a {@link SearchBudgetExceededException}, whose reason
+     * is {@link SearchBudgetExceededException.Reason#NODE_VISIT_BUDGET}. Unlike a timeout, the outcome does not depend on
+     * how busy the machine is.
+     *
+     * @param pBudget - Maximum number of nodes to visit, 0 means no budget
+     * @return - A new {@code SearchOptions} with the given node visit budget
+     * @throws IllegalArgumentException - If <code>pBudget</code> is negative
+     */
+    public SearchOptions withNodeVisitBudget(long pBudget) {
+        return of(flags, resultLimit, parallelExecutor, parallelThreshold, timeoutNanos,
+                validBudget(pBudget, "node visit budget"), resultBudget);
+    }
+
+
+    /**
+     * Bounds the number of results a search may gather. As opposed to {@link SearchOptions#withResultLimit(int)}, which
+     * quietly stops at the given number of results because that's all the caller wants, going over this budget is an
+     * error: the search stops with a {@link SearchBudgetExceededException}, whose reason is
+     * {@link SearchBudgetExceededException.Reason#RESULT_BUDGET}, and whose partial result holds the results gathered
+     * up to the budget.
+     *
+     * @param pBudget - Maximum number of results, 0 means no budget
+     * @return - A new {@code SearchOptions} with the given result budget
+     * @throws IllegalArgumentException - If <code>pBudget</code> is negative
+     */
+    public SearchOptions withResultBudget(int pBudget) {
+        return of(flags, resultLimit, parallelExecutor, parallelThreshold, timeoutNanos, nodeVisitBudget,
+                (int) validBudget(pBudget, "result budget"));
+    }
+
+
+    private static long validBudget(long pBudget, String pWhat) {
+        if (pBudget < 0) {
+            throw new IllegalArgumentException("The " + pWhat + " can't be negative: " + pBudget);
+        }
+        return pBudget;
+    }
+
+
+    private SearchOptions withFlag(int pFlag, boolean pOn) {
+        int newFlags = pOn ? (flags | pFlag) : (flags & ~pFlag);
+        return newFlags == flags ? this : copy(newFlags, resultLimit);
+    }
+
+
+    private static int validResultLimit(int pLimit) {
+        if (pLimit < 0) {
+            throw new IllegalArgumentException("The result limit can't be negative: " + pLimit);
+        }
+        return pLimit;
+    }
+
+
+    /**
+     * Options are equal when they hold the same values. The {@link Executor} given to
+     * {@link SearchOptions#withParallelExecution(Executor, int)} only says where the work runs, hence it is left out,
+     * what counts is whether parallel processing is on, and from which array size.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SearchOptions)) {
+            return false;
+        }
+        SearchOptions that = (SearchOptions) o;
+        return flags == that.flags && resultLimit == that.resultLimit && parallelThreshold == that.parallelThreshold
+                && timeoutNanos == that.timeoutNanos && nodeVisitBudget == that.nodeVisitBudget
+                && resultBudget == that.resultBudget;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(flags, resultLimit, parallelThreshold, timeoutNanos, nodeVisitBudget, resultBudget);
+    }
+
+    @Override
+    public String toString() {
+        String str = toMap().toString();
+        return null == parallelExecutor ? str : str + " (parallel threshold " + parallelThreshold + ")";
+    }
+}
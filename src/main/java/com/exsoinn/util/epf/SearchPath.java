@@ -4,17 +4,15 @@ import net.jcip.annotations.Immutable;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
 
 /**
- * Provides unmodifiable instance of {@code SearchPath} objects, via the {@link SearchPath#valueOf(String)} constructor. Once
- * constructed, you can traverse the nodes by invoking {@link SearchPath#advanceToNextNode()}. If already at last node
- * and you invoke {@link SearchPath#advanceToNextNode()} again, then it will circle back to the first node. In other words
- * this class is modular in that way, so be mindful of this when you write code that invokes it.
- * Methods such as {@link SearchPath#currentNode()} and {@link SearchPath#isAtEndOfSearchPath()}, allow you to query
- * the current state of the {@code SearchPath} object. Also because this class implements {@link List}, all the read-only
- * methods are available for you to invoke. However invoking methods that modify state will throw
- * {@link UnsupportedOperationException}.
+ * Provides unmodifiable instance of {@code SearchPath} objects, via the {@link SearchPath#valueOf(String)} constructor. The
+ * dot separated tokens are parsed exactly once, when the instance is built, into an immutable array of {@link Node}'s. The
+ * search engine then traverses the nodes by passing around a primitive <code>int</code> cursor (see
+ * {@link SearchPath#node(int)} and {@link SearchPath#isLastNode(int)}), which means that advancing to the next node
+ * of the search path allocates nothing and does not touch any shared state. Also because this class implements
+ * {@link List}, all the read-only methods are available for you to invoke. However invoking methods that modify state
+ * will throw {@link UnsupportedOperationException}.
  *
  * Last but not least, for space efficiency, instances of this class are internally cached.
  *
@@ -23,34 +21,35 @@ import java.util.stream.Collectors;
 @Immutable
 public final class SearchPath implements List<String> {
     private final List<String> searchPath;
+    private final Node[] nodes;
+    private final boolean exact;
     private final String searchPathAsString;
-    private final int currentNodeIndex;
-    private final boolean atEndOfSearchPath;
-    private static final String KEY_SEP = "__";
-    private static final int INIT_SP = -1;
     private final static Map<String, SearchPath> cachedSearchPaths = new ConcurrentHashMap<>();
 
 
-
-    static String generateCacheKey(String pSearchPath, int pIdx, boolean pAtEnd) {
-        StringBuilder key = new StringBuilder();
-        key.append(pSearchPath);
-        key.append(KEY_SEP);
-        key.append(pIdx);
-        key.append(KEY_SEP);
-        key.append(pAtEnd);
-        return key.toString();
-    }
-
-    SearchPath(String pSearchPath, int pNodeIdx, boolean pAtEnd) {
-        if (pNodeIdx < 0 && pAtEnd) {
-            searchPath = Collections.emptyList();
-        } else {
-            searchPath = parseElementSearchPath(pSearchPath);
-        }
+    private SearchPath(String pSearchPath) {
         searchPathAsString = pSearchPath;
-        currentNodeIndex = pNodeIdx;
-        atEndOfSearchPath = pAtEnd;
+        String[] tokens = pSearchPath.split("\\.");
+        /*
+         * An empty token, as in "node1..node2", means the next node gets searched for at any depth, see
+         * Node#isDescendant(). It does not become a node of its own.
+         */
+        List<Node> nodeList = new ArrayList<>(tokens.length);
+        boolean descendant = false;
+        boolean multiMatch = false;
+        for (int i = 0; i < tokens.length; i++) {
+            if (tokens[i].isEmpty() && i < tokens.length - 1) {
+                descendant = true;
+                continue;
+            }
+            Node n = new Node(tokens[i], descendant);
+            multiMatch |= n.isMultiMatch();
+            nodeList.add(n);
+            descendant = false;
+        }
+        nodes = nodeList.toArray(new Node[0]);
+        exact = !multiMatch;
+        searchPath = Collections.unmodifiableList(Arrays.asList(tokens));
     }
 
 
@@ -62,17 +61,21 @@ public final class SearchPath implements List<String> {
      * The search path specifies what information in the underlying hierarchical data the caller is interested in finding. Notice in the
      * example above one of the tokens contains square brackets. This is used to indicate if an array-like structure will
      * be encountered somewhere along the search path.
+     *
+     * A search path can also select several elements at once, for example "store.book[*].title", "store.book[0,3]",
+     * "store.book[2:10]", "store.*.price" or "store..price", see {@link Node} for the details.
      * @param pSearchPath - pSearchPath
      * @return - TODO
      */
     public static SearchPath valueOf(final String pSearchPath) {
-        final boolean atEnd = false;
-        String key = generateCacheKey(pSearchPath, INIT_SP, atEnd);
-        SearchPath sp = cachedSearchPaths.get(key);
+        SearchPath sp = cachedSearchPaths.get(pSearchPath);
         if (null == sp) {
-            sp = new SearchPath(pSearchPath, INIT_SP, atEnd);
-            SearchPath spFromCache = cachedSearchPaths.putIfAbsent(key, sp);
+            SearchMetricsRegistry.get().cacheMiss(SearchMetrics.Cache.SEARCH_PATH);
+            sp = new SearchPath(pSearchPath);
+            SearchPath spFromCache = cachedSearchPaths.putIfAbsent(pSearchPath, sp);
             sp = (null == spFromCache) ? sp : spFromCache;
+        } else {
+            SearchMetricsRegistry.get().cacheHit(SearchMetrics.Cache.SEARCH_PATH);
         }
 
         return sp;
@@ -80,61 +83,48 @@ public final class SearchPath implements List<String> {
 
 
     /**
-     * Traverses the {@code SearchPath} object in circular/modular manner, meaning that when you have reached
-     * the last node by advancing, if you invoke {@link SearchPath#advanceToNextNode()} again it will go back
-     * to first note. This means you can traverse the {@code SearchPath} object indefinitely.
-     * @return - TODO
+     * Gives the pre-parsed node found at position <code>pIdx</code> of this search path. The search engine keeps
+     * track of where it is in the search path with a plain <code>int</code> cursor, and uses this method to look up
+     * the node that cursor points to.
+     * @param pIdx - Zero based position of the node
+     * @return - The {@link Node} at the given position
      */
-    final SearchPath advanceToNextNode() {
-        /*
-         * If this go around is advancing to the last node in search path, set "atEndOfSearchPath"
-         * to true. If we've already advanced to last node, and are trying to advance again, set
-         * current index to -1. That's the reason why we're "pre-checking" the effect of advancing to
-         * next node index via "(currentNodeIndex + 1) <= searchPath.size()-1"
-         */
-        int nextNodeIdx = (currentNodeIndex + 1) <= searchPath.size()-1 ? (currentNodeIndex + 1) : -1 ;
+    final Node node(int pIdx) {
+        return nodes[pIdx];
+    }
 
-        /**
-         * Set flag which indicates that this time we advanced to last node of search path. If caller again
-         * invokes advanceToNextNode() after having already advanced to last node, then "atEnd" gets set to false and
-         * again you can traverse the search path object.
-         */
-        boolean atEnd = (nextNodeIdx >= searchPath.size()-1);
 
-        String key = generateCacheKey(searchPathAsString, nextNodeIdx, atEnd);
-        SearchPath sp = cachedSearchPaths.get(key);
-        if (null == sp) {
-            sp = new SearchPath(searchPathAsString, nextNodeIdx, atEnd);
-            SearchPath spFromCache = cachedSearchPaths.putIfAbsent(key, sp);
-            sp = (null == spFromCache) ? sp : spFromCache;
-        }
-        return sp;
+    /**
+     * Tells if the cursor value given points to the last node of this search path.
+     * @param pIdx - Zero based position of the node
+     * @return - <code>true</code> if <code>pIdx</code> is the last node, <code>false</code> otherwise
+     */
+    final boolean isLastNode(int pIdx) {
+        return pIdx == nodes.length - 1;
     }
 
 
-    public String lastNode() {
-        return searchPath.get(searchPath.size() - 1);
+    /**
+     * @return - How many nodes this search path has. Can be fewer than {@link SearchPath#size()}, because the empty
+     *   tokens that denote recursive descent do not count as nodes
+     */
+    final int nodeCount() {
+        return nodes.length;
     }
 
-    public static void main(String[] args) {
-        SearchPath sp = valueOf("node1.node2.node3.node4");
-        SearchPath newSp = sp.advanceToNextNode();
-        newSp = newSp.advanceToNextNode();
-        newSp = newSp.advanceToNextNode();
-        newSp = newSp.advanceToNextNode();
-        newSp = newSp.advanceToNextNode();
-        newSp = newSp.advanceToNextNode();
-        newSp = newSp.advanceToNextNode();
-        newSp = newSp.advanceToNextNode();
-        newSp = newSp.advanceToNextNode();
-    }
 
-    final String currentNode() {
-        return get(currentNodeIndex);
+    /**
+     * Tells if this search path selects at most one element, in other words it contains no wildcards, recursive
+     * descent, index lists or slices. Such search paths get resolved by a simpler, faster walk.
+     * @return - <code>true</code> if every node of this search path selects a single element
+     */
+    final boolean isExact() {
+        return exact;
     }
 
-    final int currentNodeIndex() {
-        return currentNodeIndex;
+
+    public String lastNode() {
+        return searchPath.get(searchPath.size() - 1);
     }
 
     @Override
@@ -273,12 +263,208 @@ public final class SearchPath implements List<String> {
         return searchPath.hashCode();
     }
 
-    private static List<String> parseElementSearchPath(String pElemSearchPath) {
-        String[] nodes = pElemSearchPath.split("\\.");
-        return Arrays.stream(nodes).collect(Collectors.toCollection(() -> new ArrayList<>(nodes.length)));
-    }
 
-    boolean isAtEndOfSearchPath() {
-        return atEndOfSearchPath;
+    /**
+     * A single node (dot separated token) of a {@link SearchPath}, parsed once up front. It holds the node name with any
+     * square brackets removed, and what array entries the square brackets select, if any. Besides a single index,
+     * a node can select several members and/or array entries at once:
+     * <ul>
+     *     <li><code>name[*]</code> - All the entries of the array</li>
+     *     <li><code>name[0,3]</code> - The entries at the listed indexes, in the order listed</li>
+     *     <li><code>name[2:10]</code> - The entries from index 2 inclusive to 10 exclusive, either bound can be left
+     *     out</li>
+     *     <li><code>*</code> - Every member of the current element</li>
+     *     <li><code>..name</code> - Member <code>name</code> found at any depth below the current element, as opposed
+     *     to only amongst its direct members</li>
+     * </ul>
+     * Out of range indexes are simply skipped when selecting multiple entries.
+     */
+    @Immutable
+    static final class Node {
+        private static final int NO_INDEX = -1;
+        static final String WILDCARD = "*";
+        private static final int SELECT_NONE = 0;
+        private static final int SELECT_INDEX = 1;
+        private static final int SELECT_ALL = 2;
+        private static final int SELECT_LIST = 3;
+        private static final int SELECT_SLICE = 4;
+        private static final int[] NO_INDEXES = new int[0];
+
+        private final String token;
+        private final String name;
+        private final boolean descendant;
+        private final int selector;
+        private final int arrayIndex;
+        private final int sliceEnd;
+        private final int[] indexList;
+        private final boolean validArrayIndex;
+
+        private Node(String pToken, boolean pDescendant) {
+            token = pToken;
+            descendant = pDescendant;
+            int open = pToken.indexOf('[');
+            int sel = SELECT_NONE;
+            int idx = NO_INDEX;
+            int end = NO_INDEX;
+            int[] idxList = NO_INDEXES;
+            boolean valid = true;
+            if (open < 0) {
+                name = pToken;
+            } else {
+                name = pToken.substring(0, open);
+                try {
+                    String content = pToken.substring(open + 1, pToken.indexOf(']')).trim();
+                    if (WILDCARD.equals(content)) {
+                        sel = SELECT_ALL;
+                    } else if (content.indexOf(':') >= 0) {
+                        sel = SELECT_SLICE;
+                        String from = content.substring(0, content.indexOf(':')).trim();
+                        String to = content.substring(content.indexOf(':') + 1).trim();
+                        idx = from.isEmpty() ? 0 : nonNegative(Integer.parseInt(from));
+                        end = to.isEmpty() ? Integer.MAX_VALUE : nonNegative(Integer.parseInt(to));
+                    } else if (content.indexOf(',') >= 0) {
+                        sel = SELECT_LIST;
+                        String[] idxStrs = content.split(",");
+                        idxList = new int[idxStrs.length];
+                        for (int i = 0; i < idxStrs.length; i++) {
+                            idxList[i] = nonNegative(Integer.parseInt(idxStrs[i].trim()));
+                        }
+                    } else {
+                        sel = SELECT_INDEX;
+                        idx = Integer.parseInt(content);
+                    }
+                } catch (RuntimeException e) {
+                    /*
+                     * Don't fail when building the search path, some callers construct SearchPath's from arbitrary
+                     * member names. The error gets reported if and when this node is actually used in a search.
+                     */
+                    sel = SELECT_INDEX;
+                    valid = false;
+                }
+            }
+            selector = sel;
+            arrayIndex = idx;
+            sliceEnd = end;
+            indexList = idxList;
+            validArrayIndex = valid;
+        }
+
+        private static int nonNegative(int pIdx) {
+            if (pIdx < 0) {
+                throw new NumberFormatException("Negative array index " + pIdx);
+            }
+            return pIdx;
+        }
+
+        /**
+         * @return - The node exactly as given in the search path string, square brackets included
+         */
+        String token() {
+            return token;
+        }
+
+        /**
+         * @return - The node name without square brackets
+         */
+        String name() {
+            return name;
+        }
+
+        /**
+         * @return - The integer contained within square brackets, -1 if no brackets found, or if the brackets select
+         *   multiple entries.
+         * @throws NumberFormatException - If the content between brackets is not valid
+         */
+        int arrayIndex() throws NumberFormatException {
+            checkValid();
+            return selector == SELECT_INDEX ? arrayIndex : NO_INDEX;
+        }
+
+        /**
+         * @return - <code>true</code> if this node was preceded by "..", meaning that it selects matching members
+         *   found at any depth
+         */
+        boolean isDescendant() {
+            return descendant;
+        }
+
+        /**
+         * @return - <code>true</code> if this node selects every member, regardless of name
+         */
+        boolean isMemberWildcard() {
+            return WILDCARD.equals(name);
+        }
+
+        /**
+         * @return - <code>true</code> if this node has square brackets
+         */
+        boolean hasArraySelector() {
+            return selector != SELECT_NONE;
+        }
+
+        /**
+         * @return - <code>true</code> if this node can select more than one element
+         */
+        boolean isMultiMatch() {
+            return descendant || isMemberWildcard() || selector == SELECT_ALL || selector == SELECT_LIST
+                    || selector == SELECT_SLICE;
+        }
+
+        /**
+         * @param pArySize - Size of the array the square brackets get applied to
+         * @return - How many entries of an array of the given size this node selects
+         * @throws NumberFormatException - If the content between brackets is not valid
+         */
+        int selectedCount(int pArySize) throws NumberFormatException {
+            checkValid();
+            switch (selector) {
+                case SELECT_INDEX:
+                    return arrayIndex >= 0 && arrayIndex < pArySize ? 1 : 0;
+                case SELECT_ALL:
+                    return pArySize;
+                case SELECT_SLICE:
+                    return Math.max(0, Math.min(sliceEnd, pArySize) - Math.min(arrayIndex, pArySize));
+                case SELECT_LIST:
+                    int cnt = 0;
+                    for (int i : indexList) {
+                        if (i < pArySize) {
+                            cnt++;
+                        }
+                    }
+                    return cnt;
+                default:
+                    return 0;
+            }
+        }
+
+        /**
+         * @param pNth - Zero based, less than {@link Node#selectedCount(int)}
+         * @param pArySize - Size of the array the square brackets get applied to
+         * @return - The array index of the <code>pNth</code> entry selected by this node
+         */
+        int selectedIndex(int pNth, int pArySize) {
+            switch (selector) {
+                case SELECT_INDEX:
+                    return arrayIndex;
+                case SELECT_SLICE:
+                    return arrayIndex + pNth;
+                case SELECT_LIST:
+                    int n = 0;
+                    for (int i : indexList) {
+                        if (i < pArySize && n++ == pNth) {
+                            return i;
+                        }
+                    }
+                    throw new IndexOutOfBoundsException(String.valueOf(pNth));
+                default:
+                    return pNth;
+            }
+        }
+
+        private void checkValid() {
+            if (!validArrayIndex) {
+                throw new NumberFormatException("Invalid array index in search path node '" + token + "'");
+            }
+        }
     }
 }
@@ -0,0 +1,41 @@
+package com.exsoinn.util.epf;
+
+/**
+ * The {@link IllegalArgumentException} that the search engine throws to wrap an {@link IncompatibleSearchPathException} or
+ * an {@link UnexpectedArrayNodeException}. The public method signatures only declare {@link IllegalArgumentException}, hence the
+ * wrapping. Constructing the wrapper via {@link IllegalArgumentException#IllegalArgumentException(Throwable)} would
+ * immediately invoke <code>toString()</code> on the cause, which defeats the lazily built message of the cause.
+ * Instead this class asks the cause for its message only when somebody asks for the message of the wrapper.
+ *
+ * Filling in the stack trace is most of the cost of a miss, so it can be skipped, see
+ * {@link Context#OMIT_MISS_STACK_TRACE}. {@link IllegalArgumentException} offers no constructor for that, hence
+ * {@link SearchPathMissException#fillInStackTrace()} does nothing, and the constructor fills the stack trace in itself
+ * when asked to.
+ */
+final class SearchPathMissException extends IllegalArgumentException {
+    private static final StackTraceElement[] NO_STACK_TRACE = new StackTraceElement[0];
+
+
+    SearchPathMissException(Exception pCause, boolean pWritableStackTrace) {
+        super((String) null, pCause);
+        if (pWritableStackTrace) {
+            super.fillInStackTrace();
+        } else {
+            setStackTrace(NO_STACK_TRACE);
+        }
+    }
+
+    @Override
+    public String getMessage() {
+        return getCause().toString();
+    }
+
+    /**
+     * Does nothing, since {@link Throwable} invokes this before the constructor of this class gets to say whether the
+     * stack trace is wanted
+     */
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
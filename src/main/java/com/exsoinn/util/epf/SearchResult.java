@@ -5,32 +5,70 @@ import com.exsoinn.util.DnbBusinessObject;
 import java.util.*;
 
 /**
+ * Unmodifiable {@link Map} of the results of a {@link Context} search. The results are kept in the order in which they
+ * were found, hence {@link SearchResult#firstResult()} always gives back the same element for the same search, and
+ * iterating over the {@link Map} views visits the results in that same order.
+ *
+ * The backing {@link Map} is built just once, when the {@code SearchResult} is created, and the views returned by
+ * {@link SearchResult#keySet()}, {@link SearchResult#values()} and {@link SearchResult#entrySet()} are read-only views
+ * over it, as opposed to copies. Because the overwhelming majority of searches produce only one or two results,
+ * those cases get stored in compact structures, no hash table needed.
+ *
  * Created by QuijadaJ on 5/3/2017.
  */
 public final class SearchResult implements Map<String, Context>, DnbBusinessObject {
+    private static final SearchResult EMPTY = new SearchResult(Collections.emptyMap());
 
     private final Map<String, Context> m;
 
     private SearchResult(Map<String, Context> pResult) {
-        /*
-         * Defensively copying passed in Map to enforce immutability.
-         */
-        m = new HashMap<>(pResult);
+        m = pResult;
     }
 
     public Context firstResult() {
-        if (null == m || m.isEmpty()) {
+        if (m.isEmpty()) {
             return null;
         }
-        return m.entrySet().iterator().next().getValue();
+        return m.values().iterator().next();
     }
 
     public static SearchResult emptySearchResult() {
-        return new SearchResult(Collections.emptyMap());
+        return EMPTY;
     }
 
+    /**
+     * Creates a {@code SearchResult} out of the given {@link Map}. The entries get copied to enforce immutability, in
+     * the iteration order of <code>pResult</code>.
+     *
+     * @param pResult - The results
+     * @return - A {@code SearchResult} containing the same entries as <code>pResult</code>
+     */
     public static SearchResult createSearchResult(Map<String, Context> pResult) {
-        return new SearchResult(pResult);
+        return fromOwnedMap(new LinkedHashMap<>(pResult));
+    }
+
+    /**
+     * Meant for the search engine, which builds a brand new {@link Map} for every search and never touches it again once
+     * the search is done. This {@code SearchResult} takes over the passed in {@link Map} instead of copying it,
+     * so the caller must not modify it afterwards.
+     */
+    static SearchResult fromOwnedMap(Map<String, Context> pResult) {
+        switch (pResult.size()) {
+            case 0:
+                return EMPTY;
+            case 1: {
+                Entry<String, Context> e = pResult.entrySet().iterator().next();
+                return new SearchResult(Collections.singletonMap(e.getKey(), e.getValue()));
+            }
+            case 2: {
+                Iterator<Entry<String, Context>> it = pResult.entrySet().iterator();
+                Entry<String, Context> e1 = it.next();
+                Entry<String, Context> e2 = it.next();
+                return new SearchResult(new PairMap(e1.getKey(), e1.getValue(), e2.getKey(), e2.getValue()));
+            }
+            default:
+                return new SearchResult(Collections.unmodifiableMap(pResult));
+        }
     }
 
     @Override
@@ -80,17 +118,17 @@ public final class SearchResult implements Map<String, Context>, DnbBusinessObje
 
     @Override
     public Set<String> keySet() {
-        return new HashSet<>(m.keySet());
+        return m.keySet();
     }
 
     @Override
     public Collection<Context> values() {
-        return new ArrayList<>(m.values());
+        return m.values();
     }
 
     @Override
     public Set<Entry<String, Context>> entrySet() {
-        return new HashSet<>(m.entrySet());
+        return m.entrySet();
     }
 
     @Override
@@ -99,4 +137,71 @@ public final class SearchResult implements Map<String, Context>, DnbBusinessObje
     }
 
 
+    /*
+     * Read-only Map of exactly two entries, in the order given. The AbstractMap views are read-only already, because
+     * the entry set iterator does not support remove() and the entries themselves are immutable.
+     */
+    private static final class PairMap extends AbstractMap<String, Context> {
+        private final String key1;
+        private final Context val1;
+        private final String key2;
+        private final Context val2;
+        private final Set<Entry<String, Context>> entrySet = new AbstractSet<Entry<String, Context>>() {
+            @Override
+            public Iterator<Entry<String, Context>> iterator() {
+                return new Iterator<Entry<String, Context>>() {
+                    private int idx = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return idx < 2;
+                    }
+
+                    @Override
+                    public Entry<String, Context> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        return idx++ == 0 ? new SimpleImmutableEntry<>(key1, val1)
+                                : new SimpleImmutableEntry<>(key2, val2);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return 2;
+            }
+        };
+
+        private PairMap(String pKey1, Context pVal1, String pKey2, Context pVal2) {
+            key1 = pKey1;
+            val1 = pVal1;
+            key2 = pKey2;
+            val2 = pVal2;
+        }
+
+        @Override
+        public int size() {
+            return 2;
+        }
+
+        @Override
+        public boolean containsKey(Object pKey) {
+            return Objects.equals(key1, pKey) || Objects.equals(key2, pKey);
+        }
+
+        @Override
+        public Context get(Object pKey) {
+            if (Objects.equals(key1, pKey)) {
+                return val1;
+            }
+            return Objects.equals(key2, pKey) ? val2 : null;
+        }
+
+        @Override
+        public Set<Entry<String, Context>> entrySet() {
+            return entrySet;
+        }
+    }
 }
@@ -3,6 +3,7 @@ package com.exsoinn.util.epf;
 
 import net.jcip.annotations.Immutable;
 
+import java.util.Objects;
 import java.util.regex.Pattern;
 
 /**
@@ -99,6 +100,28 @@ public final class SelectionCriteria {
         return filter;
     }
 
+    /**
+     * Two {@code SelectionCriteria} are equal if their {@link SearchPath}, {@link Filter} and {@link TargetElements} are,
+     * hence criteria parsed from the same string more than once are equal
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SelectionCriteria)) {
+            return false;
+        }
+        SelectionCriteria that = (SelectionCriteria) o;
+        return Objects.equals(searchPath, that.searchPath) && Objects.equals(filter, that.filter)
+                && Objects.equals(targetElements, that.targetElements);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(searchPath, filter, targetElements);
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
@@ -0,0 +1,284 @@
+package com.exsoinn.util.epf;
+
+import net.jcip.annotations.Immutable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Opt-in recorder of slow searches, meant to find out which of many selection criteria deserve optimizing. Every search
+ * that takes at least the threshold gets recorded, along with a sample of the other searches, if a sampling rate was
+ * given, so that what is normal is known too. Each record holds the selection criteria, in its
+ * {@link SelectionCriteria#specialCharactersConverted()} form, the time the search took, the number of results, and the
+ * size of the searched document.
+ *
+ * Records go into a ring buffer of fixed capacity, which once full overwrites its oldest records, hence memory use is
+ * bounded no matter how many searches are slow. The buffer can be read at any time, see {@link SlowQueryLog#snapshot()}
+ * and {@link SlowQueryLog#dump(Appendable)}, for example by a monitoring system that scrapes it every so often.
+ *
+ * The log gets the searches via {@link SearchMetrics}, hence is turned on with
+ * {@link SearchMetricsRegistry#register(SearchMetrics)}, alongside any other implementation installed, and off with
+ * {@link SearchMetricsRegistry#unregister(SearchMetrics)}. Searches that are neither slow nor sampled cost a clock read
+ * and a comparison. Only recorded searches pay for sizing the document, see {@link Context#stats()}, which is done
+ * after the search completes, does not count towards its time, and for immutable documents happens only once.
+ */
+public final class SlowQueryLog implements SearchMetrics {
+    private final long thresholdNanos;
+    private final double samplingRate;
+    private final AtomicReferenceArray<Entry> entries;
+    private final AtomicLong recordCnt = new AtomicLong();
+
+
+    private SlowQueryLog(long pThresholdNanos, int pCapacity, double pSamplingRate) {
+        thresholdNanos = pThresholdNanos;
+        entries = new AtomicReferenceArray<>(pCapacity);
+        samplingRate = pSamplingRate;
+    }
+
+
+    /**
+     * @param pThreshold - Searches that take at least this long get recorded
+     * @param pUnit - Unit of <code>pThreshold</code>
+     * @param pCapacity - Maximum number of records kept
+     * @return - A {@code SlowQueryLog} which samples no other searches
+     * @throws IllegalArgumentException - If <code>pThreshold</code> is negative, or <code>pCapacity</code> is not
+     *   positive
+     */
+    public static SlowQueryLog of(long pThreshold, TimeUnit pUnit, int pCapacity) {
+        return of(pThreshold, pUnit, pCapacity, 0.0);
+    }
+
+
+    /**
+     * @param pSamplingRate - Fraction of the searches faster than the threshold that get recorded anyway, from 0 for
+     *   none, to 1 for all of them
+     * @throws IllegalArgumentException - Same as {@link SlowQueryLog#of(long, TimeUnit, int)}, and if
+     *   <code>pSamplingRate</code> is not between 0 and 1
+     */
+    public static SlowQueryLog of(long pThreshold, TimeUnit pUnit, int pCapacity, double pSamplingRate) {
+        if (pThreshold < 0) {
+            throw new IllegalArgumentException("The threshold can't be negative: " + pThreshold);
+        }
+        if (pCapacity <= 0) {
+            throw new IllegalArgumentException("The capacity must be positive: " + pCapacity);
+        }
+        if (!(pSamplingRate >= 0.0 && pSamplingRate <= 1.0)) {
+            throw new IllegalArgumentException("The sampling rate must be between 0 and 1: " + pSamplingRate);
+        }
+        return new SlowQueryLog(pUnit.toNanos(pThreshold), pCapacity, pSamplingRate);
+    }
+
+
+    /**
+     * A recorded search
+     */
+    @Immutable
+    public static final class Entry {
+        private final long sequence;
+        private final long timestampMillis;
+        private final String criteria;
+        private final long nanos;
+        private final int results;
+        private final String error;
+        private final boolean sampled;
+        private final long documentNodes;
+        private final int documentDepth;
+
+        private Entry(long pSequence,
+                      String pCriteria,
+                      long pNanos,
+                      int pResults,
+                      String pError,
+                      boolean pSampled,
+                      long pDocumentNodes,
+                      int pDocumentDepth) {
+            sequence = pSequence;
+            timestampMillis = System.currentTimeMillis();
+            criteria = pCriteria;
+            nanos = pNanos;
+            results = pResults;
+            error = pError;
+            sampled = pSampled;
+            documentNodes = pDocumentNodes;
+            documentDepth = pDocumentDepth;
+        }
+
+        /**
+         * @return - Position of this record among all the records made by the log, starting at 0
+         */
+        public long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * @return - When the search completed, see {@link System#currentTimeMillis()}
+         */
+        public long getTimestampMillis() {
+            return timestampMillis;
+        }
+
+        /**
+         * @return - The selection criteria, see {@link SelectionCriteria#specialCharactersConverted()}
+         */
+        public String getCriteria() {
+            return criteria;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * @return - Number of results, 0 if the search failed
+         */
+        public int getResults() {
+            return results;
+        }
+
+        /**
+         * @return - What the search threw, <code>null</code> if it completed
+         */
+        public String getError() {
+            return error;
+        }
+
+        /**
+         * @return - <code>true</code> if the search was recorded by sampling, as opposed to for being slow
+         */
+        public boolean isSampled() {
+            return sampled;
+        }
+
+        /**
+         * @return - Number of nodes of the searched document: complex objects, arrays and primitives
+         */
+        public long getDocumentNodes() {
+            return documentNodes;
+        }
+
+        /**
+         * @return - How deeply nested the searched document is, 1 for a lone primitive
+         */
+        public int getDocumentDepth() {
+            return documentDepth;
+        }
+
+        /**
+         * @return - The fields of this record, tab separated, in the order of the getters, error last
+         */
+        @Override
+        public String toString() {
+            return sequence + "\t" + timestampMillis + "\t" + criteria + "\t" + nanos + "\t" + results + "\t"
+                    + (sampled ? "sampled" : "slow") + "\t" + documentNodes + "\t" + documentDepth
+                    + (null == error ? "" : "\t" + error);
+        }
+    }
+
+
+    @Override
+    public void searchCompleted(Context pContext,
+                                SearchPath pSearchPath,
+                                Filter pFilter,
+                                TargetElements pTargetElements,
+                                long pNanos,
+                                long pNodesVisited,
+                                long pFilterComparisons,
+                                int pResults) {
+        record(pContext, pSearchPath, pFilter, pTargetElements, pNanos, pResults, null);
+    }
+
+
+    @Override
+    public void searchFailed(Context pContext,
+                             SearchPath pSearchPath,
+                             Filter pFilter,
+                             TargetElements pTargetElements,
+                             long pNanos,
+                             RuntimeException pError) {
+        record(pContext, pSearchPath, pFilter, pTargetElements, pNanos, 0, pError.toString());
+    }
+
+
+    private void record(Context pContext,
+                        SearchPath pSearchPath,
+                        Filter pFilter,
+                        TargetElements pTargetElements,
+                        long pNanos,
+                        int pResults,
+                        String pError) {
+        boolean sampled = pNanos < thresholdNanos;
+        if (sampled && (samplingRate == 0.0 || ThreadLocalRandom.current().nextDouble() >= samplingRate)) {
+            return;
+        }
+        ContextStats stats = pContext.stats();
+        long seq = recordCnt.getAndIncrement();
+        entries.set((int) (seq % entries.length()), new Entry(seq,
+                SelectionCriteria.fromObjects(pSearchPath, pFilter, pTargetElements).specialCharactersConverted(),
+                pNanos, pResults, pError, sampled, stats.getNodeCount(), stats.getMaxDepth()));
+    }
+
+
+    /**
+     * @return - The records currently held, oldest first
+     */
+    public List<Entry> snapshot() {
+        List<Entry> l = new ArrayList<>(entries.length());
+        for (int i = 0; i < entries.length(); i++) {
+            Entry e = entries.get(i);
+            if (null != e) {
+                l.add(e);
+            }
+        }
+        l.sort(Comparator.comparingLong(Entry::getSequence));
+        return l;
+    }
+
+
+    /**
+     * Writes the records currently held, oldest first, one per line, see {@link Entry#toString()}
+     */
+    public void dump(Appendable pOut) throws IOException {
+        for (Entry e : snapshot()) {
+            pOut.append(e.toString()).append('\n');
+        }
+    }
+
+
+    /**
+     * @return - Number of searches recorded since the log was created, including those whose records were overwritten
+     */
+    public long getRecordedCount() {
+        return recordCnt.get();
+    }
+
+
+    /**
+     * Discards the records currently held
+     */
+    public void clear() {
+        for (int i = 0; i < entries.length(); i++) {
+            entries.set(i, null);
+        }
+    }
+
+
+    public long getThresholdNanos() {
+        return thresholdNanos;
+    }
+
+
+    public double getSamplingRate() {
+        return samplingRate;
+    }
+
+
+    public int getCapacity() {
+        return entries.length();
+    }
+}
@@ -5,7 +5,6 @@ import net.jcip.annotations.Immutable;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
 
 /**
  * Encapsulates a set of elements to return from a {@link Context} search. As a performance optimization,
@@ -35,12 +34,15 @@ public final class TargetElements extends ForwardingImmutableSet<String> {
         }
         TargetElements cachedList = cachedLists.get(pTargetElems);
         if (null == cachedList) {
+            SearchMetricsRegistry.get().cacheMiss(SearchMetrics.Cache.TARGET_ELEMENTS);
             final Set<String> elems = parseTargetElements(pTargetElems);
             TargetElements newList = new TargetElements(elems);
             cachedList = cachedLists.putIfAbsent(pTargetElems, newList);
             if (null == cachedList) {
                 cachedList = newList;
             }
+        } else {
+            SearchMetricsRegistry.get().cacheHit(SearchMetrics.Cache.TARGET_ELEMENTS);
         }
 
         return cachedList;
@@ -50,7 +52,7 @@ public final class TargetElements extends ForwardingImmutableSet<String> {
         if (null == pTargetElems) {
             return null;
         }
-        return TargetElements.valueOf(pTargetElems.parallelStream().collect(Collectors.joining(",")));
+        return TargetElements.valueOf(String.join(",", pTargetElems));
     }
 
 
@@ -72,8 +74,6 @@ public final class TargetElements extends ForwardingImmutableSet<String> {
 
     @Override
     public String toString() {
-        StringBuilder sb = new StringBuilder();
-        sb.append(targetElementsSet.parallelStream().collect(Collectors.joining(",")));
-        return sb.toString();
+        return String.join(",", targetElementsSet);
     }
 }
@@ -1,23 +1,60 @@
 package com.exsoinn.util.epf;
 
 /**
+ * Thrown when an array node is found in a non-final node of the {@link SearchPath}, yet the {@link SearchPath} did not say
+ * to expect an array there. Same as {@link IncompatibleSearchPathException}, the message is built lazily, the stack trace
+ * can be skipped, and the cause can be given when the exception is built.
+ *
  * Created by QuijadaJ on 9/5/2017.
  */
 public class UnexpectedArrayNodeException extends Exception {
     private final SearchPath searchPath;
     private final String node;
     private final Context context;
+    private volatile String message;
 
+    /**
+     * The cause is left unset, so that it can still be given via {@link Throwable#initCause(Throwable)}
+     */
     public UnexpectedArrayNodeException(SearchPath pSearchPath, String pNode, Context pCtx) {
-        super("Found an array element, yet the search path did not tell me"
-                + " to expect an array element here. The node of search path being processed when error " +
-                "occurred was " + pNode + ", and the element found was " + pCtx.stringRepresentation()
-                + ". The search path was " + pSearchPath.toString());
         searchPath = pSearchPath;
         node = pNode;
         context = pCtx;
     }
 
+    public UnexpectedArrayNodeException(SearchPath pSearchPath, String pNode, Context pCtx, boolean pWritableStackTrace) {
+        this(pSearchPath, pNode, pCtx, null, pWritableStackTrace);
+    }
+
+    /**
+     * @param pCause - What led to the miss, <code>null</code> if nothing in particular
+     * @param pWritableStackTrace - <code>false</code> to skip filling in the stack trace, which is most of the cost of
+     *   building this exception
+     */
+    public UnexpectedArrayNodeException(SearchPath pSearchPath,
+                                        String pNode,
+                                        Context pCtx,
+                                        Throwable pCause,
+                                        boolean pWritableStackTrace) {
+        super(null, pCause, true, pWritableStackTrace);
+        searchPath = pSearchPath;
+        node = pNode;
+        context = pCtx;
+    }
+
+    @Override
+    public String getMessage() {
+        String msg = message;
+        if (null == msg) {
+            msg = "Found an array element, yet the search path did not tell me"
+                    + " to expect an array element here. The node of search path being processed when error " +
+                    "occurred was " + node + ", and the element found was " + context.stringRepresentation()
+                    + ". The search path was " + searchPath.toString();
+            message = msg;
+        }
+        return msg;
+    }
+
     /*
      * Getters
      */
@@ -0,0 +1,229 @@
+package com.exsoinn.util.epf;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+
+/**
+ * {@link SearchMetrics} which emits Java Flight Recorder events, so that the time spent parsing and searching shows up in
+ * recordings, next to GC, I/O and the rest:
+ * <ul>
+ *     <li><code>com.exsoinn.epf.ContextParse</code>, for every {@link Context} the caller asked {@link ContextFactory}
+ *     to build, with the format and length of what was parsed, and the error, if the parse failed</li>
+ *     <li><code>com.exsoinn.epf.Search</code>, for every search, with the selection criteria, the number of results,
+ *     nodes visited and filter comparisons, and the error, if the search failed</li>
+ * </ul>
+ *
+ * The events begin when the parse or search does, see {@link SearchMetrics#parseStarted(Format)} and
+ * {@link SearchMetrics#searchStarted}, and end when it is over, hence their duration is that of the parse or search,
+ * and JFR thresholds apply to them as they do to any other event. In between, the events wait in a per thread stack.
+ *
+ * It gets installed automatically by {@link SearchMetricsRegistry}, being listed in
+ * <code>META-INF/services</code>. The class itself lives under <code>META-INF/versions/11</code> of the library JAR,
+ * hence on older Java the listing leads nowhere, and {@link SearchMetricsRegistry} carries on without it.
+ * {@link JfrSearchMetrics#isEnabled()} answers <code>false</code> unless a recording has at least one of the events
+ * enabled, in which case the engine does none of the per search bookkeeping, and the cost of this class comes down to
+ * checking that on every parse and search.
+ */
+public final class JfrSearchMetrics implements SearchMetrics {
+    private static final String CATEGORY = "Element Path Finder";
+    private static final EventType PARSE_EVENT_TYPE = EventType.getEventType(ContextParseEvent.class);
+    private static final EventType SEARCH_EVENT_TYPE = EventType.getEventType(SearchEvent.class);
+
+    /*
+     * Events begun and not yet committed by the current thread, most recent first. A parse or search that throws an
+     * Error never gets to end its event, nor does a stream search abandoned without being closed, or finished by
+     * another thread. Such an event lingers until an event begun before it ends, or until it becomes the oldest of
+     * more than MAX_PENDING events. Real nesting never goes beyond a search that parses.
+     */
+    private static final int MAX_PENDING = 16;
+    private static final ThreadLocal<Deque<Pending>> pending = ThreadLocal.withInitial(ArrayDeque::new);
+
+
+    @Name("com.exsoinn.epf.ContextParse")
+    @Label("Context Parse")
+    @Category(CATEGORY)
+    @Description("A Context got built out of JSON, XML or other data, or failed to")
+    @StackTrace(false)
+    static final class ContextParseEvent extends Event {
+        @Label("Format")
+        String format;
+
+        @Label("Size")
+        @Description("Number of characters parsed, 0 if the Context was not built out of text")
+        @DataAmount(DataAmount.BYTES)
+        long size;
+
+        @Label("Error")
+        String error;
+    }
+
+
+    @Name("com.exsoinn.epf.Search")
+    @Label("Search")
+    @Category(CATEGORY)
+    @Description("A search of a Context completed or failed")
+    @StackTrace(false)
+    static final class SearchEvent extends Event {
+        @Label("Criteria")
+        String criteria;
+
+        @Label("Results")
+        int results;
+
+        @Label("Nodes Visited")
+        long nodesVisited;
+
+        @Label("Filter Comparisons")
+        long filterComparisons;
+
+        @Label("Error")
+        String error;
+    }
+
+
+    /*
+     * An event begun, along with what tells which parse or search it belongs to
+     */
+    private static final class Pending {
+        private final Event event;
+        private final Object what;
+        private final Object which;
+
+        private Pending(Event pEvent, Object pWhat, Object pWhich) {
+            event = pEvent;
+            what = pWhat;
+            which = pWhich;
+        }
+    }
+
+
+    @Override
+    public boolean isEnabled() {
+        return PARSE_EVENT_TYPE.isEnabled() || SEARCH_EVENT_TYPE.isEnabled();
+    }
+
+
+    @Override
+    public void parseStarted(Format pFormat) {
+        begin(new ContextParseEvent(), pFormat, null);
+    }
+
+
+    @Override
+    public void contextParsed(Format pFormat, long pNanos, long pChars) {
+        ContextParseEvent e = end(ContextParseEvent.class, pFormat, null);
+        if (null == e) {
+            return;
+        }
+        e.format = pFormat.name();
+        e.size = pChars;
+        e.commit();
+    }
+
+
+    @Override
+    public void parseFailed(Format pFormat, long pNanos, RuntimeException pError) {
+        ContextParseEvent e = end(ContextParseEvent.class, pFormat, null);
+        if (null == e) {
+            return;
+        }
+        e.format = pFormat.name();
+        e.error = pError.toString();
+        e.commit();
+    }
+
+
+    @Override
+    public void searchStarted(Context pContext,
+                              SearchPath pSearchPath,
+                              Filter pFilter,
+                              TargetElements pTargetElements) {
+        begin(new SearchEvent(), pContext, pSearchPath);
+    }
+
+
+    @Override
+    public void searchCompleted(Context pContext,
+                                SearchPath pSearchPath,
+                                Filter pFilter,
+                                TargetElements pTargetElements,
+                                long pNanos,
+                                long pNodesVisited,
+                                long pFilterComparisons,
+                                int pResults) {
+        SearchEvent e = end(SearchEvent.class, pContext, pSearchPath);
+        if (null == e) {
+            return;
+        }
+        e.criteria = SelectionCriteria.fromObjects(pSearchPath, pFilter, pTargetElements).toString();
+        e.results = pResults;
+        e.nodesVisited = pNodesVisited;
+        e.filterComparisons = pFilterComparisons;
+        e.commit();
+    }
+
+
+    @Override
+    public void searchFailed(Context pContext,
+                             SearchPath pSearchPath,
+                             Filter pFilter,
+                             TargetElements pTargetElements,
+                             long pNanos,
+                             RuntimeException pError) {
+        SearchEvent e = end(SearchEvent.class, pContext, pSearchPath);
+        if (null == e) {
+            return;
+        }
+        e.criteria = SelectionCriteria.fromObjects(pSearchPath, pFilter, pTargetElements).toString();
+        e.error = pError.toString();
+        e.commit();
+    }
+
+
+    private static void begin(Event pEvent, Object pWhat, Object pWhich) {
+        Deque<Pending> stack = pending.get();
+        if (stack.size() >= MAX_PENDING) {
+            stack.removeLast();
+        }
+        pEvent.begin();
+        stack.push(new Pending(pEvent, pWhat, pWhich));
+    }
+
+
+    /**
+     * @return - The event begun for the parse or search identified by <code>pWhat</code> and <code>pWhich</code>,
+     *   ended, <code>null</code> if there is none, or it should not be committed, for example because it took less
+     *   than the threshold of the recording
+     */
+    private static <T extends Event> T end(Class<T> pType, Object pWhat, Object pWhich) {
+        Deque<Pending> stack = pending.get();
+        Pending p = null;
+        for (Iterator<Pending> it = stack.iterator(); it.hasNext(); ) {
+            Pending candidate = it.next();
+            if (pType.isInstance(candidate.event) && candidate.what == pWhat && candidate.which == pWhich) {
+                p = candidate;
+                break;
+            }
+        }
+        if (null == p) {
+            return null;
+        }
+        Pending top;
+        do {
+            // Events above it were left behind by parses or searches that threw an Error
+            top = stack.pop();
+        } while (top != p);
+        p.event.end();
+        return p.event.shouldCommit() ? pType.cast(p.event) : null;
+    }
+}
@@ -0,0 +1,395 @@
+package com.exsoinn.util.epf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * {@link Flow.Processor} that runs a fixed list of {@link SelectionCriteria} against each document it receives, and
+ * publishes one {@link DocumentResult} per document. Documents can be anything {@link ContextFactory#obtainContext(Object)}
+ * accepts, the bytes of a JSON or XML document encoded in UTF-8, or an already built {@link Context}.
+ *
+ * Documents go through two stages, parsing and then searching, each a task of its own in the {@link Executor} given. Up
+ * to <code>maxInFlight</code> documents are held at the same time, of which no more than <code>maxParsing</code> are
+ * being parsed, and no more than <code>maxSearching</code> are being searched, so that each stage can be given its
+ * share of the executor, see {@link QueryProcessor#of(List, SearchOptions, Executor, int, int, int)}. Documents beyond
+ * the limit of a stage wait their turn in a queue, without holding up a thread. Results are published in the same
+ * order as the documents came in, regardless of the order in which they finish. Backpressure is honored both ways: documents are
+ * requested from upstream only as results are delivered downstream, which means that no more than
+ * <code>maxInFlight</code> documents, counting the ones being processed and the ones already processed but not yet
+ * requested by the subscriber, are held at any given time. Note that because results are published in order, a slow
+ * document holds back the results of the documents that came after it.
+ *
+ * A document that fails, for example because it is not valid JSON or XML, produces a failed {@link DocumentResult},
+ * and the stream goes on. An error signalled by upstream is passed on to the subscriber once the results of the
+ * documents received before it have been published. When the subscriber cancels, the upstream subscription is cancelled
+ * too, and the searches in progress stop shortly after.
+ *
+ * Only one subscriber is supported.
+ *
+ * Lives under <code>META-INF/versions/9</code> of the library JAR, hence it is there on Java 9 and later only.
+ */
+public final class QueryProcessor implements Flow.Processor<Object, DocumentResult> {
+    private final List<SelectionCriteria> criteria;
+    private final SearchOptions options;
+    private final Executor executor;
+    private final int maxInFlight;
+    private final Stage parsing;
+    private final Stage searching;
+    private final SearchGuard guard = new SearchGuard(this::isCancelled);
+
+    private final Queue<CompletableFuture<DocumentResult>> inFlight = new ConcurrentLinkedQueue<>();
+    private final AtomicReference<Flow.Subscriber<? super DocumentResult>> downstream = new AtomicReference<>();
+    private final AtomicLong demand = new AtomicLong();
+    private final AtomicInteger drainRequests = new AtomicInteger();
+    private volatile Flow.Subscription upstream;
+    private volatile boolean upstreamDone;
+    private volatile Throwable upstreamError;
+    private volatile Throwable requestError;
+    private volatile boolean cancelled;
+    /*
+     * Only touched by drain(), which never runs concurrently with itself
+     */
+    private boolean terminated;
+    /*
+     * Only touched by onNext(), which upstream invokes serially
+     */
+    private long sequence;
+
+
+    private QueryProcessor(List<SelectionCriteria> pCriteria,
+                           SearchOptions pOptions,
+                           Executor pExecutor,
+                           int pMaxInFlight,
+                           int pMaxParsing,
+                           int pMaxSearching) {
+        criteria = pCriteria;
+        options = pOptions;
+        executor = pExecutor;
+        maxInFlight = pMaxInFlight;
+        parsing = new Stage(pExecutor, pMaxParsing);
+        searching = new Stage(pExecutor, pMaxSearching);
+    }
+
+
+    /**
+     * @param pCriteria - What to search for in each document, the {@link SearchResult}'s of each
+     *                  {@link DocumentResult} come in this same order
+     * @param pOptions - Options of every search, can be <code>null</code>
+     * @param pExecutor - Where to parse and search the documents
+     * @param pMaxInFlight - How many documents can be worked on at the same time, parsing and searching alike
+     * @return - A new {@code QueryProcessor}
+     * @throws IllegalArgumentException - If no criteria or executor were given, or <code>pMaxInFlight</code> is less
+     *   than 1
+     */
+    public static QueryProcessor of(List<SelectionCriteria> pCriteria,
+                                    SearchOptions pOptions,
+                                    Executor pExecutor,
+                                    int pMaxInFlight) throws IllegalArgumentException {
+        return of(pCriteria, pOptions, pExecutor, pMaxInFlight, pMaxInFlight, pMaxInFlight);
+    }
+
+
+    /**
+     * Same as {@link QueryProcessor#of(List, SearchOptions, Executor, int)}, with a limit of its own for each stage,
+     * for example to parse fewer documents at once than get searched, when parsing takes most of the memory.
+     *
+     * @param pMaxInFlight - How many documents can be held at the same time, whatever stage they are at, including
+     *                     those waiting for their turn at a stage, and those whose results are waiting to be published
+     * @param pMaxParsing - How many documents can be parsed at the same time
+     * @param pMaxSearching - How many documents can be searched at the same time
+     * @return - A new {@code QueryProcessor}
+     * @throws IllegalArgumentException - If no criteria or executor were given, or any of the limits is less than 1
+     */
+    public static QueryProcessor of(List<SelectionCriteria> pCriteria,
+                                    SearchOptions pOptions,
+                                    Executor pExecutor,
+                                    int pMaxInFlight,
+                                    int pMaxParsing,
+                                    int pMaxSearching) throws IllegalArgumentException {
+        if (null == pCriteria || pCriteria.isEmpty()) {
+            throw new IllegalArgumentException("At least one selection criteria is needed");
+        }
+        if (null == pExecutor) {
+            throw new IllegalArgumentException("An executor is needed to process the documents");
+        }
+        if (pMaxInFlight < 1) {
+            throw new IllegalArgumentException("The maximum number of documents in flight must be at least 1, got "
+                    + pMaxInFlight);
+        }
+        if (pMaxParsing < 1 || pMaxSearching < 1) {
+            throw new IllegalArgumentException("The maximum number of documents parsed and searched at the same time "
+                    + "must be at least 1, got " + pMaxParsing + " and " + pMaxSearching);
+        }
+        return new QueryProcessor(Collections.unmodifiableList(new ArrayList<>(pCriteria)),
+                null == pOptions ? SearchOptions.defaultOptions() : pOptions, pExecutor, pMaxInFlight, pMaxParsing,
+                pMaxSearching);
+    }
+
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super DocumentResult> pSubscriber) {
+        Objects.requireNonNull(pSubscriber);
+        if (!downstream.compareAndSet(null, pSubscriber)) {
+            pSubscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long pCount) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            pSubscriber.onError(new IllegalStateException(getClass().getSimpleName()
+                    + " supports only one subscriber"));
+            return;
+        }
+
+        pSubscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long pCount) {
+                if (pCount <= 0) {
+                    requestError = new IllegalArgumentException("The number of results requested must be positive, got "
+                            + pCount);
+                } else {
+                    demand.getAndUpdate(d -> d + pCount < 0 ? Long.MAX_VALUE : d + pCount);
+                }
+                drain();
+            }
+
+            @Override
+            public void cancel() {
+                QueryProcessor.this.cancel();
+            }
+        });
+        drain();
+    }
+
+
+    @Override
+    public void onSubscribe(Flow.Subscription pSubscription) {
+        Objects.requireNonNull(pSubscription);
+        if (null != upstream) {
+            pSubscription.cancel();
+            return;
+        }
+        upstream = pSubscription;
+        if (cancelled) {
+            pSubscription.cancel();
+        } else {
+            pSubscription.request(maxInFlight);
+        }
+    }
+
+
+    @Override
+    public void onNext(Object pDocument) {
+        Objects.requireNonNull(pDocument);
+        if (cancelled) {
+            return;
+        }
+        long seq = sequence++;
+        CompletableFuture<DocumentResult> result = new CompletableFuture<>();
+        inFlight.add(result);
+        result.whenComplete((r, t) -> drain());
+        parsing.submit(seq, result, () -> {
+            Context context;
+            try {
+                context = DocumentQuery.toContext(pDocument, guard);
+            } catch (RuntimeException e) {
+                result.complete(DocumentResult.failure(seq, e));
+                return;
+            }
+            searching.submit(seq, result,
+                    () -> result.complete(DocumentQuery.search(seq, context, criteria, options, guard)));
+        });
+    }
+
+
+    @Override
+    public void onError(Throwable pError) {
+        upstreamError = Objects.requireNonNull(pError);
+        upstreamDone = true;
+        drain();
+    }
+
+
+    @Override
+    public void onComplete() {
+        upstreamDone = true;
+        drain();
+    }
+
+
+    private boolean isCancelled() {
+        return cancelled;
+    }
+
+
+    private void cancel() {
+        cancelled = true;
+        cancelUpstream();
+        drain();
+    }
+
+
+    private void cancelUpstream() {
+        Flow.Subscription up = upstream;
+        if (null != up) {
+            up.cancel();
+        }
+    }
+
+
+    private void discardInFlight() {
+        CompletableFuture<DocumentResult> f;
+        while (null != (f = inFlight.poll())) {
+            f.cancel(false);
+        }
+    }
+
+
+    /*
+     * Publishes the results that are ready, in order, as far as the demand allows, and requests from upstream as many
+     * documents as results were published. Invoked from every place that may have made progress possible; the
+     * drainRequests counter guarantees that only one thread drains at a time, and that a request to drain which comes
+     * in while another thread is draining is not lost.
+     */
+    private void drain() {
+        if (drainRequests.getAndIncrement() != 0) {
+            return;
+        }
+        do {
+            Flow.Subscriber<? super DocumentResult> s = downstream.get();
+            if (null == s || terminated) {
+                continue;
+            }
+            if (null != requestError) {
+                terminated = true;
+                cancelled = true;
+                cancelUpstream();
+                discardInFlight();
+                s.onError(requestError);
+                continue;
+            }
+            if (cancelled) {
+                terminated = true;
+                discardInFlight();
+                continue;
+            }
+
+            long requested = demand.get();
+            long published = 0;
+            CompletableFuture<DocumentResult> next;
+            while (published < requested && !cancelled && null != (next = inFlight.peek()) && next.isDone()) {
+                inFlight.poll();
+                s.onNext(next.join());
+                published++;
+            }
+            if (published > 0) {
+                if (requested != Long.MAX_VALUE) {
+                    demand.addAndGet(-published);
+                }
+                if (!upstreamDone && !cancelled) {
+                    upstream.request(published);
+                }
+            }
+
+            if (upstreamDone && inFlight.isEmpty() && !cancelled) {
+                terminated = true;
+                if (null != upstreamError) {
+                    s.onError(upstreamError);
+                } else {
+                    s.onComplete();
+                }
+            }
+        } while (drainRequests.decrementAndGet() != 0);
+    }
+
+
+    /*
+     * Runs the tasks of one stage of the processing in the executor, no more than limit of them at the same time. The
+     * tasks beyond the limit wait in a queue, and get started as the running ones finish. A task whose document already
+     * has its result, because it was discarded, gets skipped, and a task the executor rejects fails its document.
+     */
+    private static final class Stage {
+        private final Executor executor;
+        private final int limit;
+        private final Queue<Task> waiting = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger running = new AtomicInteger();
+
+
+        private Stage(Executor pExecutor, int pLimit) {
+            executor = pExecutor;
+            limit = pLimit;
+        }
+
+
+        private void submit(long pSeq, CompletableFuture<DocumentResult> pResult, Runnable pWork) {
+            waiting.add(new Task(pSeq, pResult, pWork));
+            startWaiting();
+        }
+
+
+        private void startWaiting() {
+            while (true) {
+                int cur = running.get();
+                if (cur >= limit || waiting.isEmpty()) {
+                    return;
+                }
+                if (!running.compareAndSet(cur, cur + 1)) {
+                    continue;
+                }
+                Task task = waiting.poll();
+                if (null == task) {
+                    // Taken by another thread in the meantime, check again in case more came in
+                    running.decrementAndGet();
+                    continue;
+                }
+                try {
+                    executor.execute(task);
+                } catch (RejectedExecutionException e) {
+                    running.decrementAndGet();
+                    task.result.complete(DocumentResult.failure(task.seq, e));
+                }
+            }
+        }
+
+
+        private final class Task implements Runnable {
+            private final long seq;
+            private final CompletableFuture<DocumentResult> result;
+            private final Runnable work;
+
+
+            private Task(long pSeq, CompletableFuture<DocumentResult> pResult, Runnable pWork) {
+                seq = pSeq;
+                result = pResult;
+                work = pWork;
+            }
+
+
+            @Override
+            public void run() {
+                try {
+                    if (!result.isDone()) {
+                        work.run();
+                    }
+                } finally {
+                    running.decrementAndGet();
+                    startWaiting();
+                }
+            }
+        }
+    }
+}
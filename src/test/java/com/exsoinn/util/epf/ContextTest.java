@@ -5,9 +5,23 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonParser;
 import org.junit.Test;
 
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
@@ -106,6 +120,34 @@ public class ContextTest {
         assertTrue(searchRes.containsKey(key));
     }
 
+    /**
+     * The nodes of a {@link SearchPath} get parsed once when the instance is built, and the search engine just moves an
+     * <code>int</code> cursor over them. Check the parsed nodes, and that a malformed array index does not blow up until
+     * the node is actually used.
+     */
+    @Test
+    public void searchPathNodesArePreParsed() {
+        SearchPath sp = SearchPath.valueOf(searchPath3);
+        assertTrue(sp == SearchPath.valueOf(searchPath3));
+        assertEquals(7, sp.size());
+        assertEquals("NME_ENTR[0]", sp.node(5).token());
+        assertEquals("NME_ENTR", sp.node(5).name());
+        assertEquals(0, sp.node(5).arrayIndex());
+        assertEquals(-1, sp.node(6).arrayIndex());
+        assertTrue(sp.isLastNode(6) && !sp.isLastNode(5));
+
+        SearchPath bad = SearchPath.valueOf("node1.node2[x]");
+        assertEquals("node2", bad.node(1).name());
+        boolean error = false;
+        try {
+            bad.node(1).arrayIndex();
+        } catch (NumberFormatException e) {
+            error = true;
+        }
+        assertTrue(error);
+    }
+
+
     /**
      * For nodes that are not the last one in the search path, tests that they contain square brackets if
      * an array is expected in the JSON when that node is encountered. The reason for this check is that
@@ -139,6 +181,858 @@ public class ContextTest {
     }
 
 
+    /**
+     * A result limit caps how many array entries make it to the results, and {@link Context#exists(SelectionCriteria)}
+     * answers without building results.
+     */
+    @Test
+    public void resultLimitAndExistence() {
+        String key = "CAND_REF";
+        SelectionCriteria sc = SelectionCriteria.valueOf(searchPath4 + "||null||null");
+        assertEquals(8, context.findElementWithOptions(sc, null).get(key).asArray().size());
+        SearchResult sr = context.findElementWithOptions(sc, SearchOptions.defaultOptions().withResultLimit(1));
+        assertEquals(1, sr.get(key).asArray().size());
+        assertEquals("1", sr.get(key).entryFromArray(0).memberValue("CAND_RNK").stringRepresentation());
+
+        Map<String, String> params = new HashMap<>();
+        params.put(Context.RESULT_LIMIT, "3");
+        assertEquals(3, context.findElement(sc, params).get(key).asArray().size());
+
+        // Limit applies to the entries left after filtering
+        sc = SelectionCriteria.valueOf(searchPath4 + "||REGN_STAT_CD=15201||null");
+        int filtered = context.findElement(sc, null).get(key).asArray().size();
+        assertTrue(filtered > 1);
+        sr = context.findElementWithOptions(sc, SearchOptions.defaultOptions().withResultLimit(filtered - 1));
+        assertEquals(filtered - 1, sr.get(key).asArray().size());
+
+        assertTrue(context.exists(sc));
+        assertTrue(context.exists(SelectionCriteria.valueOf(searchPath1 + "||null||null")));
+        assertTrue(!context.exists(SelectionCriteria.valueOf(searchPath4 + "||REGN_STAT_CD=99999||null")));
+        assertTrue(!context.exists(SelectionCriteria.valueOf(searchPath4 + "_BOGUS||null||null")));
+        assertTrue(!context.exists(SelectionCriteria.valueOf(searchPath5 + "||null||null")));
+    }
+
+
+    /**
+     * The stream flavor of the search yields one element per matching array entry, lazily, and agrees with the regular
+     * search, whether consumed sequentially or in parallel.
+     */
+    @Test
+    public void streamMatches() {
+        String key = "CAND_REF";
+        SelectionCriteria sc = SelectionCriteria.valueOf(searchPath4 + "||REGN_STAT_CD=15201||CAND_RNK,REGN_STAT_CD");
+        List<Context> expected = context.findElement(sc, null).get(key).asArray();
+        List<String> streamed = context.findElementStream(sc, null)
+                .peek(e -> assertEquals(key, e.getKey()))
+                .map(e -> e.getValue().toString()).collect(Collectors.toList());
+        assertEquals(expected.stream().map(Context::toString).collect(Collectors.toList()), streamed);
+        assertEquals(streamed, context.findElementStream(sc, null).parallel()
+                .map(e -> e.getValue().toString()).collect(Collectors.toList()));
+        assertEquals(expected.get(0).toString(),
+                context.findElementStream(sc, null).findFirst().get().getValue().toString());
+        assertEquals(2, context.findElementStream(sc, SearchOptions.defaultOptions().withResultLimit(2)).count());
+
+        // Non-array end node yields a single element
+        sc = SelectionCriteria.valueOf(searchPath1 + "||null||null");
+        assertEquals("15336", context.findElementStream(sc, null).findFirst().get().getValue().stringRepresentation());
+
+        // Errors surface when the stream is consumed, not when it gets built
+        java.util.stream.Stream<Map.Entry<String, Context>> bad =
+                context.findElementStream(SelectionCriteria.valueOf(searchPath4 + "_BOGUS||null||null"), null);
+        boolean error = false;
+        try {
+            bad.count();
+        } catch (IllegalArgumentException e) {
+            error = true;
+        }
+        assertTrue(error);
+    }
+
+
+    /**
+     * Each file gets a result of its own, in the order the files were given. A file that can't be read or parsed fails
+     * alone, without affecting the others, and the caps on the documents in flight hold back files without changing
+     * the results.
+     */
+    @Test
+    public void bulkQueryOverFiles() throws Exception {
+        Path dir = Files.createTempDirectory("bulk-query");
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Path f = dir.resolve("doc" + i + ".json");
+            String content = i == 5 ? "not a document" : "{\"doc\":{\"id\":\"" + i + "\"}}";
+            Files.write(f, content.getBytes(StandardCharsets.UTF_8));
+            files.add(f);
+        }
+        files.add(dir.resolve("missing.json"));
+        Path xml = dir.resolve("ver-org.xml");
+        Files.write(xml, TestData.verOrgXml.getBytes(StandardCharsets.UTF_8));
+        files.add(xml);
+
+        try {
+            List<SelectionCriteria> criteria = Arrays.asList(SelectionCriteria.valueOf("doc.id||null||null"),
+                    SelectionCriteria.valueOf(searchPath4 + "||REGN_STAT_CD=15201||CAND_RNK"));
+            // The small byte cap forces the files to go one or two at a time
+            BulkQueryExecutor bulk = BulkQueryExecutor.of(criteria, SearchOptions.defaultOptions()
+                    .withMissingPathAsEmpty(true)).withPlatformThreads(3).withMaxInFlightBytes(40);
+            Map<Path, DocumentResult> results = bulk.run(files);
+            assertEquals(new ArrayList<>(files), new ArrayList<>(results.keySet()));
+            for (int i = 0; i < 20; i++) {
+                DocumentResult r = results.get(files.get(i));
+                assertEquals(i, r.getSequence());
+                if (i == 5) {
+                    assertTrue(!r.isSuccess() && r.getError() instanceof IllegalArgumentException);
+                } else {
+                    assertEquals(String.valueOf(i), r.getResults().get(0).get("id").stringRepresentation());
+                    assertTrue(r.getResults().get(1).isEmpty());
+                }
+            }
+            assertTrue(results.get(files.get(20)).getError() instanceof UncheckedIOException);
+            assertEquals(context.findElement(criteria.get(1), null).toString(),
+                    results.get(xml).getResults().get(1).toString());
+
+            // Same outcome regardless of the kind of threads
+            Map<Path, DocumentResult> again = bulk.withVirtualThreads(false).withMaxInFlightDocuments(1)
+                    .run(files);
+            assertEquals(results.toString(), again.toString());
+
+            // Results are keyed by file, hence each may be given only once
+            boolean error = false;
+            try {
+                bulk.run(Arrays.asList(files.get(0), files.get(1), files.get(0)));
+            } catch (IllegalArgumentException e) {
+                error = true;
+            }
+            assertTrue(error);
+
+            // The caller may hold the monitor of its own consumer throughout
+            Map<Path, DocumentResult> sink = new HashMap<>();
+            BiConsumer<Path, DocumentResult> toSink = (f, r) -> {
+                synchronized (sink) {
+                    sink.put(f, r);
+                }
+            };
+            synchronized (toSink) {
+                bulk.run(files.subList(0, 3), toSink);
+            }
+            assertEquals(3, sink.size());
+
+            // Once interrupted, results of documents still in progress are no longer handed over
+            List<DocumentResult> consumed = Collections.synchronizedList(new ArrayList<>());
+            Thread.currentThread().interrupt();
+            boolean interrupted = false;
+            try {
+                bulk.withVirtualThreads(false).withMaxInFlightDocuments(1).run(files, (f, r) -> {
+                    long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(300);
+                    while (System.nanoTime() < until) {
+                        // Busy, so that being interrupted does not cut it short
+                    }
+                    consumed.add(r);
+                });
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+            assertTrue(interrupted);
+            int consumedCnt = consumed.size();
+            Thread.sleep(500);
+            assertEquals(consumedCnt, consumed.size());
+        } finally {
+            for (Path f : files) {
+                Files.deleteIfExists(f);
+            }
+            Files.delete(dir);
+        }
+    }
+
+
+    @Test
+    public void explainSearch() {
+        Context ctx = ContextFactory.obtainContext("{\"store\":{\"items\":[{\"id\":\"1\",\"kind\":\"a\","
+                + "\"supplier\":{\"country\":\"CA\"}},{\"id\":\"2\",\"kind\":\"b\",\"supplier\":{\"country\":\"US\"}},"
+                + "{\"id\":\"3\",\"kind\":\"b\",\"supplier\":{\"country\":\"CA\"}}]}}");
+        SelectionCriteria sc = SelectionCriteria.valueOf("store.items||supplier.country=CA||id,supplier.country");
+        QueryProfile profile = ctx.explain(sc, null);
+        assertEquals(ctx.findElement(sc, null).toString(), profile.getResult().toString());
+        assertEquals(sc.toString(), profile.getName());
+
+        QueryProfile step0 = profile.getChild("step 0: store");
+        QueryProfile step1 = profile.getChild("step 1: items");
+        assertNotNull(step0);
+        assertNotNull(step1);
+        assertEquals(1, step0.getCount(QueryProfile.Counter.MEMBERS_SCANNED));
+        assertEquals(1, step1.getCount(QueryProfile.Counter.NODES_VISITED));
+
+        QueryProfile filter = profile.getChild(QueryProfiler.FILTER);
+        assertEquals(3, filter.getCount(QueryProfile.Counter.ELEMENTS_FILTERED));
+        assertEquals(1, filter.getCount(QueryProfile.Counter.ELEMENTS_EXCLUDED));
+        assertEquals(3, filter.getCount(QueryProfile.Counter.NESTED_FILTER_LOOKUPS));
+        assertEquals(3, filter.getCount(QueryProfile.Counter.FILTER_COMPARISONS));
+
+        QueryProfile targets = profile.getChild(QueryProfiler.TARGET_ELEMENTS);
+        assertEquals(2, targets.getCount(QueryProfile.Counter.TARGET_ELEMENT_SUBSEARCHES));
+        assertEquals(2, targets.getCount(QueryProfile.Counter.REPARSES));
+        assertEquals(1, profile.getChild(QueryProfiler.RESULTS).getCount(QueryProfile.Counter.REPARSES));
+        assertEquals(3, profile.getTotalCount(QueryProfile.Counter.REPARSES));
+
+        long childNanos = 0;
+        for (QueryProfile c : profile.getChildren()) {
+            assertTrue(c.getChildren().isEmpty());
+            assertTrue(c.getNanos() >= 0);
+            childNanos += c.getNanos();
+        }
+        assertEquals(profile.getNanos(), profile.getSelfNanos() + childNanos);
+        assertTrue(profile.toString().contains("nested_filter_lookups=3"));
+
+        // Wild cards scan all the members
+        profile = ctx.explain(SelectionCriteria.valueOf("store.*||null||null"), SearchOptions.defaultOptions());
+        assertEquals(1, profile.getChild("step 1: *").getCount(QueryProfile.Counter.MEMBERS_SCANNED));
+    }
+
+
+    @Test
+    public void searchMetrics() {
+        SearchMetrics installed = SearchMetricsRegistry.get();
+        LongAdderSearchMetrics metrics = new LongAdderSearchMetrics();
+        SearchMetricsRegistry.register(metrics);
+        try {
+            Context ctx = ContextFactory.obtainContext("{\"metrics\":[{\"id\":\"1\",\"re\":\"a.*\"},"
+                    + "{\"id\":\"2\",\"re\":\"b.*\"}]}");
+            assertEquals(1, metrics.getContextsParsed());
+            assertTrue(metrics.getParsedChars() > 0);
+
+            SelectionCriteria sc = SelectionCriteria.valueOf("metrics||id=2||id,re");
+            SearchPath.valueOf("metrics");
+            assertTrue(metrics.getCacheHits(SearchMetrics.Cache.SEARCH_PATH) > 0);
+            SearchResult res = ctx.findElement(sc, null);
+            assertEquals(1, metrics.getSearches());
+            assertEquals(1, metrics.getResults());
+            assertEquals(2, metrics.getFilterComparisons());
+            assertTrue(metrics.getNodesVisited() > 0);
+            assertTrue(metrics.getSearchNanos() > 0);
+            assertEquals(1, metrics.getCriteriaStats().get(sc.toString()).getCount());
+            assertEquals(1, res.size());
+
+            SearchOptions regex = SearchOptions.defaultOptions().withFoundElemValIsRegex(true);
+            ctx.findElementWithOptions(SelectionCriteria.valueOf("metrics||re=abc||id"), regex);
+            ctx.findElementWithOptions(SelectionCriteria.valueOf("metrics||re=abc||id"), regex);
+            assertTrue(metrics.getCacheHits(SearchMetrics.Cache.PATTERN) >= 2);
+            assertTrue(metrics.getCacheHits(SearchMetrics.Cache.TARGET_ELEMENTS) >= 1);
+
+            assertTrue(ctx.exists(SelectionCriteria.valueOf("metrics||id=1||null"), null));
+            assertEquals(4, metrics.getSearches());
+            // The Context's the searches built along the way, out of list filters and found arrays, are no parses
+            ctx.findElement(SelectionCriteria.valueOf("metrics||id=[1,2]||id"), null);
+            assertEquals(1, metrics.getContextsParsed());
+
+            // Callback and stream searches count too, streams once they run out of matches or get closed
+            ctx.findElement(sc, null, (name, value, position, path) -> { });
+            assertEquals(6, metrics.getSearches());
+            assertEquals(1, ctx.findElementStream(sc, null).parallel().count());
+            assertEquals(7, metrics.getSearches());
+            try (Stream<Map.Entry<String, Context>> s = ctx.findElementStream(sc, null)) {
+                assertTrue(s.findFirst().isPresent());
+            }
+            assertEquals(8, metrics.getSearches());
+            assertEquals(4, metrics.getCriteriaStats().get(sc.toString()).getCount());
+
+            boolean error = false;
+            try {
+                ctx.findElement(SelectionCriteria.valueOf("metrics.nope||null||null"), null);
+            } catch (IllegalArgumentException e) {
+                error = true;
+            }
+            assertTrue(error);
+            assertEquals(1, metrics.getFailedSearches());
+
+            // Failed parses get reported as such, null data does not even begin one
+            for (Object bad : new Object[] {"<not xml", null}) {
+                error = false;
+                try {
+                    ContextFactory.obtainContext(bad);
+                } catch (IllegalArgumentException e) {
+                    error = true;
+                }
+                assertTrue(error);
+            }
+            assertEquals(1, metrics.getFailedParses());
+            assertEquals(1, metrics.getContextsParsed());
+
+            long listMisses = metrics.getExceptionMisses(SearchMetrics.ExceptionMiss.LIST_FILTER);
+            Context.transformArgumentToListObject("not a list");
+            assertEquals(listMisses + 1, metrics.getExceptionMisses(SearchMetrics.ExceptionMiss.LIST_FILTER));
+
+            metrics.reset();
+            assertEquals(0L, (long) metrics.toMap().get("searches"));
+            assertTrue(metrics.getCriteriaStats().isEmpty());
+        } finally {
+            SearchMetricsRegistry.unregister();
+        }
+        assertTrue(installed == SearchMetricsRegistry.get());
+    }
+
+
+    @Test
+    public void slowQueryLog() throws Exception {
+        Context ctx = ContextFactory.obtainContext("{\"doc\":{\"items\":[{\"id\":\"1\"},{\"id\":\"2\"}]}}");
+        SelectionCriteria sc = SelectionCriteria.valueOf("doc.items||id=2||null");
+        SlowQueryLog log = SlowQueryLog.of(0, TimeUnit.NANOSECONDS, 2);
+        SearchMetricsRegistry.register(log);
+        try {
+            ctx.findElement(sc, null);
+            List<SlowQueryLog.Entry> entries = log.snapshot();
+            assertEquals(1, entries.size());
+            SlowQueryLog.Entry e = entries.get(0);
+            assertEquals(sc.specialCharactersConverted(), e.getCriteria());
+            assertEquals(1, e.getResults());
+            assertTrue(e.getNanos() > 0);
+            assertTrue(!e.isSampled());
+            // Root, doc, items, 2 entries, 2 ids
+            assertEquals(7, e.getDocumentNodes());
+            assertEquals(5, e.getDocumentDepth());
+
+            boolean error = false;
+            try {
+                ctx.findElement(SelectionCriteria.valueOf("doc.nope||null||null"), null);
+            } catch (IllegalArgumentException ex) {
+                error = true;
+            }
+            assertTrue(error);
+            ctx.findElement(sc, null);
+            // Capacity is 2, the oldest record got overwritten
+            entries = log.snapshot();
+            assertEquals(3, log.getRecordedCount());
+            assertEquals(2, entries.size());
+            assertNotNull(entries.get(0).getError());
+            assertEquals(2, entries.get(1).getSequence());
+            StringBuilder dump = new StringBuilder();
+            log.dump(dump);
+            assertEquals(2, dump.toString().split("\n").length);
+
+            assertTrue(SearchMetricsRegistry.unregister(log));
+            log = SlowQueryLog.of(1, TimeUnit.HOURS, 10);
+            SearchMetricsRegistry.register(log);
+            ctx.findElement(sc, null);
+            assertTrue(log.snapshot().isEmpty());
+            SearchMetricsRegistry.unregister(log);
+            log = SlowQueryLog.of(1, TimeUnit.HOURS, 10, 1.0);
+            SearchMetricsRegistry.register(log);
+            ctx.findElement(sc, null);
+            assertTrue(log.snapshot().get(0).isSampled());
+            log.clear();
+            assertTrue(log.snapshot().isEmpty());
+        } finally {
+            SearchMetricsRegistry.unregister();
+        }
+
+        boolean invalid = false;
+        try {
+            SlowQueryLog.of(1, TimeUnit.SECONDS, 10, 1.5);
+        } catch (IllegalArgumentException e) {
+            invalid = true;
+        }
+        assertTrue(invalid);
+    }
+
+
+    @Test
+    public void severalSearchMetrics() {
+        Context ctx = ContextFactory.obtainContext("{\"doc\":{\"items\":[{\"id\":\"1\"},{\"id\":\"2\"}]}}");
+        SelectionCriteria sc = SelectionCriteria.valueOf("doc.items||id=2||null");
+        List<SearchMetrics> before = SearchMetricsRegistry.installed();
+        SlowQueryLog log = SlowQueryLog.of(0, TimeUnit.NANOSECONDS, 10);
+        LongAdderSearchMetrics metrics = new LongAdderSearchMetrics();
+        SearchMetricsRegistry.register(log);
+        SearchMetricsRegistry.register(metrics);
+        SearchMetricsRegistry.register(log);
+        try {
+            List<SearchMetrics> installed = SearchMetricsRegistry.installed();
+            assertEquals(before.size() + 2, installed.size());
+            assertTrue(installed.containsAll(before));
+            assertTrue(log == installed.get(before.size()));
+            assertTrue(metrics == installed.get(before.size() + 1));
+
+            // Both get every search
+            ctx.findElement(sc, null);
+            ctx.exists(sc, null);
+            assertEquals(2, log.snapshot().size());
+            assertEquals(2, metrics.getSearches());
+            assertEquals(1, log.snapshot().get(0).getResults());
+
+            // Uninstalling one leaves the other listening
+            assertTrue(SearchMetricsRegistry.unregister(log));
+            assertTrue(!SearchMetricsRegistry.unregister(log));
+            ctx.findElement(sc, null);
+            assertEquals(2, log.snapshot().size());
+            assertEquals(3, metrics.getSearches());
+        } finally {
+            SearchMetricsRegistry.unregister();
+        }
+        assertEquals(before, SearchMetricsRegistry.installed());
+    }
+
+
+    @Test
+    public void contextStats() {
+        Context ctx = ContextFactory.obtainContext(
+                "{\"doc\":{\"tags\":[\"a\",\"b\",\"c\"],\"items\":[{\"id\":\"1\",\"name\":\"x\"},{\"id\":\"2\"}],"
+                        + "\"n\":null}}");
+        ContextStats stats = ctx.stats();
+        assertEquals(13, stats.getNodeCount());
+        assertEquals(4, stats.getComplexCount());
+        assertEquals(2, stats.getArrayCount());
+        assertEquals(7, stats.getPrimitiveCount());
+        assertEquals(5, stats.getMaxDepth());
+        assertEquals(5, stats.getTotalArrayEntries());
+        assertEquals(3, stats.getMaxArraySize());
+        assertEquals(7, stats.getMemberCount());
+        assertEquals(6, stats.getDistinctMemberNames());
+        assertTrue(stats.getEstimatedRetainedBytes() > 0);
+        // Immutable, computed once
+        assertTrue(stats == ctx.stats());
+        assertTrue(stats == ContextStats.of(ctx));
+
+        ContextStats primitive = ContextFactory.obtainContext("{\"a\":\"1\"}").memberValue("a").stats();
+        assertEquals(1, primitive.getNodeCount());
+        assertEquals(1, primitive.getMaxDepth());
+        assertTrue(primitive.getEstimatedRetainedBytes() < stats.getEstimatedRetainedBytes());
+
+        // Mutable, walked every time
+        MutableContext mc = ContextFactory.obtainMutableContext("{\"a\":\"1\"}");
+        assertEquals(2, mc.stats().getNodeCount());
+        mc.addMember("b", ContextFactory.obtainContext("{\"c\":\"2\"}"));
+        assertEquals(4, mc.stats().getNodeCount());
+        assertEquals(3, mc.stats().getDistinctMemberNames());
+    }
+
+
+    @Test
+    public void resultCache() {
+        Context ctx = ContextFactory.obtainContext("{\"doc\":{\"items\":[{\"id\":\"1\",\"k\":\"a\"},"
+                + "{\"id\":\"2\",\"k\":\"b\"}]}}");
+        SearchOptions cached = SearchOptions.defaultOptions().withUseResultCache(true);
+        SearchResult first = ctx.findElementWithOptions(SelectionCriteria.valueOf("doc.items||id=2;k=b||id"), cached);
+        assertEquals(1, first.size());
+        // Parsed again, filter entries in another order, same search
+        assertTrue(first == ctx.findElementWithOptions(SelectionCriteria.valueOf("doc.items||k=b;id=2||id"), cached));
+        Map<String, String> params = new HashMap<>();
+        params.put(Context.USE_RESULT_CACHE, "true");
+        assertTrue(first == ctx.findElement(SelectionCriteria.valueOf("doc.items||id=2;k=b||id"), params));
+        // Where the parallel processing runs makes no difference
+        SearchResult parallel = ctx.findElementWithOptions(SelectionCriteria.valueOf("doc.items||id=2;k=b||id"),
+                cached.withParallelExecution(ForkJoinPool.commonPool(), 2));
+        assertEquals(first.toString(), parallel.toString());
+        assertTrue(parallel == ctx.findElementWithOptions(SelectionCriteria.valueOf("doc.items||id=2;k=b||id"),
+                cached.withParallelExecution(Runnable::run, 2)));
+        assertEquals(cached.withParallelExecution(Runnable::run, 2),
+                cached.withParallelExecution(ForkJoinPool.commonPool(), 2));
+        assertEquals(cached.withParallelExecution(Runnable::run, 2).hashCode(),
+                cached.withParallelExecution(ForkJoinPool.commonPool(), 2).hashCode());
+        assertTrue(!cached.equals(cached.withParallelExecution(Runnable::run, 2)));
+
+        // Not asking for the cache, or asking with other options, searches again
+        assertTrue(first != ctx.findElement(SelectionCriteria.valueOf("doc.items||id=2;k=b||id"), null));
+        SearchResult limited = ctx.findElementWithOptions(SelectionCriteria.valueOf("doc.items||id=2;k=b||id"),
+                cached.withResultLimit(1));
+        assertTrue(first != limited);
+        assertEquals(first.toString(), limited.toString());
+        assertEquals(3, ((AbstractContext) ctx).resultCache().size());
+
+        // Failed searches are not remembered
+        for (int i = 0; i < 2; i++) {
+            boolean error = false;
+            try {
+                ctx.findElementWithOptions(SelectionCriteria.valueOf("doc.nope||null||null"), cached);
+            } catch (IllegalArgumentException e) {
+                error = true;
+            }
+            assertTrue(error);
+        }
+        assertEquals(3, ((AbstractContext) ctx).resultCache().size());
+
+        // Bounded
+        for (int i = 0; i < ResultCache.CAPACITY * 2; i++) {
+            ctx.findElementWithOptions(SelectionCriteria.valueOf("doc.items||id=" + i + "||null"), cached);
+        }
+        assertEquals(ResultCache.CAPACITY, ((AbstractContext) ctx).resultCache().size());
+
+        // Mutable contexts always search
+        MutableContext mc = ContextFactory.obtainMutableContext("{\"a\":\"1\"}");
+        SelectionCriteria sc = SelectionCriteria.valueOf("a||null||null");
+        assertTrue(mc.findElementWithOptions(sc, cached) != mc.findElementWithOptions(sc, cached));
+        assertTrue(null == ((AbstractContext) mc).resultCache());
+    }
+
+
+    @Test
+    public void searchBudgets() throws Exception {
+        SelectionCriteria sc = SelectionCriteria.valueOf(searchPath4 + "||null||null");
+        SearchResult all = context.findElement(sc, null);
+        assertEquals(all.toString(), context.findElementWithOptions(sc, SearchOptions.defaultOptions()
+                .withTimeout(1, TimeUnit.MINUTES).withNodeVisitBudget(100000)
+                .withResultBudget(1000)).toString());
+
+        SearchBudgetExceededException budgetExceeded = null;
+        try {
+            context.findElementWithOptions(sc, SearchOptions.defaultOptions().withNodeVisitBudget(3));
+        } catch (SearchBudgetExceededException e) {
+            budgetExceeded = e;
+        }
+        assertNotNull(budgetExceeded);
+        assertEquals(SearchBudgetExceededException.Reason.NODE_VISIT_BUDGET, budgetExceeded.getReason());
+
+        budgetExceeded = null;
+        try {
+            context.findElementWithOptions(sc, SearchOptions.defaultOptions().withResultBudget(2));
+        } catch (SearchBudgetExceededException e) {
+            budgetExceeded = e;
+        }
+        assertNotNull(budgetExceeded);
+        assertEquals(SearchBudgetExceededException.Reason.RESULT_BUDGET, budgetExceeded.getReason());
+        assertEquals(2, budgetExceeded.getPartialResult().firstResult().asArray().size());
+
+        StringBuilder json = new StringBuilder("{\"items\":[");
+        for (int i = 0; i < 5000; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"id\":\"").append(i).append("\"}");
+        }
+        Context ctx = ContextFactory.obtainContext(json.append("]}").toString());
+        budgetExceeded = null;
+        try {
+            ctx.findElementWithOptions(SelectionCriteria.valueOf("items||id=1||null"),
+                    SearchOptions.defaultOptions().withTimeout(1, TimeUnit.NANOSECONDS));
+        } catch (SearchBudgetExceededException e) {
+            budgetExceeded = e;
+        }
+        assertNotNull(budgetExceeded);
+        assertEquals(SearchBudgetExceededException.Reason.TIMEOUT, budgetExceeded.getReason());
+
+        // The result budget of a parallel stream counts the results of all its splits together
+        SelectionCriteria allItems = SelectionCriteria.valueOf("items||null||null");
+        budgetExceeded = null;
+        try {
+            ctx.findElementStream(allItems, SearchOptions.defaultOptions().withResultBudget(3000)).parallel().count();
+        } catch (SearchBudgetExceededException e) {
+            budgetExceeded = e;
+        }
+        assertNotNull(budgetExceeded);
+        assertEquals(SearchBudgetExceededException.Reason.RESULT_BUDGET, budgetExceeded.getReason());
+        assertEquals(5000, ctx.findElementStream(allItems, SearchOptions.defaultOptions().withResultBudget(5000))
+                .parallel().count());
+
+        // The clock of a stream starts ticking when it gets consumed, not when it gets built
+        Stream<Map.Entry<String, Context>> stream = ctx.findElementStream(allItems,
+                SearchOptions.defaultOptions().withTimeout(200, TimeUnit.MILLISECONDS));
+        Thread.sleep(300);
+        assertEquals(5000, stream.count());
+
+        boolean error = false;
+        try {
+            SearchOptions.defaultOptions().withResultBudget(-1);
+        } catch (IllegalArgumentException e) {
+            error = true;
+        }
+        assertTrue(error);
+    }
+
+
+    @Test
+    public void asyncSearchAndCancellation() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            SelectionCriteria sc = SelectionCriteria.valueOf(searchPath4 + "||REGN_STAT_CD=15201||CAND_RNK");
+            assertEquals(context.findElement(sc, null).toString(),
+                    context.findElementAsync(sc, null, executor).get().toString());
+            Context parsed = ContextFactory.obtainContextAsync(TestData.verOrgXml, executor).get();
+            assertEquals(context.findElement(sc, null).toString(), parsed.findElement(sc, null).toString());
+
+            // Cancelled before it gets to run
+            List<Runnable> queued = new ArrayList<>();
+            CompletableFuture<SearchResult> future = context.findElementAsync(sc, null, queued::add);
+            assertTrue(future.cancel(false));
+            queued.forEach(Runnable::run);
+            assertTrue(future.isCancelled());
+        } finally {
+            executor.shutdown();
+        }
+
+        // Cancelled while in progress, the traversal notices it
+        int[] checks = {0};
+        SearchGuard guard = new SearchGuard(() -> ++checks[0] > 3);
+        boolean cancelled = false;
+        try {
+            ((AbstractContext) context).findElementWithOptions(SelectionCriteria.valueOf(searchPath4 + "||null||null"),
+                    SearchOptions.defaultOptions(), guard);
+        } catch (CancellationException e) {
+            cancelled = true;
+        }
+        assertTrue(cancelled);
+
+        cancelled = false;
+        try (CancellableReader r = new CancellableReader(new StringReader("{}"), new SearchGuard(() -> true))) {
+            r.read(new char[2], 0, 2);
+        } catch (CancellationException e) {
+            cancelled = true;
+        }
+        assertTrue(cancelled);
+    }
+
+
+    /**
+     * Processing a large array in parallel gives the same results, in the same order, as processing it sequentially.
+     */
+    @Test
+    public void parallelArrayProcessing() throws Exception {
+        StringBuilder json = new StringBuilder("{\"items\":[");
+        for (int i = 0; i < 500; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"id\":\"").append(i).append("\",\"grp\":\"").append(i % 3)
+                    .append("\",\"junk\":\"x\"}");
+        }
+        Context ctx = ContextFactory.obtainContext(json.append("]}").toString());
+        SelectionCriteria sc = SelectionCriteria.valueOf("items||grp=1||id");
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            SearchResult sequential = ctx.findElementWithOptions(sc, null);
+            SearchResult parallel = ctx.findElementWithOptions(sc,
+                    SearchOptions.defaultOptions().withParallelExecution(pool, 16));
+            assertEquals(167, parallel.get("items").asArray().size());
+            assertEquals(sequential.toString(), parallel.toString());
+
+            // Below threshold stays sequential, and errors surface the same as with sequential processing
+            assertEquals(sequential.toString(), ctx.findElementWithOptions(sc,
+                    SearchOptions.defaultOptions().withParallelExecution(pool, 1000)).toString());
+            boolean error = false;
+            try {
+                ctx.findElementWithOptions(SelectionCriteria.valueOf("items||bogus=1||id"),
+                        SearchOptions.defaultOptions().withParallelExecution(pool, 16));
+            } catch (IllegalArgumentException e) {
+                error = true;
+            }
+            assertTrue(error);
+
+            // Filter value compared against a large array value
+            StringBuilder tags = new StringBuilder("{\"rec\":{\"id\":\"1\",\"tags\":[");
+            for (int i = 0; i < 100; i++) {
+                tags.append(i == 0 ? "" : ",").append("\"t").append(i).append("\"");
+            }
+            Context tagged = ContextFactory.obtainContext(tags.append("]}}").toString());
+            SearchOptions parallelOpts = SearchOptions.defaultOptions().withParallelExecution(pool, 8);
+            assertEquals(1, tagged.findElementWithOptions(SelectionCriteria.valueOf("rec||tags=t77||id"), parallelOpts)
+                    .size());
+            assertTrue(tagged.findElementWithOptions(SelectionCriteria.valueOf("rec||tags=t100||id"), parallelOpts)
+                    .isEmpty());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+
+    /**
+     * Parallel processing on a pool too small to run all the chunks at once, with the search itself running on that same
+     * pool, and chunks finding large array values to compare filter values against, must still complete.
+     */
+    @Test
+    public void parallelArrayProcessingOnSaturatedPool() throws Exception {
+        StringBuilder json = new StringBuilder("{\"items\":[");
+        for (int i = 0; i < 200; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"id\":\"").append(i).append("\",\"tags\":[");
+            for (int t = 0; t < 50; t++) {
+                json.append(t == 0 ? "" : ",").append("\"t").append((i + t) % 60).append("\"");
+            }
+            json.append("]}");
+        }
+        Context ctx = ContextFactory.obtainContext(json.append("]}").toString());
+        SelectionCriteria sc = SelectionCriteria.valueOf("items||tags=t55||id");
+        SearchResult sequential = ctx.findElementWithOptions(sc, null);
+        for (int threads = 1; threads <= 2; threads++) {
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            try {
+                SearchOptions opts = SearchOptions.defaultOptions().withParallelExecution(pool, 2);
+                Future<SearchResult> res = pool.submit(() -> ctx.findElementWithOptions(sc, opts));
+                assertEquals(sequential.toString(), res.get(30, TimeUnit.SECONDS).toString());
+                assertEquals(sequential.toString(), ctx.findElementWithOptions(sc, opts).toString());
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+
+    /**
+     * Search paths with wildcards, index lists, slices and recursive descent, which can find more than one element.
+     */
+    @Test
+    public void multiMatchSearchPaths() {
+        Context store = ContextFactory.obtainContext("{\"store\":{\"book\":["
+                + "{\"title\":\"A\",\"price\":1,\"author\":{\"name\":\"x\"}},"
+                + "{\"title\":\"B\",\"price\":2},{\"title\":\"C\",\"price\":3},{\"title\":\"D\",\"price\":4}],"
+                + "\"bicycle\":{\"price\":10,\"title\":\"Bike\"}}}");
+
+        assertEquals(Arrays.asList("A", "B", "C", "D"), multiMatchValues(store, "store.book[*].title", null, "title"));
+        assertEquals(Arrays.asList("A", "D"), multiMatchValues(store, "store.book[0,3,9].title", null, "title"));
+        assertEquals(Arrays.asList("B", "C"), multiMatchValues(store, "store.book[1:3].title", null, "title"));
+        assertEquals(Arrays.asList("C", "D"), multiMatchValues(store, "store.book[2:].title", null, "title"));
+        assertEquals(Collections.singletonList("10"), multiMatchValues(store, "store.*.price", null, "price"));
+        assertEquals(Arrays.asList("1", "2", "3", "4", "10"), multiMatchValues(store, "..price", null, "price"));
+        SearchOptions indexed = SearchOptions.defaultOptions().withUseNameIndex(true);
+        assertEquals(Arrays.asList("1", "2", "3", "4", "10"), multiMatchValues(store, "..price", indexed, "price"));
+        assertEquals(Arrays.asList("1", "2"),
+                multiMatchValues(store, "..price", indexed.withResultLimit(2), "price"));
+        assertEquals(Collections.singletonList("x"), multiMatchValues(store, "store..name", null, "name"));
+
+        // Filter and target elements apply to each element found
+        SearchResult sr = store.findElementWithOptions(
+                SelectionCriteria.valueOf("store.book[*]||title=C||price"), null);
+        assertEquals("3", sr.get("book").memberValue("price").stringRepresentation());
+
+        // The other flavors of the search
+        assertTrue(store.exists(SelectionCriteria.valueOf("..name||null||null")));
+        assertTrue(!store.exists(SelectionCriteria.valueOf("..bogus||null||null")));
+        SelectionCriteria sc = SelectionCriteria.valueOf("..title||null||null");
+        assertEquals(Arrays.asList("A", "B", "C", "D", "Bike"), store.findElementStream(sc, null)
+                .map(e -> e.getValue().stringRepresentation()).collect(Collectors.toList()));
+        List<String> visited = new ArrayList<>();
+        store.findElement(sc, null, (name, node, pos, path) -> visited.add(node.stringRepresentation()));
+        assertEquals(Arrays.asList("A", "B", "C", "D", "Bike"), visited);
+    }
+
+
+    private static List<String> multiMatchValues(Context pCtx, String pPath, SearchOptions pOpts, String pName) {
+        SearchResult sr = pCtx.findElementWithOptions(SelectionCriteria.valueOf(pPath + "||null||null"), pOpts);
+        assertEquals(1, sr.size());
+        Context found = sr.get(pName);
+        if (!found.isArray()) {
+            return Collections.singletonList(found.stringRepresentation());
+        }
+        return found.asArray().stream().map(Context::stringRepresentation).collect(Collectors.toList());
+    }
+
+
+    /**
+     * Long search paths over deeply nested documents, and search paths that start off of an anonymous array.
+     */
+    @Test
+    public void deeplyNestedAndAnonymousArraySearch() {
+        int depth = 1000;
+        StringBuilder json = new StringBuilder();
+        StringBuilder path = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            json.append("{\"n").append(i).append("\":");
+            path.append(i == 0 ? "" : ".").append("n").append(i);
+        }
+        json.append("\"leaf\"");
+        for (int i = 0; i < depth; i++) {
+            json.append('}');
+        }
+        Context deep = ContextFactory.obtainContext(json.toString());
+        SearchResult sr = deep.findElement(SelectionCriteria.valueOf(path + "||null||null"), null);
+        assertEquals("leaf", sr.get("n" + (depth - 1)).stringRepresentation());
+        assertTrue(!deep.exists(SelectionCriteria.valueOf(path + ".bogus||null||null")));
+
+        Context anonAry = ContextFactory.obtainContext("[{\"a\":{\"b\":\"1\"}},{\"a\":{\"b\":\"2\"}}]");
+        sr = anonAry.findElement(SelectionCriteria.valueOf("[1].a.b||null||null"), null);
+        assertEquals("2", sr.get("b").stringRepresentation());
+    }
+
+
+    /**
+     * The visitor flavor of the search gets handed the same matches as the other flavors, plus the position of each
+     * match within the found array and its concrete path, and gets called once per target element when target elements
+     * are given.
+     */
+    @Test
+    public void visitMatches() {
+        SelectionCriteria sc = SelectionCriteria.valueOf(searchPath4 + "||REGN_STAT_CD=15201||null");
+        List<Context> expected = context.findElementStream(sc, null).map(Map.Entry::getValue).collect(Collectors.toList());
+        List<Context> visited = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+        context.findElement(sc, null, (name, node, pos, path) -> {
+            assertEquals("CAND_REF", name);
+            assertEquals(searchPath4 + "[" + pos + "]", path);
+            visited.add(node);
+            positions.add(pos);
+        });
+        assertEquals(expected.size(), visited.size());
+        Context candRef = context.findElement(SelectionCriteria.valueOf(searchPath4 + "||null||null"), null)
+                .get("CAND_REF");
+        for (int i = 0; i < visited.size(); i++) {
+            assertEquals(expected.get(i).toString(), visited.get(i).toString());
+            assertEquals(candRef.entryFromArray(positions.get(i)).toString(), visited.get(i).toString());
+        }
+
+        // Target elements, one callback per member found
+        sc = SelectionCriteria.valueOf(searchPath4 + "||REGN_STAT_CD=15201||CAND_RNK,REGN_STAT_CD");
+        Map<Integer, Map<String, String>> byPosition = new LinkedHashMap<>();
+        context.findElement(sc, SearchOptions.defaultOptions().withResultLimit(3), (name, node, pos, path) -> {
+            assertEquals(searchPath4 + "[" + pos + "]." + name, path);
+            byPosition.computeIfAbsent(pos, k -> new HashMap<>()).put(name, node.stringRepresentation());
+        });
+        assertEquals(3, byPosition.size());
+        Iterator<Map<String, String>> it = byPosition.values().iterator();
+        context.findElementStream(sc, null).limit(3).forEach(e -> {
+            Map<String, String> members = it.next();
+            assertEquals(e.getValue().entrySet().size(), members.size());
+            members.forEach((k, v) -> assertEquals(e.getValue().memberValue(k).stringRepresentation(), v));
+        });
+
+        // Single, non-array match
+        List<String> single = new ArrayList<>();
+        context.findElement(SelectionCriteria.valueOf(searchPath1 + "||null||null"), null,
+                (name, node, pos, path) -> single.add(name + "/" + node.stringRepresentation() + "/" + pos + "/"
+                        + path));
+        assertEquals(Collections.singletonList("REGN_NBR_CD/15336/" + MatchVisitor.NOT_IN_ARRAY + "/" + searchPath1),
+                single);
+
+        // Matches found at different elements tell apart by their path, whatever the search path
+        Context ctx = ContextFactory.obtainContext("{\"a\":[{\"b\":{\"id\":\"1\"}},{\"b\":[{\"id\":\"2\"},"
+                + "{\"id\":\"3\"}]}],\"c\":{\"id\":\"4\"}}");
+        for (String p : new String[] {"a[*].b", "..b", "a[0:2].b"}) {
+            List<String> paths = new ArrayList<>();
+            ctx.findElement(SelectionCriteria.valueOf(p + "||null||id"), SearchOptions.defaultOptions()
+                    .withUseNameIndex(true), (name, node, pos, path) -> paths.add(path + "=" + node
+                    .stringRepresentation()));
+            assertEquals(Arrays.asList("a[0].b.id=1", "a[1].b[0].id=2", "a[1].b[1].id=3"), paths);
+        }
+        List<String> paths = new ArrayList<>();
+        ctx.findElement(SelectionCriteria.valueOf("..id||null||null"), null,
+                (name, node, pos, path) -> paths.add(path));
+        assertEquals(Arrays.asList("a[0].b.id", "a[1].b[0].id", "a[1].b[1].id", "c.id"), paths);
+        Context anonAry = ContextFactory.obtainContext("[{\"a\":\"1\"},{\"a\":\"2\"}]");
+        paths.clear();
+        anonAry.findElement(SelectionCriteria.valueOf("[1].a||null||null"), null,
+                (name, node, pos, path) -> paths.add(path));
+        assertEquals(Collections.singletonList("[1].a"), paths);
+    }
+
+
+    /**
+     * Results keep the order in which they were given, regardless of how many there are, and can't be modified
+     * through any of the views.
+     */
+    @Test
+    public void searchResultIsOrderedAndUnmodifiable() {
+        List<String> names = Arrays.asList("zeta", "alpha", "mu", "beta");
+        for (int n = 0; n <= names.size(); n++) {
+            Map<String, Context> m = new LinkedHashMap<>();
+            for (String name : names.subList(0, n)) {
+                m.put(name, ContextFactory.obtainContext("{\"" + name + "\":\"" + n + "\"}"));
+            }
+            SearchResult sr = SearchResult.createSearchResult(m);
+            m.clear();
+            assertEquals(n, sr.size());
+            assertEquals(names.subList(0, n), new ArrayList<>(sr.keySet()));
+            assertEquals(0 == n ? null : sr.get("zeta"), sr.firstResult());
+            assertEquals(n > 1, sr.containsKey("alpha"));
+            assertTrue(null == sr.get("bogus"));
+            boolean unsupported = false;
+            try {
+                sr.entrySet().clear();
+            } catch (UnsupportedOperationException e) {
+                unsupported = true;
+            }
+            assertTrue(0 == n || unsupported);
+        }
+    }
+
+
     /**
      * Test scenario where the search involves filtering on a field which is one or more level
      * deeper than the located node.
@@ -563,6 +1457,86 @@ public class ContextTest {
                 findAny().isPresent());
     }
 
+    /**
+     * The typed {@link SearchOptions} must behave exactly like the equivalent extra parameters {@link Map}.
+     */
+    @Test
+    public void searchOptionsAreEquivalentToExtraParams() {
+        Map<String, String> params = new HashMap<>();
+        params.put(Context.FOUND_ELEM_VAL_IS_REGEX, "1");
+        params.put(Context.PARTIAL_REGEX_MATCH, "1");
+        SearchOptions opts = SearchOptions.fromMap(params);
+        assertTrue(opts.isFoundElemValIsRegex() && opts.isPartialRegexMatch());
+        assertTrue(!opts.isIgnoreIncompatibleSearchPath() && !opts.isIgnoreIncompatibleTargetElement());
+        assertEquals(SearchOptions.defaultOptions().withFoundElemValIsRegex(true).withPartialRegexMatch(true), opts);
+        assertEquals(opts, SearchOptions.fromMap(opts.toMap()));
+        assertTrue(SearchOptions.defaultOptions() == SearchOptions.fromMap(null));
+
+        Context c = ContextFactory.INSTANCE.obtainContext("{\"node\": [{\"key\": \"Micro.*\"}, {\"key\": \"Verizon\\\\s{2}Wireless\"}]}");
+        SelectionCriteria sc = SelectionCriteria.valueOf("node||key=Company Verizon  Wireless||null");
+        SearchResult sr = c.findElementWithOptions(sc, opts);
+        assertEquals(c.findElement(sc, params).toString(), sr.toString());
+        assertEquals(1, sr.get("node").asArray().size());
+        assertTrue(c.findElementWithOptions(sc, opts.withPartialRegexMatch(false)).isEmpty());
+    }
+
+    /**
+     * With {@link SearchOptions#withMissingPathAsEmpty(boolean)} a search path that is not found, including an unexpected
+     * array node, yields no results instead of an exception. Also check that the exceptions thrown otherwise still
+     * carry a useful message, even though it gets built lazily, and skip the stack trace when told to.
+     */
+    @Test
+    public void missingPathYieldsEmptyResultWithoutException() {
+        SelectionCriteria bogus = SelectionCriteria.valueOf(searchPath4 + "_BOGUS||null||null");
+        SelectionCriteria unexpectedAry = SelectionCriteria.valueOf(searchPath5 + "||null||null");
+        SelectionCriteria good = SelectionCriteria.valueOf(searchPath1 + "||null||null");
+
+        assertTrue(!context.findOptionalElement(bogus, null).isPresent());
+        assertTrue(!context.findOptionalElement(unexpectedAry, null).isPresent());
+        assertEquals("15336", context.findOptionalElement(good, null).get().get("REGN_NBR_CD").stringRepresentation());
+        assertTrue(context.findElementWithOptions(unexpectedAry,
+                SearchOptions.defaultOptions().withMissingPathAsEmpty(true)).isEmpty());
+
+        boolean error = false;
+        try {
+            context.findElementWithOptions(unexpectedAry, null);
+        } catch (IllegalArgumentException e) {
+            error = true;
+            assertTrue(e.getCause() instanceof UnexpectedArrayNodeException);
+            assertEquals(0, e.getCause().getStackTrace().length);
+            assertTrue(e.getStackTrace().length > 0);
+            assertTrue(e.getMessage().contains("NME_ENTR"));
+        }
+        assertTrue(error);
+
+        error = false;
+        try {
+            context.findElementWithOptions(bogus, SearchOptions.defaultOptions().withOmitMissStackTrace(true));
+        } catch (IllegalArgumentException e) {
+            error = true;
+            assertTrue(e.getCause() instanceof IncompatibleSearchPathException);
+            assertEquals(0, e.getStackTrace().length);
+            assertTrue(e.getMessage().contains("_BOGUS"));
+        }
+        assertTrue(error);
+        Map<String, String> params = new HashMap<>();
+        params.put(Context.OMIT_MISS_STACK_TRACE, "1");
+        assertTrue(SearchOptions.fromMap(params).isOmitMissStackTrace());
+
+        IncompatibleSearchPathException ispe =
+                new IncompatibleSearchPathException(bogus.getSearchPath(), "BOGUS", context);
+        assertTrue(ispe.getStackTrace().length > 0);
+        assertTrue(ispe.getMessage().contains("'BOGUS'"));
+        Exception cause = new IllegalStateException("node renamed");
+        ispe.initCause(cause);
+        assertTrue(ispe.getCause() == cause);
+        UnexpectedArrayNodeException uane =
+                new UnexpectedArrayNodeException(unexpectedAry.getSearchPath(), "NME_ENTR", context, cause, false);
+        assertTrue(uane.getCause() == cause);
+        assertEquals(0, uane.getStackTrace().length);
+    }
+
+
     /**
      * Test filter contains a range of values
      */
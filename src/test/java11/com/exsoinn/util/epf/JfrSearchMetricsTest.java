@@ -0,0 +1,113 @@
+package com.exsoinn.util.epf;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compiled for Java 11, along with the tests of the other classes packaged under META-INF/versions, see the pom
+ */
+public class JfrSearchMetricsTest {
+    @Test
+    public void installedAndOffWithoutRecording() {
+        assertTrue(SearchMetricsRegistry.get() instanceof JfrSearchMetrics);
+        assertFalse(new JfrSearchMetrics().isEnabled());
+        assertFalse(SearchMetricsRegistry.isEnabled());
+    }
+
+
+    @Test
+    public void emitsParseAndSearchEvents() throws Exception {
+        Path file = Files.createTempFile("epf", ".jfr");
+        try {
+            try (Recording r = new Recording()) {
+                r.enable("com.exsoinn.epf.ContextParse");
+                r.enable("com.exsoinn.epf.Search");
+                r.start();
+                assertTrue(SearchMetricsRegistry.isEnabled());
+                Context ctx = ContextFactory.obtainContext("{\"doc\":{\"items\":[{\"id\":\"1\"},{\"id\":\"2\"}]}}");
+                ctx.findElement(SelectionCriteria.valueOf("doc.items||id=2||null"), null);
+                // The Context's this search builds along the way are no parses of their own
+                ctx.findElement(SelectionCriteria.valueOf("doc.items||id=[1,2]||id"), null);
+                try {
+                    ctx.findElement(SelectionCriteria.valueOf("doc.nope||null||null"), null);
+                } catch (IllegalArgumentException ignore) {
+                    // Reported as a failed search
+                }
+                try {
+                    ContextFactory.obtainContext("<not xml");
+                } catch (IllegalArgumentException ignore) {
+                    // Reported as a failed parse
+                }
+                r.stop();
+                r.dump(file);
+            }
+
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+            List<RecordedEvent> parses = events.stream()
+                    .filter(e -> e.getEventType().getName().equals("com.exsoinn.epf.ContextParse"))
+                    .collect(Collectors.toList());
+            assertEquals(2, parses.size());
+            RecordedEvent parsed = parses.get(0);
+            assertEquals("JSON", parsed.getString("format"));
+            assertTrue(parsed.getLong("size") > 0);
+            assertTrue(parsed.getDuration().toNanos() > 0);
+            assertNull(parsed.getString("error"));
+            assertEquals("XML", parses.get(1).getString("format"));
+            assertNotNull(parses.get(1).getString("error"));
+
+            List<RecordedEvent> searches = events.stream()
+                    .filter(e -> e.getEventType().getName().equals("com.exsoinn.epf.Search"))
+                    .collect(Collectors.toList());
+            assertEquals(3, searches.size());
+            RecordedEvent ok = searches.get(0);
+            assertEquals("doc.items||id=2||NULL", ok.getString("criteria"));
+            assertEquals(1, ok.getInt("results"));
+            assertTrue(ok.getLong("nodesVisited") > 0);
+            assertEquals(2, ok.getLong("filterComparisons"));
+            assertTrue(ok.getDuration().toNanos() > 0);
+            assertNull(ok.getString("error"));
+            assertNull(searches.get(1).getString("error"));
+            assertNotNull(searches.get(2).getString("error"));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+
+    /**
+     * The events last as long as the parse or search, hence a recording threshold leaves out those that are quicker
+     */
+    @Test
+    public void honorsThreshold() throws Exception {
+        Path file = Files.createTempFile("epf", ".jfr");
+        try {
+            try (Recording r = new Recording()) {
+                r.enable("com.exsoinn.epf.ContextParse").withThreshold(Duration.ofHours(1));
+                r.enable("com.exsoinn.epf.Search").withThreshold(Duration.ofHours(1));
+                r.start();
+                Context ctx = ContextFactory.obtainContext("{\"doc\":{\"id\":\"1\"}}");
+                ctx.findElement(SelectionCriteria.valueOf("doc||id=1||null"), null);
+                r.stop();
+                r.dump(file);
+            }
+            assertTrue(RecordingFile.readAllEvents(file).stream()
+                    .noneMatch(e -> e.getEventType().getName().startsWith("com.exsoinn.epf.")));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
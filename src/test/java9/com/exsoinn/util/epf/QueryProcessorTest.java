@@ -0,0 +1,254 @@
+package com.exsoinn.util.epf;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compiled for Java 11, along with the tests of the other classes packaged under META-INF/versions, see the pom
+ */
+public class QueryProcessorTest {
+    private static final List<SelectionCriteria> CRITERIA = Arrays.asList(
+            SelectionCriteria.valueOf("doc.id||null||null"),
+            SelectionCriteria.valueOf("doc.items||kind=a||val"));
+
+
+    private static String document(int pId) {
+        return "{\"doc\":{\"id\":\"" + pId + "\",\"items\":[{\"kind\":\"a\",\"val\":\"" + pId
+                + "\"},{\"kind\":\"b\",\"val\":\"x\"}]}}";
+    }
+
+
+    @Test
+    public void resultsComeOutInOrderWithFailuresInPlace() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            QueryProcessor processor = QueryProcessor.of(CRITERIA, null, executor, 3);
+            CollectingSubscriber subscriber = new CollectingSubscriber(1);
+            processor.subscribe(subscriber);
+            try (SubmissionPublisher<Object> publisher = new SubmissionPublisher<>()) {
+                publisher.subscribe(processor);
+                for (int i = 0; i < 50; i++) {
+                    if (i == 7) {
+                        publisher.submit("not a document");
+                    } else if (i % 3 == 0) {
+                        publisher.submit(document(i).getBytes(StandardCharsets.UTF_8));
+                    } else if (i % 3 == 1) {
+                        publisher.submit(ContextFactory.obtainContext(document(i)));
+                    } else {
+                        publisher.submit(document(i));
+                    }
+                }
+            }
+            assertTrue(subscriber.done.await(10, TimeUnit.SECONDS));
+            assertNull(subscriber.error);
+            assertEquals(50, subscriber.results.size());
+            for (int i = 0; i < 50; i++) {
+                DocumentResult r = subscriber.results.get(i);
+                assertEquals(i, r.getSequence());
+                if (i == 7) {
+                    assertFalse(r.isSuccess());
+                    assertTrue(r.getError() instanceof IllegalArgumentException);
+                } else {
+                    assertTrue(r.isSuccess());
+                    assertEquals(String.valueOf(i), r.getResults().get(0).get("id").stringRepresentation());
+                    assertEquals(String.valueOf(i),
+                            r.getResults().get(1).get("val").stringRepresentation());
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+
+    @Test
+    public void documentsAreRequestedOnlyAsResultsAreConsumed() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            QueryProcessor processor = QueryProcessor.of(CRITERIA, null, executor, 4);
+            AtomicLong requested = new AtomicLong();
+            processor.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long pCount) {
+                    requested.addAndGet(pCount);
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            assertEquals(4, requested.get());
+
+            CollectingSubscriber subscriber = new CollectingSubscriber(0);
+            processor.subscribe(subscriber);
+            for (int i = 0; i < 4; i++) {
+                processor.onNext(document(i));
+            }
+            // Nothing requested downstream, hence nothing more requested upstream
+            Thread.sleep(200);
+            assertEquals(4, requested.get());
+            assertTrue(subscriber.results.isEmpty());
+
+            subscriber.subscription.request(2);
+            long deadline = System.currentTimeMillis() + 10000;
+            while (requested.get() < 6 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(6, requested.get());
+            assertEquals(2, subscriber.results.size());
+
+            subscriber.subscription.request(Long.MAX_VALUE);
+            processor.onComplete();
+            assertTrue(subscriber.done.await(10, TimeUnit.SECONDS));
+            assertEquals(4, subscriber.results.size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+
+    @Test
+    public void eachStageKeepsToItsOwnLimit() throws Exception {
+        // Tasks are run by hand, one at a time, to tell how many of each stage got started
+        Queue<Runnable> tasks = new ArrayDeque<>();
+        QueryProcessor processor = QueryProcessor.of(CRITERIA, null, tasks::add, 8, 2, 1);
+        CollectingSubscriber subscriber = new CollectingSubscriber(Long.MAX_VALUE);
+        processor.subscribe(subscriber);
+        processor.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long pCount) {
+            }
+
+            @Override
+            public void cancel() {
+            }
+        });
+        for (int i = 0; i < 8; i++) {
+            processor.onNext(document(i));
+        }
+        // Two parses started, the other documents wait their turn
+        assertEquals(2, tasks.size());
+        // The first parse done hands its document to the search stage, and lets the third document be parsed
+        tasks.poll().run();
+        assertEquals(3, tasks.size());
+        // The second parse done leaves its document waiting for the only search there can be
+        tasks.poll().run();
+        assertEquals(3, tasks.size());
+        Runnable task;
+        while (null != (task = tasks.poll())) {
+            task.run();
+            assertTrue(tasks.size() <= 3);
+        }
+        processor.onComplete();
+        assertTrue(subscriber.done.await(10, TimeUnit.SECONDS));
+        assertEquals(8, subscriber.results.size());
+        for (int i = 0; i < 8; i++) {
+            DocumentResult r = subscriber.results.get(i);
+            assertEquals(i, r.getSequence());
+            assertEquals(String.valueOf(i), r.getResults().get(0).get("id").stringRepresentation());
+        }
+
+        int[][] limits = {{0, 1, 1}, {1, 0, 1}, {1, 1, 0}};
+        for (int[] l : limits) {
+            boolean error = false;
+            try {
+                QueryProcessor.of(CRITERIA, null, Runnable::run, l[0], l[1], l[2]);
+            } catch (IllegalArgumentException e) {
+                error = true;
+            }
+            assertTrue(error);
+        }
+    }
+
+
+    @Test
+    public void upstreamErrorFollowsPendingResults() throws Exception {
+        QueryProcessor processor = QueryProcessor.of(CRITERIA, null, Runnable::run, 2);
+        CollectingSubscriber subscriber = new CollectingSubscriber(Long.MAX_VALUE);
+        processor.subscribe(subscriber);
+        processor.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long pCount) {
+            }
+
+            @Override
+            public void cancel() {
+            }
+        });
+        processor.onNext(document(1));
+        processor.onError(new IllegalStateException("bus went away"));
+        assertTrue(subscriber.done.await(10, TimeUnit.SECONDS));
+        assertEquals(1, subscriber.results.size());
+        assertEquals("bus went away", subscriber.error.getMessage());
+
+        boolean error = false;
+        try {
+            QueryProcessor.of(Collections.emptyList(), null, Runnable::run, 1);
+        } catch (IllegalArgumentException e) {
+            error = true;
+        }
+        assertTrue(error);
+    }
+
+
+    private static final class CollectingSubscriber implements Flow.Subscriber<DocumentResult> {
+        private final long batch;
+        private final List<DocumentResult> results = Collections.synchronizedList(new ArrayList<>());
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile Flow.Subscription subscription;
+        private volatile Throwable error;
+
+        /*
+         * Requests pBatch results at a time, 0 to leave it up to the test
+         */
+        private CollectingSubscriber(long pBatch) {
+            batch = pBatch;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription pSubscription) {
+            subscription = pSubscription;
+            if (batch > 0) {
+                pSubscription.request(batch);
+            }
+        }
+
+        @Override
+        public void onNext(DocumentResult pItem) {
+            results.add(pItem);
+            if (batch > 0 && batch != Long.MAX_VALUE) {
+                subscription.request(batch);
+            }
+        }
+
+        @Override
+        public void onError(Throwable pError) {
+            error = pError;
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            done.countDown();
+        }
+    }
+}